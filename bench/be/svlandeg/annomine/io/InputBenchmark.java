@@ -0,0 +1,342 @@
+package be.svlandeg.annomine.io;
+
+import be.svlandeg.annomine.algorithms.TextMapping;
+import be.svlandeg.annomine.data.Description;
+import be.svlandeg.annomine.data.DescriptionsList;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+/**
+ * Small benchmark that measures how many bytes are allocated (and how much time is spent) per line when reading descriptions from tab-delimited BLAST output.
+ * It is not part of the pipeline itself, and is run by hand when changing the ingestion path in {@link Input}: it lives in the bench source root,
+ * which is compiled against the sources (in the same package) but not shipped with them.
+ * The allocated bytes are only measured on JVMs whose ThreadMXBean reports them (such as HotSpot).
+ * To compare against, the legacy ingestion is measured as well: a copy of how a line was read before it was split only once,
+ * with a new Input and Preprocess per line and a StringTokenizer for every column that is read.
+ *
+ * @author Sofie Van Landeghem
+ */
+public class InputBenchmark
+{
+
+    /**
+     * Main method that runs the benchmark.
+     * Without arguments, a synthetic BLAST tabular output (query in column 0, e-value in column 10, description in column 12) is used.
+     *
+     * @param args optionally: the tab-delimited file, the description column, the query column and the e-value column
+     * @throws IOException when the input file can not be read
+     */
+    public static void main(String[] args) throws IOException
+    {
+        List<String> lines;
+        int description_col = 12;
+        int query_col = 0;
+        int evalue_col = 10;
+        if (args.length > 0)
+        {
+            lines = readLines(new File(args[0]));
+            if (args.length > 3)
+            {
+                description_col = Integer.parseInt(args[1]);
+                query_col = Integer.parseInt(args[2]);
+                evalue_col = Integer.parseInt(args[3]);
+            }
+        }
+        else
+        {
+            lines = syntheticLines(10000);
+        }
+
+        // without a TextMapping, only the ingestion itself (splitting, parsing and preprocessing) is measured
+        ConcatenatedFileReader ingestion = new ConcatenatedFileReader(null, evalue_col, -1, description_col, query_col);
+        ConcatenatedFileReader full = new ConcatenatedFileReader(new TextMapping(true, true, true), evalue_col, -1, description_col, query_col);
+
+        runLegacy("legacy ingestion     ", lines, evalue_col, description_col, query_col, 5);
+        run("ingestion only       ", ingestion, lines, 5);
+        run("ingestion + mapping  ", full, lines, 5);
+    }
+
+    /**
+     * Read all lines of the input file in memory, so that only the processing of the lines is measured.
+     */
+    private static List<String> readLines(File file) throws IOException
+    {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        String line = reader.readLine();
+        while (line != null)
+        {
+            if (!line.toLowerCase().startsWith("querylocus"))
+            {
+                lines.add(line);
+            }
+            line = reader.readLine();
+        }
+        reader.close();
+        return lines;
+    }
+
+    /**
+     * Create lines that look like BLAST tabular output.
+     */
+    private static List<String> syntheticLines(int nr)
+    {
+        String[] descriptions = { "ATP-binding cassette transporter, ABC-2 type [Escherichia coli]", "hypothetical protein XYZ_123 [Bacillus subtilis]",
+                "RecName: Full=DNA polymerase III subunit alpha; Short=Pol III", "PREDICTED: serine/threonine-protein kinase (ISS)",
+                "NAD(P)H-dependent oxidoreductase", "Na+/H+ antiporter subunit A", "transcriptional regulator, LysR family" };
+        String[] evalues = { "0.0", "1e-50", "3e-10", "2.5e-120", "0.004" };
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < nr; i++)
+        {
+            lines.add("query" + (i / 20) + "\thit" + i + "\t98.5\t120\t0\t0\t1\t120\t1\t120\t" + evalues[i % evalues.length] + "\t250\t" + descriptions[i % descriptions.length]);
+        }
+        return lines;
+    }
+
+    /**
+     * Read all lines a number of times, and print the allocated bytes and time per line of the last round.
+     */
+    private static void run(String name, Reader reader, List<String> lines, int rounds)
+    {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long bytes = 0;
+        long time = 0;
+        for (int round = 0; round < rounds; round++)
+        {
+            reader.startMapping(new DescriptionsList(name));
+            long startbytes = allocatedBytes(bean, thread);
+            long starttime = System.nanoTime();
+            for (String line : lines)
+            {
+                reader.readDescription(line, true, false);
+            }
+            time = System.nanoTime() - starttime;
+            long endbytes = allocatedBytes(bean, thread);
+            bytes = startbytes < 0 || endbytes < 0 ? -1 : endbytes - startbytes;
+        }
+        System.out.println(name + ": " + (bytes < 0 ? "?" : "" + (bytes / lines.size())) + " bytes/line, " + (time / lines.size()) + " ns/line (" + lines.size() + " lines)");
+    }
+
+    /**
+     * Read all lines a number of times with the legacy ingestion, and print the allocated bytes and time per line of the last round.
+     */
+    private static void runLegacy(String name, List<String> lines, int evalue_col, int description_col, int query_col, int rounds)
+    {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long bytes = 0;
+        long time = 0;
+        for (int round = 0; round < rounds; round++)
+        {
+            long startbytes = allocatedBytes(bean, thread);
+            long starttime = System.nanoTime();
+            for (String line : lines)
+            {
+                new LegacyInput().readEvaluedFromTab(line, evalue_col, description_col, query_col);
+            }
+            time = System.nanoTime() - starttime;
+            long endbytes = allocatedBytes(bean, thread);
+            bytes = startbytes < 0 || endbytes < 0 ? -1 : endbytes - startbytes;
+        }
+        System.out.println(name + ": " + (bytes < 0 ? "?" : "" + (bytes / lines.size())) + " bytes/line, " + (time / lines.size()) + " ns/line (" + lines.size() + " lines)");
+    }
+
+    /**
+     * Return the number of bytes allocated by a thread, or a negative number when the JVM does not report it.
+     * The method that reports it is not part of the standard ThreadMXBean, so it is looked up through its extension interface by name.
+     */
+    private static long allocatedBytes(ThreadMXBean bean, long thread)
+    {
+        try
+        {
+            Method method = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long.class);
+            return (Long) method.invoke(bean, thread);
+        }
+        catch (Exception e)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * The reading of one line as Input did it before the line was split only once (without a TextMapping): each column that is read tokenizes the whole line again,
+     * the e-value is parsed from a substring and turned into a score by multiplying it, and a new Preprocess is created for the description.
+     */
+    private static class LegacyInput
+    {
+        private double default_score = 1.0;
+
+        private Description readEvaluedFromTab(String line, int score_col, int description_col, int query_col)
+        {
+            String description = readColumn(line, description_col);
+            description = preprocess(description);
+            String stringscore = readColumn(line, score_col).trim();
+            double score = scoreFromEvalue(Double.parseDouble(stringscore));
+            String query = readColumn(line, query_col);
+            return new Description(description, score, query);
+        }
+
+        private double scoreFromEvalue(double evalue)
+        {
+            double score = default_score;
+            if (evalue == 0.0)
+            {
+                score = 250.0;
+            }
+            else
+            {
+                while (evalue < 1)
+                {
+                    evalue *= 10;
+                    score++;
+                }
+            }
+            return score;
+        }
+
+        private String readColumn(String line, int col)
+        {
+            StringTokenizer stok = new StringTokenizer(line, "\t");
+            int cols = stok.countTokens();
+            if (col >= cols)
+            {
+                throw new IllegalArgumentException("  ! " + col + " is not a valid column (total columns: " + cols + ")");
+            }
+            int nr = 0;
+            while (stok.hasMoreTokens())
+            {
+                String token = stok.nextToken();
+                if (nr == col)
+                {
+                    return token;
+                }
+                nr++;
+            }
+            return null;
+        }
+
+        private String preprocess(String line)
+        {
+            LegacyPreprocess pp = new LegacyPreprocess();
+            String convertedline = pp.removeBraces(line);
+            convertedline = pp.removeStopWords(convertedline);
+            convertedline = pp.convertToMeta(convertedline);
+            return convertedline.trim();
+        }
+    }
+
+    /**
+     * Preprocess as it was before its word lists were compiled: the lists are built again for every description, and the meta words replace - and +.
+     */
+    private static class LegacyPreprocess
+    {
+        private String removeBraces(String line)
+        {
+            String convertedline = line.trim();
+            int index = convertedline.lastIndexOf("[");
+            if (index > 0 && line.endsWith("]"))
+            {
+                convertedline = convertedline.substring(0, index);
+            }
+            return convertedline.trim();
+        }
+
+        private String convertToMeta(String line)
+        {
+            String convertedline = line.replace("+", "plus");
+            convertedline = convertedline.replace("-", "hyphen");
+            return convertedline;
+        }
+
+        private String removeStopWords(String line)
+        {
+            String convertedline = line;
+            boolean go = true;
+            while (go)
+            {
+                go = false;
+                for (String startStopword : toLowerCase(getStartStopWords()))
+                {
+                    if (convertedline.toLowerCase().startsWith(startStopword))
+                    {
+                        convertedline = convertedline.substring(startStopword.length());
+                        go = true;
+                    }
+                }
+                if (convertedline.contains("RecName"))
+                {
+                    int shortindex = convertedline.indexOf("Short=");
+                    if (shortindex < 0)
+                    {
+                        shortindex = convertedline.length();
+                    }
+                    int altindex = convertedline.indexOf("AltName:");
+                    if (altindex < 0)
+                    {
+                        altindex = convertedline.length();
+                    }
+                    int flagsindex = convertedline.indexOf("Flags:");
+                    if (flagsindex < 0)
+                    {
+                        flagsindex = convertedline.length();
+                    }
+                    int firstindex = Math.min(Math.min(shortindex, altindex), flagsindex);
+                    if (firstindex > 0 && firstindex < convertedline.length())
+                    {
+                        convertedline = convertedline.substring(0, firstindex);
+                    }
+                }
+                for (String removeword : getRemoveWords())
+                {
+                    if (convertedline.contains(removeword))
+                    {
+                        go = true;
+                        convertedline = convertedline.replace(removeword, "").trim();
+                    }
+                }
+            }
+            return convertedline.trim();
+        }
+
+        private Set<String> getStartStopWords()
+        {
+            Set<String> words = new HashSet<String>();
+            words.add("predicted:");
+            return words;
+        }
+
+        private Set<String> getRemoveWords()
+        {
+            Set<String> words = new HashSet<String>();
+            words.add("RecName:");
+            words.add("Full=");
+            words.add("Short=");
+            words.add("AltName:");
+            words.add("Full=");
+            words.add("(ISS)");
+            return words;
+        }
+
+        private Set<String> toLowerCase(Set<String> originals)
+        {
+            Set<String> converted = new HashSet<String>();
+            for (String s : originals)
+            {
+                converted.add(s.toLowerCase());
+            }
+            return converted;
+        }
+    }
+}
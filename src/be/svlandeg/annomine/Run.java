@@ -1,17 +1,42 @@
 package be.svlandeg.annomine;
 
+import be.svlandeg.annomine.algorithms.MappingContext;
 import be.svlandeg.annomine.algorithms.Normalization;
 import be.svlandeg.annomine.algorithms.Overrepresentation;
 import be.svlandeg.annomine.algorithms.TextMapping;
 import be.svlandeg.annomine.data.DescriptionsList;
+import be.svlandeg.annomine.io.CachedFileReader;
 import be.svlandeg.annomine.io.ConcatenatedFileReader;
+import be.svlandeg.annomine.io.FileSplitter;
+import be.svlandeg.annomine.io.GzipFiles;
+import be.svlandeg.annomine.io.MappedFileReader;
 import be.svlandeg.annomine.io.Output;
+import be.svlandeg.annomine.io.Preprocess;
+import be.svlandeg.annomine.io.Reader;
 import be.svlandeg.annomine.io.SeparateFileReader;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
 import java.util.Set;
 import java.util.SortedMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Run the complete pipeline, depending on the format of input and output.
@@ -23,9 +48,36 @@ public class Run
 
 	protected Overrepresentation op;
 
-	/* the internal TextMapping object that unifies the String input */
+	/* the internal TextMapping object that unifies the String input: it never changes, and is shared by all threads (each query gene gets its own mapping context) */
 	protected TextMapping tm;
 
+	/* whether input files are read through a memory-mapped parser */
+	protected boolean memorymapped = false;
+
+	/* the directory with cache files of preprocessed descriptions, or null when no cache should be used */
+	protected File cachedir = null;
+
+	/* the file with a snapshot of the trained background model, or null when the background model is always trained from its descriptions */
+	protected File snapshot = null;
+
+	/* the number of threads that process the query genes of one input file */
+	protected int threads = 1;
+
+	/* the number of ranges per thread in which an input file is split, so that threads that finish early can take over some work */
+	protected static int ranges_per_thread = 4;
+
+	/* the maximal size (in bytes) of one range of an input file, as the results of a range are kept in memory until they can be written */
+	protected static long max_range_bytes = 16L * 1024 * 1024;
+
+	/* the number of ranges per thread that are processed, or wait to be written, at the same time */
+	protected static int ranges_in_flight_per_thread = 2;
+
+	/* whether the query genes of one input file are read, scored and written by a pipeline of threads */
+	protected boolean pipelined = false;
+
+	/* the number of query genes that can wait between two stages of the pipeline */
+	protected static int queue_size = 8;
+
 	/**
 	 * Create a new run object, specifying the classes to calculate overrepresentation and to deal with text input.
 	 * 
@@ -38,6 +90,67 @@ public class Run
 		this.tm = tm;
 	}
 
+	/**
+	 * Define whether input files should be read through a memory-mapped parser ({@link MappedFileReader}) instead of line by line.
+	 * 
+	 * @param memorymapped whether or not to memory-map the input files
+	 */
+	public void setMemoryMapped(boolean memorymapped)
+	{
+		this.memorymapped = memorymapped;
+	}
+
+	/**
+	 * Define a directory in which the preprocessed descriptions of each input file are cached ({@link CachedFileReader}).
+	 * Later runs on the same input files, with the same settings for reading and converting the descriptions, then skip the preprocessing.
+	 * 
+	 * @param cachedir the cache directory, or null to always preprocess the input (default)
+	 */
+	public void setCacheDirectory(File cachedir)
+	{
+		this.cachedir = cachedir;
+	}
+
+	/**
+	 * Define a file in which a snapshot of the trained background model is kept (see {@link Overrepresentation#saveBackground(File, String)}).
+	 * When the snapshot was made from the same background data with the same settings, the background model is loaded from it instead of being trained.
+	 * Otherwise the background model is trained, and the snapshot is (re)written for later runs.
+	 * 
+	 * @param snapshot the snapshot file, or null to always train the background model (default)
+	 */
+	public void setBackgroundSnapshot(File snapshot)
+	{
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * Define whether the query genes of one input file ({@link #runFromFiles}) are processed by a pipeline: 
+	 * one thread reads and converts the descriptions of the next query genes, and another one writes the results of the previous ones, while the current query gene is being scored.
+	 * The stages are connected by bounded queues, so that a fast reader can not run ahead too far. The pipeline is only used when the input file is not split into ranges:
+	 * with more than one thread (see {@link #setThreads(int)}), an uncompressed input file is processed in ranges instead, and a warning is printed.
+	 * 
+	 * @param pipelined whether or not to use a pipeline (false by default)
+	 */
+	public void setPipelined(boolean pipelined)
+	{
+		this.pipelined = pipelined;
+	}
+
+	/**
+	 * Define the number of threads that process the query genes of one input file ({@link #runFromFiles}).
+	 * With more than one thread, the input file is split into ranges that each start at a new query gene, and the results are written in the order of the input file.
+	 * This requires the input file to be sorted by query gene.
+	 * A gzip-compressed input file can not be split: its query genes are processed one at a time, but when it is block-gzipped (BGZF), its blocks are decompressed on this number of threads.
+	 * The background model is trained on this number of threads as well (see {@link Overrepresentation#setThreads(int)}).
+	 * 
+	 * @param threads the number of threads (1 by default)
+	 */
+	public void setThreads(int threads)
+	{
+		this.threads = Math.max(1, threads);
+		op.setThreads(this.threads);
+	}
+
 	/**
 	 * Run the pipeline from directories.
 	 * 
@@ -59,7 +172,7 @@ public class Run
 		
 		boolean switchorder = false;
 		op.cleanBackgroundModel();
-		if (backgrounddir != null)
+		if (backgrounddir != null && !loadBackground(backgrounddir, newline, printLog))
 		{
 			if (printLog)
 			{
@@ -67,8 +180,13 @@ public class Run
 				System.out.println("Building background from " + backgrounddir.getAbsolutePath() + newline);
 			}
 			// when creating the background model, don't apply any weights
-			Set<DescriptionsList> descriptions = new SeparateFileReader(tm, -1, -1, 0, "background").readBatchLists(backgrounddir.getAbsolutePath(), true, switchorder, newline);
+			Set<DescriptionsList> descriptions = createSeparateReader(-1, -1, 0, "background").readBatchLists(backgrounddir.getAbsolutePath(), true, switchorder, newline);
 			op.calculateBackgroundModel(descriptions);
+			if (printLog)
+			{
+				System.out.println(op.background.getAccuracy() + newline);
+			}
+			saveBackground(backgrounddir, newline);
 		}
 
 		iniDirectories(outputdir);
@@ -91,9 +209,8 @@ public class Run
 			String testname = testfile.getName();
 			try
 			{
-				tm.clean();
 				op.cleanAllResults();
-				DescriptionsList test = new SeparateFileReader(tm, score_col, -1, descr_col, testname).readList(testfile, true, switchorder, newline);
+				DescriptionsList test = createSeparateReader(score_col, -1, descr_col, testname).readList(testfile, true, switchorder, newline);
 				if (perc <= 100 && perc > 0)
 				{
 					test = new Normalization().enforceWeightCutoff(test, perc);
@@ -109,7 +226,7 @@ public class Run
 				}
 				SortedMap<Double, Set<String>> all_nGrams = op.getAllResults();
 				File outputFile = new File(outputdir + "prediction_" + testname);
-				new Output(weightCutoff, "").printBestResults(tm, outputFile, null, all_nGrams, false, printnr);
+				new Output(weightCutoff, "").printBestResults(test.getMapping(), outputFile, null, all_nGrams, false, printnr);
 			}
 			catch (IOException e)
 			{
@@ -144,7 +261,7 @@ public class Run
 	{
 		boolean switchorder = false;
 		op.cleanBackgroundModel();
-		if (backgroundfile != null)
+		if (backgroundfile != null && !loadBackground(backgroundfile, newline, printLog))
 		{
 			String backgroundname = backgroundfile.getName();
 			if (printLog)
@@ -155,8 +272,13 @@ public class Run
 			// when creating the background model, don't apply any weights
 			try
 			{
-				DescriptionsList background_dl = new SeparateFileReader(tm, -1, -1, 0, "background").readList(backgroundfile, true, switchorder, newline);
+				DescriptionsList background_dl = createSeparateReader(-1, -1, 0, "background").readList(backgroundfile, true, switchorder, newline);
 				op.calculateBackgroundModel(background_dl);
+				if (printLog)
+				{
+					System.out.println(op.background.getAccuracy() + newline);
+				}
+				saveBackground(backgroundfile, newline);
 			}
 			catch (IOException e)
 			{
@@ -171,7 +293,7 @@ public class Run
 				op.cleanBackgroundModel();
 			}
 		}
-		else if (printLog)
+		else if (backgroundfile == null && printLog)
 		{
 			System.out.println(newline);
 			System.out.println("no background model " + newline);
@@ -183,15 +305,54 @@ public class Run
 			System.out.println("testing " + testfile + newline);
 		}
 
-		ConcatenatedFileReader reader = new ConcatenatedFileReader(tm, evalue_col, score_col, description_col, query_col);
 		iniFile(outputfile, newline);
+		if (threads > 1 && !isCompressed(testfile))
+		{
+			if (pipelined)
+			{
+				System.out.println(" ! The pipeline is not used for " + testfile + ", as it is processed in ranges on " + threads + " threads" + newline);
+			}
+			try
+			{
+				runInParallel(testfile, outputfile, evalue_col, score_col, description_col, query_col, perc, normalization, printnr, weightCutoff, newline, printLog);
+			}
+			catch (IOException e)
+			{
+				System.out.println("Error: Couldn't write results." + newline);
+				System.out.println(" " + e.getMessage() + newline);
+			}
+			if (printLog)
+			{
+				System.out.println("DONE " + newline);
+			}
+			return;
+		}
+		if (pipelined)
+		{
+			try
+			{
+				runPipelined(testfile, outputfile, evalue_col, score_col, description_col, query_col, perc, normalization, printnr, weightCutoff, newline, printLog);
+			}
+			catch (IOException e)
+			{
+				System.out.println("Error: Couldn't write results." + newline);
+				System.out.println(" " + e.getMessage() + newline);
+			}
+			if (printLog)
+			{
+				System.out.println("DONE " + newline);
+			}
+			return;
+		}
+
+		ConcatenatedFileReader reader = createConcatenatedReader(tm, evalue_col, score_col, description_col, query_col);
 		int i = 0;
 
 		boolean append = false;
 		try
 		{
-			tm.clean();
-			DescriptionsList dl = reader.readNextDescription(testfile, true, switchorder, newline);
+			reader.open(testfile, newline);
+			DescriptionsList dl = reader.readNextDescription(true, switchorder, newline);
 			while (dl != null)
 			{
 				if (i % 25 == 0)
@@ -208,20 +369,7 @@ public class Run
 				String query = dl.getName();
 				if (query != null && !query.toLowerCase().equals("querylocus"))
 				{
-					op.cleanAllResults();
-					if (printLog)
-					{
-						System.out.println("  calculating test batch for query " + dl.getName() + newline);
-					}
-					if (perc <= 100 && perc > 0)
-					{
-						dl = new Normalization().enforceWeightCutoff(dl, perc);
-					}
-					if (normalization)
-					{
-						dl = new Normalization().linearNormalization(dl, printLog);
-					}
-					boolean allOK = op.calculate(dl, switchorder);
+					boolean allOK = calculate(op, dl, perc, normalization, switchorder, newline, printLog);
 					if (!allOK)
 					{
 						return;
@@ -233,10 +381,8 @@ public class Run
 					{
 						newline = " <br />"; // we're printing to the browser
 					}
-					new Output(weightCutoff, newline).printBestResults(tm, outputfile, query, all_nGrams, append, printnr); //create a new file the first time, then append the rest
+					new Output(weightCutoff, newline).printBestResults(dl.getMapping(), outputfile, query, all_nGrams, append, printnr); //create a new file the first time, then append the rest
 					append = true;
-					tm.clean();
-					dl = reader.readNextDescription(testfile, true, switchorder, newline);
 					if (printLog)
 					{
 						System.out.println(newline);
@@ -244,6 +390,7 @@ public class Run
 					i++;
 					all_nGrams = null;
 				}
+				dl = reader.readNextDescription(true, switchorder, newline);
 			}
 		}
 		catch (IOException e)
@@ -251,6 +398,17 @@ public class Run
 			System.out.println("Error: Couldn't write results." + newline);
 			System.out.println(" " + e.getMessage() + newline);
 		}
+		finally
+		{
+			try
+			{
+				reader.close();
+			}
+			catch (IOException e)
+			{
+				System.out.println(e.getMessage() + newline);
+			}
+		}
 		if (printLog)
 		{
 			System.out.println("DONE " + newline);
@@ -258,6 +416,517 @@ public class Run
 
 	}
 
+	/**
+	 * Check whether a file is gzip-compressed. A compressed file can not be split into ranges, but its blocks may still be decompressed on several threads.
+	 */
+	private boolean isCompressed(File file)
+	{
+		try
+		{
+			return GzipFiles.isGzip(file);
+		}
+		catch (IOException e)
+		{
+			// the error is reported when the file is opened
+			return false;
+		}
+	}
+
+	/**
+	 * Calculate the overrepresented n-grams of one query gene, after applying the weight cutoff and normalization.
+	 */
+	private boolean calculate(Overrepresentation op, DescriptionsList dl, int perc, boolean normalization, boolean switchorder, String newline, boolean printLog)
+	{
+		op.cleanAllResults();
+		if (printLog)
+		{
+			System.out.println("  calculating test batch for query " + dl.getName() + newline);
+		}
+		if (perc <= 100 && perc > 0)
+		{
+			dl = new Normalization().enforceWeightCutoff(dl, perc);
+		}
+		if (normalization)
+		{
+			dl = new Normalization().linearNormalization(dl, printLog);
+		}
+		return op.calculate(dl, switchorder);
+	}
+
+	/**
+	 * Process the query genes of one input file on several threads. The file is split into ranges at query gene boundaries, 
+	 * each range is processed with its own Overrepresentation object (sharing the background model and the TextMapping object), 
+	 * and the results of the ranges are written in the order of the input file. 
+	 * The results of a range are kept in memory until it is its turn to be written, so the ranges are kept small and only a few of them are processed ahead.
+	 */
+	private void runInParallel(final File testfile, File outputfile, final int evalue_col, final int score_col, final int description_col, final int query_col, final int perc, final boolean normalization, final int printnr, final int weightCutoff, String newline, final boolean printLog) throws IOException
+	{
+		if (outputfile == null)
+		{
+			newline = " <br />"; // we're printing to the browser
+		}
+		final String rangenewline = newline;
+		int nr = (int) Math.min(Integer.MAX_VALUE, Math.max(threads * ranges_per_thread, testfile.length() / max_range_bytes + 1));
+		List<long[]> ranges = new FileSplitter(query_col).split(testfile, nr);
+		if (printLog)
+		{
+			System.out.println("  processing " + ranges.size() + " ranges on " + threads + " threads" + newline);
+		}
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		Writer writer = null;
+		try
+		{
+			Deque<Future<RangeResult>> futures = new ArrayDeque<Future<RangeResult>>();
+			int window = threads * ranges_in_flight_per_thread;
+			int next = 0;
+			while (next < ranges.size() || !futures.isEmpty())
+			{
+				if (next < ranges.size() && futures.size() < window)
+				{
+					final long[] range = ranges.get(next++);
+					futures.add(pool.submit(new Callable<RangeResult>()
+					{
+						public RangeResult call() throws IOException
+						{
+							return runRange(testfile, range[0], range[1], evalue_col, score_col, description_col, query_col, perc, normalization, printnr, weightCutoff, rangenewline, printLog);
+						}
+					}));
+					continue;
+				}
+				RangeResult result = getResult(futures.poll());
+				if (writer == null && result.output.length() > 0)
+				{
+					if (outputfile == null)
+					{
+						writer = new BufferedWriter(new OutputStreamWriter(System.out));
+					}
+					else
+					{
+						System.out.println("  printing to " + outputfile + newline);
+						writer = new BufferedWriter(new FileWriter(outputfile));
+					}
+				}
+				if (writer != null)
+				{
+					writer.write(result.output);
+					writer.flush();
+				}
+				if (!result.allOK)
+				{
+					return;
+				}
+			}
+		}
+		finally
+		{
+			pool.shutdownNow();
+			if (writer != null && outputfile != null)
+			{
+				writer.close();
+			}
+		}
+	}
+
+	/**
+	 * Process the query genes in one range of the input file, and collect the printed results.
+	 */
+	private RangeResult runRange(File testfile, long start, long end, int evalue_col, int score_col, int description_col, int query_col, int perc, boolean normalization, int printnr, int weightCutoff, String newline, boolean printLog) throws IOException
+	{
+		boolean switchorder = false;
+		Overrepresentation range_op = op.copy();
+		StringWriter writer = new StringWriter();
+		Output output = new Output(weightCutoff, newline);
+		ConcatenatedFileReader reader = createConcatenatedReader(tm, evalue_col, score_col, description_col, query_col);
+		try
+		{
+			reader.open(testfile, start, end, newline);
+			DescriptionsList dl = reader.readNextDescription(true, switchorder, newline);
+			while (dl != null)
+			{
+				String query = dl.getName();
+				if (query != null && !query.toLowerCase().equals("querylocus"))
+				{
+					boolean allOK = calculate(range_op, dl, perc, normalization, switchorder, newline, printLog);
+					if (!allOK)
+					{
+						return new RangeResult(writer.toString(), false);
+					}
+					output.printBestResults(dl.getMapping(), writer, query, range_op.getAllResults(), printnr);
+				}
+				dl = reader.readNextDescription(true, switchorder, newline);
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		return new RangeResult(writer.toString(), true);
+	}
+
+	/**
+	 * Process the query genes of one input file in a pipeline of three stages: reading (and converting), scoring and writing.
+	 * Reading and writing happen on their own threads, scoring on the calling thread. Each query gene takes its own mapping context through the pipeline, 
+	 * so that the next query genes can be converted while the results of the previous ones are printed.
+	 */
+	private void runPipelined(File testfile, File outputfile, int evalue_col, int score_col, int description_col, int query_col, int perc, boolean normalization, final int printnr, int weightCutoff, String newline, boolean printLog) throws IOException
+	{
+		final boolean switchorder = false;
+		final String readnewline = newline;
+		if (outputfile == null)
+		{
+			newline = " <br />"; // we're printing to the browser
+		}
+		final BlockingQueue<Batch> batches = new ArrayBlockingQueue<Batch>(queue_size);
+		final BlockingQueue<Batch> results = new ArrayBlockingQueue<Batch>(queue_size);
+		final ConcatenatedFileReader reader = createConcatenatedReader(tm, evalue_col, score_col, description_col, query_col);
+		final Output output = new Output(weightCutoff, newline);
+		final File file = outputfile;
+		final String printnewline = newline;
+
+		reader.open(testfile, readnewline);
+		ExecutorService stages = Executors.newFixedThreadPool(2);
+		try
+		{
+			Future<?> reading = stages.submit(new Callable<Void>()
+			{
+				public Void call() throws IOException
+				{
+					try
+					{
+						DescriptionsList dl = reader.readNextDescription(true, switchorder, readnewline);
+						while (dl != null)
+						{
+							batches.put(new Batch(dl.getName(), dl, null, dl.getMapping()));
+							dl = reader.readNextDescription(true, switchorder, readnewline);
+						}
+						batches.put(Batch.END);
+					}
+					catch (InterruptedException e)
+					{
+						// the pipeline was stopped
+					}
+					catch (Throwable t)
+					{
+						try
+						{
+							batches.put(new Batch(t));
+						}
+						catch (InterruptedException e)
+						{}
+					}
+					finally
+					{
+						reader.close();
+					}
+					return null;
+				}
+			});
+			Future<?> writing = stages.submit(new Callable<Void>()
+			{
+				public Void call() throws IOException, InterruptedException
+				{
+					Writer writer = null;
+					try
+					{
+						Batch result = results.take();
+						while (result != Batch.END)
+						{
+							if (writer == null)
+							{
+								writer = openWriter(file, printnewline);
+							}
+							output.printBestResults(result.mapping, writer, result.query, result.all_nGrams, printnr);
+							result = results.take();
+						}
+					}
+					finally
+					{
+						if (writer != null && file != null)
+						{
+							writer.close();
+						}
+					}
+					return null;
+				}
+			});
+
+			Batch batch = take(batches);
+			while (batch != Batch.END)
+			{
+				if (batch.error != null)
+				{
+					rethrow(batch.error);
+				}
+				String query = batch.query;
+				if (query != null && !query.toLowerCase().equals("querylocus"))
+				{
+					boolean allOK = calculate(op, batch.dl, perc, normalization, switchorder, newline, printLog);
+					if (!allOK)
+					{
+						break;
+					}
+					put(results, new Batch(query, null, op.getAllResults(), batch.mapping), writing);
+				}
+				batch = take(batches);
+			}
+			reading.cancel(true);
+			put(results, Batch.END, writing);
+			getResult(writing);
+		}
+		finally
+		{
+			stages.shutdownNow();
+		}
+	}
+
+	/**
+	 * Open the writer for the results: the output file, or the standard output stream when there is no output file.
+	 */
+	private Writer openWriter(File outputfile, String newline) throws IOException
+	{
+		if (outputfile == null)
+		{
+			return new BufferedWriter(new OutputStreamWriter(System.out));
+		}
+		System.out.println("  printing to " + outputfile + newline);
+		return new BufferedWriter(new FileWriter(outputfile));
+	}
+
+	/**
+	 * Take the next element from a queue of the pipeline.
+	 */
+	private Batch take(BlockingQueue<Batch> queue) throws IOException
+	{
+		try
+		{
+			return queue.take();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the next query");
+		}
+	}
+
+	/**
+	 * Add an element to a queue of the pipeline, as soon as there is room for it. 
+	 * When the stage that empties the queue has stopped, its exception is passed on.
+	 */
+	private void put(BlockingQueue<Batch> queue, Batch batch, Future<?> stage) throws IOException
+	{
+		try
+		{
+			while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS))
+			{
+				if (stage.isDone())
+				{
+					getResult(stage);
+					throw new IOException("The output was closed before all results were written");
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting to write the results");
+		}
+	}
+
+	/**
+	 * Pass on an exception that was thrown by another thread.
+	 */
+	private void rethrow(Throwable cause) throws IOException
+	{
+		if (cause instanceof IOException)
+		{
+			throw (IOException) cause;
+		}
+		if (cause instanceof RuntimeException)
+		{
+			throw (RuntimeException) cause;
+		}
+		if (cause instanceof Error)
+		{
+			throw (Error) cause;
+		}
+		throw new RuntimeException(cause);
+	}
+
+	/**
+	 * The data of one query gene as it goes through the pipeline: first its descriptions, then its results, always with its own mapping context.
+	 */
+	private static class Batch
+	{
+		/** marks the end of the input */
+		protected static final Batch END = new Batch(null);
+
+		protected String query;
+		protected DescriptionsList dl;
+		protected SortedMap<Double, Set<String>> all_nGrams;
+		protected MappingContext mapping;
+		protected Throwable error;
+
+		protected Batch(String query, DescriptionsList dl, SortedMap<Double, Set<String>> all_nGrams, MappingContext mapping)
+		{
+			this.query = query;
+			this.dl = dl;
+			this.all_nGrams = all_nGrams;
+			this.mapping = mapping;
+		}
+
+		protected Batch(Throwable error)
+		{
+			this.error = error;
+		}
+	}
+
+	/**
+	 * Wait for the result of a task on another thread, and pass on the exception when that task failed.
+	 */
+	private <T> T getResult(Future<T> future) throws IOException
+	{
+		try
+		{
+			return future.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the results");
+		}
+		catch (ExecutionException e)
+		{
+			rethrow(e.getCause());
+			return null;
+		}
+	}
+
+	/**
+	 * The printed results of one range of the input file, and whether all query genes in it were processed.
+	 */
+	private static class RangeResult
+	{
+		protected String output;
+		protected boolean allOK;
+
+		protected RangeResult(String output, boolean allOK)
+		{
+			this.output = output;
+			this.allOK = allOK;
+		}
+	}
+
+	/**
+	 * Load the background model from the snapshot file, when it was made from the same background data (a file or a directory) with the same settings.
+	 * Return whether the background model was loaded.
+	 */
+	private boolean loadBackground(File background, String newline, boolean printLog)
+	{
+		if (snapshot == null)
+		{
+			return false;
+		}
+		try
+		{
+			if (op.loadBackground(snapshot, backgroundTag(background)))
+			{
+				if (printLog)
+				{
+					System.out.println(newline);
+					System.out.println("Loaded background from " + snapshot + newline);
+					System.out.println(op.background.getAccuracy() + newline);
+				}
+				return true;
+			}
+		}
+		catch (IOException e)
+		{
+			System.out.println(" ! Couldn't read the background snapshot " + snapshot + newline);
+			System.out.println(e.getMessage() + newline);
+			op.cleanBackgroundModel();
+		}
+		return false;
+	}
+
+	/**
+	 * Write the trained background model to the snapshot file, if there is one.
+	 */
+	private void saveBackground(File background, String newline)
+	{
+		if (snapshot == null)
+		{
+			return;
+		}
+		try
+		{
+			op.saveBackground(snapshot, backgroundTag(background));
+		}
+		catch (IOException e)
+		{
+			System.out.println(" ! Couldn't write the background snapshot " + snapshot + newline);
+			System.out.println(e.getMessage() + newline);
+		}
+	}
+
+	/**
+	 * Describe the background data (the size and modification time of each file) and how its descriptions are converted, to tag the snapshot of the background model.
+	 */
+	private String backgroundTag(File background)
+	{
+		File[] files = background.isDirectory() ? background.listFiles() : new File[] { background };
+		Arrays.sort(files);
+		String tag = "background=" + background.getAbsolutePath();
+		for (File f : files)
+		{
+			tag += ";" + f.getName() + ":" + f.length() + ":" + f.lastModified();
+		}
+		return tag + ";" + tm.getSettings() + ";" + Preprocess.getSettings();
+	}
+
+	/**
+	 * Create a reader for files that contain the descriptions of one query gene each.
+	 */
+	private Reader createSeparateReader(int evalue_col, int score_col, int description_col, String name)
+	{
+		Reader reader = null;
+		if (memorymapped)
+		{
+			reader = new MappedFileReader(tm, evalue_col, score_col, description_col, name);
+		}
+		else
+		{
+			reader = new SeparateFileReader(tm, evalue_col, score_col, description_col, name);
+		}
+		if (cachedir != null)
+		{
+			reader = new CachedFileReader(reader, cachedir);
+		}
+		reader.setThreads(threads);
+		return reader;
+	}
+
+	/**
+	 * Create a reader for one file that contains the descriptions of all query genes.
+	 */
+	private ConcatenatedFileReader createConcatenatedReader(TextMapping tm, int evalue_col, int score_col, int description_col, int query_col)
+	{
+		ConcatenatedFileReader reader = null;
+		if (memorymapped)
+		{
+			reader = new MappedFileReader(tm, evalue_col, score_col, description_col, query_col);
+		}
+		else
+		{
+			reader = new ConcatenatedFileReader(tm, evalue_col, score_col, description_col, query_col);
+		}
+		if (cachedir != null)
+		{
+			reader = new CachedFileReader(reader, cachedir);
+		}
+		reader.setThreads(threads);
+		return reader;
+	}
+
 	/**
 	 * Create the output file and its parent locations, if necessary
 	 */
@@ -1,11 +1,15 @@
 package be.svlandeg.annomine;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
 import be.svlandeg.annomine.algorithms.Overrepresentation;
+import be.svlandeg.annomine.algorithms.Stemmer;
 import be.svlandeg.annomine.algorithms.TextMapping;
+import be.svlandeg.annomine.algorithms.UnknownClassifier;
+import be.svlandeg.annomine.io.Preprocess;
 
 /**
  * Class to run the statistical overrepresentation method.
@@ -55,6 +59,26 @@ public class RunScript
      * Default value for normalization = true
      */
     protected boolean normalization = true;
+    /**
+     * Default value for memorymapped = false
+     */
+    protected boolean memorymapped = false;
+    /**
+     * Default value for pipeline = false
+     */
+    protected boolean pipeline = false;
+    /**
+     * Default value for threads = 1
+     */
+    protected int threads = 1;
+    /**
+     * Default value for stemcache = Stemmer.DEFAULT_CACHE_SIZE
+     */
+    protected int stemcache = Stemmer.DEFAULT_CACHE_SIZE;
+    /**
+     * Default value for backgroundmemory = 0 (exact background model)
+     */
+    protected int backgroundmemory = 0;
     protected int col_score = -1;
     protected int col_evalue = -1;
     protected int printnr = 1;
@@ -188,11 +212,51 @@ public class RunScript
     	String newline = Environment.getNewline(); 
         setParameters(map);
         Overrepresentation op = new Overrepresentation(min_count_ngram, min_ngram, max_ngram, lowercase);
+        op.setBackgroundMemory(backgroundmemory * 1024L * 1024L);
         if (printLog)
         {
             printParameters();
         }
+        if (map.containsKey("wordlists"))
+        {
+            try
+            {
+                Preprocess.readWordLists(new File(map.get("wordlists")));
+            }
+            catch (IOException e)
+            {
+                System.out.println(" ! Couldn't read the word lists " + map.get("wordlists") + newline);
+                System.out.println(e.getMessage() + newline);
+                return;
+            }
+        }
+        if (map.containsKey("unknownlist"))
+        {
+            try
+            {
+                TextMapping.setUnknownClassifier(UnknownClassifier.read(new File(map.get("unknownlist"))));
+            }
+            catch (IOException e)
+            {
+                System.out.println(" ! Couldn't read the unknown protein list " + map.get("unknownlist") + newline);
+                System.out.println(e.getMessage() + newline);
+                return;
+            }
+        }
+        Stemmer.setCacheSize(stemcache);
         TextMapping tm = new TextMapping(lowercase, stemming, unify_unknowns);
+        Run run = new Run(op, tm);
+        run.setMemoryMapped(memorymapped);
+        run.setThreads(threads);
+        run.setPipelined(pipeline);
+        if (map.containsKey("cachedir"))
+        {
+            run.setCacheDirectory(new File(map.get("cachedir")));
+        }
+        if (map.containsKey("backgroundsnapshot"))
+        {
+            run.setBackgroundSnapshot(new File(map.get("backgroundsnapshot")));
+        }
 
         if (map.containsKey("testdir"))
         {
@@ -214,7 +278,7 @@ public class RunScript
 
             String outputdir = map.get("outputdir");
 
-            new Run(op, tm).runFromDirectories(backgrounddir, testdir, outputdir, weights, input_cutoff, normalization, printnr, output_cutoff, newline, printLog);
+            run.runFromDirectories(backgrounddir, testdir, outputdir, weights, input_cutoff, normalization, printnr, output_cutoff, newline, printLog);
         }
         else if (map.containsKey("testfile"))
         {
@@ -258,7 +322,7 @@ public class RunScript
 
             if (col_desc >= 0 && col_query >= 0 && col_desc != col_query)
             {
-                new Run(op, tm).runFromFiles(backgroundfile, testfile, outputfile, col_evalue, col_score, col_desc, col_query, input_cutoff, normalization, printnr, output_cutoff, newline, printLog);
+                run.runFromFiles(backgroundfile, testfile, outputfile, col_evalue, col_score, col_desc, col_query, input_cutoff, normalization, printnr, output_cutoff, newline, printLog);
             }
             else
             {
@@ -271,6 +335,10 @@ public class RunScript
             printMandatoryString();
             return;
         }
+        if (printLog && stemming && Stemmer.getCache() != null)
+        {
+            System.out.println("  " + Stemmer.getCache() + newline);
+        }
 
     }
 
@@ -495,6 +563,96 @@ public class RunScript
             }
         }
 
+        if (map.containsKey("memorymapped"))
+        {
+            String newmapped = map.get("memorymapped");
+            Boolean newmappedboolean = null;
+            try
+            {
+                newmappedboolean = Boolean.parseBoolean(newmapped);
+            }
+            catch (Exception e)
+            {
+                newmappedboolean = null;
+            }
+            if (newmappedboolean != null)
+            {
+                memorymapped = newmappedboolean;
+            }
+        }
+
+        if (map.containsKey("pipeline"))
+        {
+            String newpipeline = map.get("pipeline");
+            Boolean newpipelineboolean = null;
+            try
+            {
+                newpipelineboolean = Boolean.parseBoolean(newpipeline);
+            }
+            catch (Exception e)
+            {
+                newpipelineboolean = null;
+            }
+            if (newpipelineboolean != null)
+            {
+                pipeline = newpipelineboolean;
+            }
+        }
+
+        if (map.containsKey("threads"))
+        {
+            String newthreads = map.get("threads");
+            Integer newthreadsint = null;
+            try
+            {
+                newthreadsint = Integer.parseInt(newthreads);
+            }
+            catch (Exception e)
+            {
+                newthreadsint = null;
+            }
+            if (newthreadsint != null && newthreadsint > 0)
+            {
+                threads = newthreadsint;
+            }
+        }
+
+        if (map.containsKey("stemcache"))
+        {
+            String newstemcache = map.get("stemcache");
+            Integer newstemcacheint = null;
+            try
+            {
+                newstemcacheint = Integer.parseInt(newstemcache);
+            }
+            catch (Exception e)
+            {
+                newstemcacheint = null;
+            }
+            if (newstemcacheint != null && newstemcacheint >= 0)
+            {
+                stemcache = newstemcacheint;
+            }
+        }
+
+        if (map.containsKey("backgroundmemory"))
+        {
+            String newbackgroundmemory = map.get("backgroundmemory");
+            Integer newbackgroundmemoryint = null;
+            try
+            {
+                newbackgroundmemoryint = Integer.parseInt(newbackgroundmemory);
+            }
+            catch (Exception e)
+            {
+                newbackgroundmemoryint = null;
+            }
+            if (newbackgroundmemoryint != null && newbackgroundmemoryint >= 0)
+            {
+                backgroundmemory = newbackgroundmemoryint;
+            }
+        }
+
         if (map.containsKey("mincountngram"))
         {
             String newmin_count_ngramstring = map.get("mincountngram");
@@ -556,8 +714,18 @@ public class RunScript
         System.out.println("  > option 1. weights (default " + weights + ") : set to 'true' when the test files include weights." + newline);
         //System.out.println("  > mincountngram (default " + min_count_ngram + ") determines the minimal count that an n-gram should appear in the test file." + newline);
         System.out.println("  > option 2. col_evalue= OR col_score= : set to >= 0 to specify the correct column" + newline);
+        System.out.println("  > memorymapped (default " + memorymapped + ") : set to 'true' to read large input files through a memory-mapped parser." + newline);
+        System.out.println("  > threads (default " + threads + ") determines the number of threads that process the query genes of a testfile, which should be sorted by query, and that train the background model." + newline);
+        System.out.println("  > pipeline (default " + pipeline + ") : set to 'true' to read and write a testfile on separate threads while the query genes are scored (only when it is not split over several threads)." + newline);
+        System.out.println("  > stemcache (default " + stemcache + ") determines the number of stemmed words that are remembered (0 to remember none)." + newline);
+        System.out.println("  > backgroundmemory (default " + backgroundmemory + ") : the most memory (in MB) for approximate counts of the background n-grams, within error bounds that are logged (0 to count them exactly)." + newline);
+        System.out.println("  > wordlists (default none) : a file with the stop words to remove at the start of a description (after a line [start]) and anywhere in a description (after a line [remove])." + newline);
+        System.out.println("  > unknownlist (default none) : a file with the phrases that make a description an unknown protein anywhere in it (after a line [contains]) and the names that do so as a whole description (after a line [equals])." + newline);
+        System.out.println("  > cachedir (default none) : a directory to store preprocessed input files, so that later runs with the same input and text settings (lowercase, stemming, unify_unknowns) are faster." + newline);
+        System.out.println("  > Input files may be gzip-compressed (.gz). Block-gzipped (BGZF) files are decompressed on the given number of threads." + newline);
         System.out.println("  > option 1. backgrounddir (default none)" + newline);
         System.out.println("  > option 2. backgroundfile (default none)" + newline);
+        System.out.println("  > backgroundsnapshot (default none) : a file to store the trained background model, so that later runs with the same background and settings load it instead of training it again." + newline);
         System.out.println("  > Insensible values will be discarded and set to their default values." + newline);
     }
 
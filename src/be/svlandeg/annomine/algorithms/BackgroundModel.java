@@ -0,0 +1,357 @@
+package be.svlandeg.annomine.algorithms;
+
+import be.svlandeg.annomine.data.Vocabulary;
+
+import com.aliasi.lm.LanguageModel;
+import com.aliasi.lm.TokenizedLM;
+import com.aliasi.lm.UniformBoundaryLM;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * The background model of {@link Overrepresentation}: the counts of all n-grams in the background descriptions, up to a maximal size, over the ids of a {@link Vocabulary}.
+ * For each size of n-grams, it estimates probabilities as a LingPipe TokenizedLM of that size (with uniform models for unknown tokens and whitespace) trained on the same descriptions.
+ * Such a model only uses the counts of sequences up to its own size, which are the same in the models of all larger sizes, so one model of the maximal size serves all sizes.
+ * The subclasses decide how the counts are kept: exactly in a trie ({@link TrieBackgroundModel}), or approximately within a memory budget ({@link SketchBackgroundModel}).
+ * A model is only read after it is trained, so it can then be shared between threads.
+ *
+ * @author Sofie Van Landeghem
+ */
+public abstract class BackgroundModel
+{
+
+    /** the id that TokenizedLM uses for the boundaries of a description */
+    protected static final int BOUNDARY_TOKEN = TokenizedLM.BOUNDARY_TOKEN;
+
+    /** the id that TokenizedLM uses for tokens that were never counted */
+    protected static final int UNKNOWN_TOKEN = TokenizedLM.UNKNOWN_TOKEN;
+
+    /* the version of the format in which a model is saved: files written by another version are not read */
+    private static final int VERSION = 5;
+
+    private static final int MAGIC = 0x414d4231;
+
+    /** the size of the largest n-grams that are counted */
+    protected int max_ngram;
+
+    /** the vocabulary of the ids of the tokens, which the descriptions that are compared to this model should use (or extend) as well */
+    protected final Vocabulary vocabulary;
+
+    /* the model for tokens that were never counted, as in TokenizedLM */
+    private LanguageModel.Sequence unknownTokenLM = new UniformBoundaryLM();
+
+    /**
+     * Create an empty background model for n-grams up to a certain size.
+     *
+     * @param max_ngram the size of the largest n-grams
+     * @param vocabulary the vocabulary of the ids of the tokens
+     */
+    protected BackgroundModel(int max_ngram, Vocabulary vocabulary)
+    {
+        this.max_ngram = max_ngram;
+        this.vocabulary = vocabulary;
+    }
+
+    /**
+     * Count the n-grams of one description, given as the ids of its tokens, as TokenizedLM.train does for the text of the description.
+     * All subsequences of the tokens followed by the end boundary are counted, and the sequences that start with the start boundary.
+     *
+     * @param tokens the token ids of the description
+     * @param count the count of the description (for instance its weight)
+     * @throws IllegalArgumentException when the count is negative
+     */
+    public abstract void train(int[] tokens, int count);
+
+    /**
+     * Create an empty model of the same kind and size, to train a part of the background data on (for instance on another thread), and add it to this model afterwards.
+     *
+     * @return the new model, or null when the counts of separately trained models can not be added up
+     */
+    public BackgroundModel newPart()
+    {
+        return null;
+    }
+
+    /**
+     * Add the counts of another model to this one, as if the descriptions that the other model was trained on had been trained on this one.
+     *
+     * @param other the other model, as created by {@link #newPart()}, which is not changed
+     * @throws IllegalArgumentException when the counts of the other model can not be added to this one
+     */
+    public void add(BackgroundModel other)
+    {
+        throw new IllegalArgumentException("The counts of a " + getClass().getSimpleName() + " can not be added up");
+    }
+
+    /**
+     * Describe how accurate the counts of this model are.
+     *
+     * @return a textual description of the accuracy of this model
+     */
+    public abstract String getAccuracy();
+
+    /**
+     * Return the size of the largest n-grams in this model.
+     *
+     * @return the maximal size of the n-grams
+     */
+    public int getMaxNGram()
+    {
+        return max_ngram;
+    }
+
+    /**
+     * Return the vocabulary of the ids of the tokens of this model.
+     *
+     * @return the vocabulary
+     */
+    public Vocabulary getVocabulary()
+    {
+        return vocabulary;
+    }
+
+    /**
+     * Return the probability of a sequence of tokens, as estimated by a TokenizedLM for n-grams of a certain size (TokenizedLM.tokenProbability).
+     *
+     * @param tokens the token ids, as in the vocabulary of this model or an extension of it
+     * @param ngram the size of the n-grams of the model, at most the maximal size of this model
+     * @param tokenvocabulary the vocabulary of the token ids: the vocabulary of this model or an extension of it (see {@link Vocabulary#Vocabulary(Vocabulary)})
+     * @return the probability of the sequence
+     */
+    public double tokenProbability(int[] tokens, int ngram, Vocabulary tokenvocabulary)
+    {
+        return Math.pow(2.0, tokenLog2Probability(tokens, ngram, tokenvocabulary));
+    }
+
+    /**
+     * Return the log (base 2) of the probability of a sequence of tokens, as estimated by a TokenizedLM for n-grams of a certain size (TokenizedLM.tokenLog2Probability).
+     * Each token is estimated from the tokens before it, with Witten-Bell smoothing over contexts of up to ngram-1 tokens (with lambda factor ngram).
+     *
+     * The tokens that the model never counted are estimated by their characters.
+     *
+     * @param tokens the token ids, as in the vocabulary of this model or an extension of it
+     * @param ngram the size of the n-grams of the model, at most the maximal size of this model
+     * @param tokenvocabulary the vocabulary of the token ids: the vocabulary of this model or an extension of it (see {@link Vocabulary#Vocabulary(Vocabulary)})
+     * @return the log probability of the sequence
+     */
+    public double tokenLog2Probability(int[] tokens, int ngram, Vocabulary tokenvocabulary)
+    {
+        if (ngram > max_ngram)
+        {
+            throw new IllegalArgumentException("The background model only counts n-grams up to " + max_ngram + " tokens, not " + ngram);
+        }
+        int[] ids = new int[tokens.length];
+        double sum = 0;
+        for (int i = 0; i < tokens.length; i++)
+        {
+            // like a symbol table, the model only knows the tokens it counted
+            ids[i] = tokens[i] >= 0 && count(tokens, i, i + 1, tokenvocabulary) > 0 ? tokens[i] : UNKNOWN_TOKEN;
+            double estimate = conditionalLog2TokenEstimate(ids, i + 1, ngram, tokenvocabulary);
+            if (Double.isInfinite(estimate))
+            {
+                // the 1-grams are the counted tokens and the boundary token
+                int[] boundary = { BOUNDARY_TOKEN };
+                double extensions = extensionCount(ids, 0, 0, tokenvocabulary);
+                double symbols = numExtensions(ids, 0, 0, tokenvocabulary) - (count(boundary, 0, 1, tokenvocabulary) > 0 ? 1 : 0);
+                sum += com.aliasi.util.Math.log2(extensions / (extensions + symbols));
+                sum += unknownTokenLM.log2Estimate(tokens[i] >= 0 ? tokenvocabulary.getToken(tokens[i]) : "");
+            }
+            else
+            {
+                sum += estimate;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Estimate the last of the tokens in ids[0, end) from the tokens before it, interpolating the estimates of all contexts from long to short.
+     */
+    private double conditionalLog2TokenEstimate(int[] ids, int end, int ngram, Vocabulary tokenvocabulary)
+    {
+        int token = ids[end - 1];
+        double estimate = token == UNKNOWN_TOKEN ? 1.0 : 0.0;
+        for (int start = end - 1; start >= 0 && end - start <= ngram; start--)
+        {
+            int extensions = numExtensions(ids, start, end - 1, tokenvocabulary);
+            double extensioncount = extensionCount(ids, start, end - 1, tokenvocabulary);
+            if (extensions == 0 || extensioncount == 0)
+            {
+                break;
+            }
+            double lambda = extensioncount / (extensioncount + ngram * (double) extensions);
+            estimate = estimate * (1.0 - lambda);
+            if (token != UNKNOWN_TOKEN)
+            {
+                // an approximate count can exceed the count of its context, an exact one can not
+                long count = Math.min(count(ids, start, end, tokenvocabulary), (long) extensioncount);
+                if (count > 0)
+                {
+                    estimate += lambda * count / extensioncount;
+                }
+            }
+        }
+        return com.aliasi.util.Math.log2(estimate);
+    }
+
+    /**
+     * Return the count of the sequence ids[start, end), which can contain the boundary token, or 0 when it contains the unknown token.
+     * The empty sequence counts all positions in the descriptions.
+     *
+     * @param ids the token ids
+     * @param start the position of the first token of the sequence
+     * @param end the position after the last token of the sequence
+     * @param tokenvocabulary the vocabulary of the token ids: the vocabulary of this model or an extension of it
+     * @return the count of the sequence
+     */
+    protected abstract long count(int[] ids, int start, int end, Vocabulary tokenvocabulary);
+
+    /**
+     * Return the sum of the counts of the sequences that extend the sequence ids[start, end) with one token.
+     *
+     * @param ids the token ids
+     * @param start the position of the first token of the sequence
+     * @param end the position after the last token of the sequence
+     * @param tokenvocabulary the vocabulary of the token ids: the vocabulary of this model or an extension of it
+     * @return the extension count of the sequence
+     */
+    protected abstract long extensionCount(int[] ids, int start, int end, Vocabulary tokenvocabulary);
+
+    /**
+     * Return the number of different tokens that extend the sequence ids[start, end) in the counted sequences.
+     *
+     * @param ids the token ids
+     * @param start the position of the first token of the sequence
+     * @param end the position after the last token of the sequence
+     * @param tokenvocabulary the vocabulary of the token ids: the vocabulary of this model or an extension of it
+     * @return the number of extensions of the sequence
+     */
+    protected abstract int numExtensions(int[] ids, int start, int end, Vocabulary tokenvocabulary);
+
+    /**
+     * Add the boundary token before and after the tokens of a description, as TokenizedLM does before counting them.
+     *
+     * @param tokens the token ids of the description
+     * @return the token ids between two boundary tokens
+     */
+    protected static int[] withBoundaries(int[] tokens)
+    {
+        int[] sequence = new int[tokens.length + 2];
+        sequence[0] = BOUNDARY_TOKEN;
+        System.arraycopy(tokens, 0, sequence, 1, tokens.length);
+        sequence[sequence.length - 1] = BOUNDARY_TOKEN;
+        return sequence;
+    }
+
+    /**
+     * Write this model to a file, tagged with a key, so that {@link #load(File, String, Vocabulary)} can read it back much faster than the model can be trained again.
+     * The file only replaces an existing file once it is complete.
+     *
+     * @param file the file
+     * @param key a description of everything that determines the content of the model
+     * @throws IOException when the file could not be written
+     */
+    public void save(File file, String key) throws IOException
+    {
+        File dir = file.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        File temp = File.createTempFile(file.getName(), ".tmp", dir);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+        try
+        {
+            out.writeInt(MAGIC);
+            writeString(out, "version=" + VERSION + ";" + key);
+            writeString(out, getClass().getName());
+            out.writeInt(max_ngram);
+            write(out);
+            out.close();
+        }
+        catch (IOException e)
+        {
+            out.close();
+            temp.delete();
+            throw (e);
+        }
+        file.delete();
+        if (!temp.renameTo(file))
+        {
+            temp.delete();
+            throw new IOException("Couldn't rename " + temp + " to " + file);
+        }
+    }
+
+    /**
+     * Read a model written by {@link #save(File, String)}, when it was written by the same version with the same key.
+     *
+     * @param file the file
+     * @param key a description of everything that determines the content of the model, as given when it was saved
+     * @param vocabulary the vocabulary to which the tokens of the model are added
+     * @return the model, or null when the file does not exist or was written by another version or with another key
+     * @throws IOException when the file could not be read
+     */
+    public static BackgroundModel load(File file, String key, Vocabulary vocabulary) throws IOException
+    {
+        if (!file.isFile())
+        {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try
+        {
+            if (in.readInt() != MAGIC || !("version=" + VERSION + ";" + key).equals(readString(in)))
+            {
+                return null;
+            }
+            String kind = readString(in);
+            int max_ngram = in.readInt();
+            if (kind.equals(TrieBackgroundModel.class.getName()))
+            {
+                return TrieBackgroundModel.read(in, max_ngram, vocabulary);
+            }
+            if (kind.equals(SketchBackgroundModel.class.getName()))
+            {
+                return SketchBackgroundModel.read(in, max_ngram, vocabulary);
+            }
+            throw new IOException("Unknown kind of background model: " + kind);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Write the counts of this model, after the maximal size of its n-grams.
+     *
+     * @param out the output
+     * @throws IOException when the counts could not be written
+     */
+    protected abstract void write(DataOutputStream out) throws IOException;
+
+    /**
+     * Write a string as its length and UTF-8 bytes.
+     */
+    protected static void writeString(DataOutputStream out, String s) throws IOException
+    {
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read a string written by {@link #writeString(DataOutputStream, String)}.
+     */
+    protected static String readString(DataInputStream in) throws IOException
+    {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
@@ -0,0 +1,460 @@
+package be.svlandeg.annomine.algorithms;
+
+import be.svlandeg.annomine.data.CompactStringMap;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+/**
+ * This class keeps track of the original lines of one batch of descriptions (usually one query gene) and their transformed/cleaned versions.
+ * The lines are converted with the settings of a shared {@link TextMapping} object, which never changes. A MappingContext is cheap to create,
+ * and is discarded together with its batch: it is not thread-safe, but different batches can be converted and printed at the same time, each with their own context.
+ * 
+ * @author Sofie Van Landeghem
+ */
+public class MappingContext
+{
+    /** the settings with which the lines are converted */
+    protected final TextMapping tm;
+
+    /** maps the converted line back to the original (stored compactly, as it holds every substring of every line) */
+    protected Map<String, String> origmap;
+
+    /* the lines that were converted after the last time origmap was brought up to date, in order: their mappings are only worked out when needed */
+    private List<Conversion> pending;
+
+    /* the original forms that were already looked up in the pending conversions (null when there are none) */
+    private Map<String, String> resolved;
+
+    /**
+     * Create a new, empty mapping context (see {@link TextMapping#newContext()}).
+     * 
+     * @param tm the settings with which the lines are converted
+     */
+    protected MappingContext(TextMapping tm)
+    {
+        this.tm = tm;
+        this.origmap = new CompactStringMap();
+        this.pending = new ArrayList<Conversion>();
+    }
+
+    /**
+     * Return the settings with which the lines of this context are converted.
+     * 
+     * @return the TextMapping object of this context
+     */
+    public TextMapping getTextMapping()
+    {
+        return tm;
+    }
+
+    /**
+     * Convert a string to the new variant: remove punctuation, apply lowercase/stemming if needed, etc.
+     * 
+     * @param line the original line
+     * @param substrings define whether substrings should also be calculated and inserted in the internal mapping
+     * @param switchorder decides whether the order of the words in the description line can be moved around
+     * @return a cleaned copy of the original line
+     */
+    public String convert(String line, boolean substrings, boolean switchorder)
+    {
+        String[] converted = tm.convertLine(line, switchorder);
+        // the mappings of the line and its substrings are only worked out when they are needed (see retrieveOriginal)
+        pending.add(new Conversion(line, converted[1], substrings, switchorder));
+        resolved = null;
+        return converted[0];
+    }
+
+    /**
+     * Retrieve the original string.
+     * Only the lines and substrings that can be converted to the given string are considered, so this is cheap for the few strings that are printed.
+     * 
+     * @param converted the converted string
+     * @return the original form of a converted string (useful for printing)
+     */
+    public String retrieveOriginal(String converted)
+    {
+        if (pending.isEmpty())
+        {
+            return origmap.get(converted);
+        }
+        if (resolved == null)
+        {
+            resolved = new HashMap<String, String>();
+        }
+        if (!resolved.containsKey(converted))
+        {
+            resolved.put(converted, resolve(converted));
+        }
+        return resolved.get(converted);
+    }
+
+    /**
+     * Return all mappings from converted strings to their original forms, as currently stored in the cache.
+     * This works out the mappings of all substrings of the lines converted so far, which is expensive: use {@link #retrieveOriginal(String)} to look up a few strings.
+     * 
+     * @return an unmodifiable view on the cache
+     */
+    public Map<String, String> getMappings()
+    {
+        materialize();
+        return Collections.unmodifiableMap(origmap);
+    }
+
+    /**
+     * Store previously calculated mappings from converted strings to their original forms (see {@link #getMappings()}) in the cache.
+     * When the cache already contains a mapping for the same converted string, the most sensible original form of the two is kept, as when adding a new line.
+     * 
+     * @param mappings the mappings to store
+     */
+    public void mergeMappings(Map<String, String> mappings)
+    {
+        materialize();
+        for (Map.Entry<String, String> mapping : mappings.entrySet())
+        {
+            String convertedline = mapping.getKey();
+            String line = mapping.getValue();
+            String previous = origmap.get(convertedline);
+            if (previous == null)
+            {
+                origmap.put(convertedline, line);
+            }
+            else
+            {
+                origmap.put(convertedline, tm.chose(previous, line));
+            }
+        }
+    }
+
+    /**
+     * Write the contents of this context to a stream, so that another context can take them over with {@link #readConversions(DataInputStream)}.
+     * The mappings of the pending lines and their substrings are not worked out: only the lines themselves are written, together with their converted forms
+     * and settings, so that their mappings are again only worked out when they are needed. This is also much smaller than all mappings of all substrings.
+     * 
+     * @param out the stream to which the context is written
+     * @throws IOException when a problem occurs writing to the stream
+     */
+    public void writeConversions(DataOutputStream out) throws IOException
+    {
+        // the mappings that were already worked out (usually none)
+        out.writeInt(origmap.size());
+        for (Map.Entry<String, String> mapping : origmap.entrySet())
+        {
+            writeString(out, mapping.getKey());
+            writeString(out, mapping.getValue());
+        }
+        out.writeInt(pending.size());
+        for (Conversion c : pending)
+        {
+            writeString(out, c.line);
+            writeString(out, c.convertedline);
+            out.writeByte((c.substrings ? 1 : 0) | (c.switchorder ? 2 : 0));
+        }
+    }
+
+    /**
+     * Add the contents that another context wrote with {@link #writeConversions(DataOutputStream)} to this context, after the lines that it already contains.
+     * The lines are not converted again, and their mappings are only worked out when they are needed, as if they were converted in this context.
+     * 
+     * @param in the stream from which the context is read
+     * @throws IOException when a problem occurs reading from the stream
+     */
+    public void readConversions(DataInputStream in) throws IOException
+    {
+        int nrmappings = in.readInt();
+        if (nrmappings > 0)
+        {
+            Map<String, String> mappings = new HashMap<String, String>();
+            for (int i = 0; i < nrmappings; i++)
+            {
+                String convertedline = readString(in);
+                mappings.put(convertedline, readString(in));
+            }
+            mergeMappings(mappings);
+        }
+        int nrconversions = in.readInt();
+        for (int i = 0; i < nrconversions; i++)
+        {
+            String line = readString(in);
+            String convertedline = readString(in);
+            int flags = in.readByte();
+            pending.add(new Conversion(line, convertedline, (flags & 1) != 0, (flags & 2) != 0));
+        }
+        resolved = null;
+    }
+
+    /**
+     * Write a string as its length and UTF-8 bytes.
+     */
+    private static void writeString(DataOutputStream out, String s) throws IOException
+    {
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read a string written by {@link #writeString(DataOutputStream, String)}.
+     */
+    private static String readString(DataInputStream in) throws IOException
+    {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Add a line to this context, keeping the mapping to this input string (in which the hypothetical protein descriptions are already unified) and its converted version.
+     * The preference keys of the original forms that were stored in this pass are kept, so that the key of an original form is only worked out when it is first seen.
+     */
+    private void add(String line, String convertedline, Map<String, Integer> keys)
+    {
+        String previous = origmap.get(convertedline);
+        Integer previous_key = keys.get(convertedline);
+        if (previous != null && previous_key == null)
+        {
+            previous_key = TextMapping.preference(previous);
+        }
+        String chosen = combine(previous, previous_key == null ? 0 : previous_key, line);
+        if (chosen != previous)
+        {
+            origmap.put(convertedline, chosen);
+            keys.put(convertedline, TextMapping.preference(chosen));
+        }
+        else if (!keys.containsKey(convertedline))
+        {
+            keys.put(convertedline, previous_key);
+        }
+    }
+
+    /**
+     * Return the original form to keep when a line is added for a converted string that was already mapped to the previous original form (or to null), of which the preference key is given.
+     */
+    private String combine(String previous, int previous_key, String line)
+    {
+        if (previous == null)
+        {
+            return line;
+        }
+        return tm.chose(previous, previous_key, line, TextMapping.preference(line));
+    }
+
+    /**
+     * Add the mappings of all pending conversions to the cache, in the order in which the lines were converted: each line, followed by all its substrings.
+     */
+    private void materialize()
+    {
+        Map<String, Integer> keys = new HashMap<String, Integer>();
+        for (Conversion c : pending)
+        {
+            add(c.unify(c.line), c.convertedline, keys);
+            if (c.substrings)
+            {
+                List<String> tokens = c.getTokens();
+                int totaltokens = tokens.size();
+                for (int ngram = 1; ngram <= totaltokens; ngram++)
+                {
+                    for (int start = 0; start < totaltokens - ngram + 1; start++)
+                    {
+                        String substring = tm.getSubstring(tokens, start, start + ngram);
+                        if (substring != null && !substring.isEmpty())
+                        {
+                            add(c.unify(substring), tm.convertLine(substring, c.switchorder)[1], keys);
+                        }
+                    }
+                }
+            }
+        }
+        pending.clear();
+        resolved = null;
+    }
+
+    /**
+     * Find the original form of a converted string in the pending conversions, starting from its original form in the cache.
+     * This gives the same result as adding all pending lines and substrings to the cache, but only the substrings that can possibly be converted to
+     * this string are converted: all tokens of such a substring, except the last one (which can lose punctuation), should occur in the converted string.
+     * The substrings of one word are converted only once per line, as they are needed for almost every string.
+     * Tokens are compared without leading and trailing control characters, which are trimmed from a converted string when its tokens end up at the start or end.
+     */
+    private String resolve(String converted)
+    {
+        String result = origmap.get(converted);
+        // the preference key of the current result is only worked out again when the result changes
+        int result_key = result == null ? 0 : TextMapping.preference(result);
+        Set<String> keytokens = new HashSet<String>();
+        keytokens.add("");
+        StringTokenizer stok = new StringTokenizer(converted, " ");
+        while (stok.hasMoreTokens())
+        {
+            keytokens.add(stok.nextToken().trim());
+        }
+        for (Conversion c : pending)
+        {
+            if (c.convertedline.equals(converted))
+            {
+                String chosen = combine(result, result_key, c.unify(c.line));
+                if (chosen != result)
+                {
+                    result = chosen;
+                    result_key = TextMapping.preference(result);
+                }
+            }
+            if (c.substrings)
+            {
+                List<String> tokens = c.getTokens();
+                String[] tokenkeys = c.getTokenKeys();
+                String[] wordlines = c.getWordLines();
+                int totaltokens = tokens.size();
+
+                // the candidate substrings, encoded as (size, start) so that they are sorted in the order of materialize()
+                long[] candidates = new long[16];
+                int nrcandidates = 0;
+                for (int start = 0; start < totaltokens; start++)
+                {
+                    if (nrcandidates + totaltokens - start > candidates.length)
+                    {
+                        candidates = Arrays.copyOf(candidates, candidates.length * 2 + totaltokens);
+                    }
+                    if (wordlines[start] != null && wordlines[start].equals(converted))
+                    {
+                        candidates[nrcandidates++] = ((long) 1 << 32) | start;
+                    }
+                    if (!tm.sortTokensAlphabetically && !keytokens.contains(tokenkeys[start]))
+                    {
+                        continue;
+                    }
+                    for (int end = start + 2; end <= totaltokens; end++)
+                    {
+                        int middle = end - 2;
+                        if (middle > start && !tm.sortTokensAlphabetically)
+                        {
+                            if (!keytokens.contains(tokenkeys[middle]))
+                            {
+                                break;
+                            }
+                        }
+                        candidates[nrcandidates++] = ((long) (end - start) << 32) | start;
+                    }
+                }
+                Arrays.sort(candidates, 0, nrcandidates);
+                for (int n = 0; n < nrcandidates; n++)
+                {
+                    int start = (int) candidates[n];
+                    int end = start + (int) (candidates[n] >>> 32);
+                    String substring = tm.getSubstring(tokens, start, end);
+                    if (end - start == 1 || (!substring.isEmpty() && tm.convertLine(substring, c.switchorder)[1].equals(converted)))
+                    {
+                        String chosen = combine(result, result_key, c.unify(substring));
+                        if (chosen != result)
+                        {
+                            result = chosen;
+                            result_key = TextMapping.preference(result);
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A line that was converted, of which the mappings are not yet in the cache.
+     */
+    private class Conversion
+    {
+        private String line;
+        private String convertedline;
+        private boolean substrings;
+        private boolean switchorder;
+
+        /* the words of the line, the converted version of each word (trimmed) and the mapped version of each one-word substring, once they are needed */
+        private List<String> tokens;
+        private String[] tokenkeys;
+        private String[] wordlines;
+
+        /* whether the line is an unknown protein, and whether its substrings can be: worked out once per line, when unknown proteins are unified */
+        private boolean classified;
+        private boolean unknownline;
+        private boolean unknownparts;
+
+        private Conversion(String line, String convertedline, boolean substrings, boolean switchorder)
+        {
+            this.line = line;
+            this.convertedline = convertedline;
+            this.substrings = substrings;
+            this.switchorder = switchorder;
+        }
+
+        /**
+         * Return the original form under which the line or one of its substrings is stored: 'conserved unknown protein' for an unknown protein, when these are unified.
+         * Substrings are only checked one by one when the line contains one of the words of unknown proteins, as a substring can not contain them otherwise
+         * (the words of a substring are not contiguous in the line when they are sorted, and the lower-case version of other characters can depend on the characters around them).
+         */
+        private String unify(String part)
+        {
+            if (!tm.unify_unknowns)
+            {
+                return part;
+            }
+            if (!classified)
+            {
+                unknownline = tm.unknowns.isUnknown(line);
+                unknownparts = tm.sortTokensAlphabetically || !Stemmer.isPlainAscii(line, 0, line.length()) || tm.unknowns.mayContainUnknown(line);
+                classified = true;
+            }
+            boolean unknown = part == line ? unknownline : unknownparts && tm.unknowns.isUnknown(part);
+            return unknown ? UnknownClassifier.UNKNOWN : part;
+        }
+
+        private List<String> getTokens()
+        {
+            if (tokens == null)
+            {
+                tokens = tm.splitWords(line);
+            }
+            return tokens;
+        }
+
+        private String[] getTokenKeys()
+        {
+            if (tokenkeys == null)
+            {
+                List<String> words = getTokens();
+                tokenkeys = new String[words.size()];
+                for (int j = 0; j < tokenkeys.length; j++)
+                {
+                    tokenkeys[j] = tm.convertLine(words.get(j), false)[0];
+                }
+            }
+            return tokenkeys;
+        }
+
+        private String[] getWordLines()
+        {
+            if (wordlines == null)
+            {
+                List<String> words = getTokens();
+                wordlines = new String[words.size()];
+                for (int j = 0; j < wordlines.length; j++)
+                {
+                    String substring = tm.getSubstring(words, j, j + 1);
+                    if (substring != null && !substring.isEmpty())
+                    {
+                        wordlines[j] = tm.convertLine(substring, switchorder)[1];
+                    }
+                }
+            }
+            return wordlines;
+        }
+    }
+}
@@ -23,6 +23,7 @@ public class Normalization
         double maxweight = getMaxWeight(dl);
         double allowed = maxweight * perc / 100;
         DescriptionsList dl2 = new DescriptionsList(dl.getName());
+        dl2.setMapping(dl.getMapping());
         for (Description d : dl.getDescriptions())
         {
             double thisweight = d.getWeight();
@@ -49,6 +50,7 @@ public class Normalization
         int totalweight = getTotalWeight(dl);
         int nr = dl.getDescriptions().size();
         DescriptionsList dl2 = new DescriptionsList(dl.getName());
+        dl2.setMapping(dl.getMapping());
         double factor = (double) nr / totalweight;
         for (Description d : dl.getDescriptions())
         {
@@ -3,14 +3,23 @@ package be.svlandeg.annomine.algorithms;
 import be.svlandeg.annomine.Environment;
 import be.svlandeg.annomine.data.Description;
 import be.svlandeg.annomine.data.DescriptionsList;
+import be.svlandeg.annomine.data.NGramCounter;
+import be.svlandeg.annomine.data.SketchCounter;
+import be.svlandeg.annomine.data.Vocabulary;
+import be.svlandeg.annomine.io.Postprocess;
 
-import com.aliasi.lm.TokenizedLM;
-import com.aliasi.lm.UniformBoundaryLM;
+import com.aliasi.stats.BinomialDistribution;
 import com.aliasi.tokenizer.IndoEuropeanTokenizerFactory;
+import com.aliasi.tokenizer.Tokenizer;
 import com.aliasi.tokenizer.TokenizerFactory;
+import com.aliasi.util.BoundedPriorityQueue;
 import com.aliasi.util.ScoredObject;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -19,6 +28,10 @@ import java.util.SortedSet;
 import java.util.StringTokenizer;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 /**
@@ -53,8 +66,36 @@ public class Overrepresentation
 	/** The LingPipe tokenizer factory, by default an 'IndoEuropeanTokenizerFactory' */
 	protected TokenizerFactory tf;
 
-	/** backgrounds, indexed by the size (n) of the n-gram */
-	public TokenizedLM[] backgrounds;
+	/** the background model, for all sizes (n) of n-grams up to max_ngram */
+	public BackgroundModel background;
+
+	/** the ids of the tokens of the background model, which the vocabulary of each set of calculated descriptions extends */
+	protected Vocabulary vocabulary;
+
+	/* orders the n-grams with the same score by their (stemmed) n-gram key with the meta characters converted back, and then by the key itself */
+	private static final Comparator<String> TIE_ORDER = new Comparator<String>()
+	{
+		@Override
+		public int compare(String a, String b)
+		{
+			Postprocess post = new Postprocess();
+			int order = post.convertFromMeta(a).compareTo(post.convertFromMeta(b));
+			if (order != 0)
+			{
+				return order;
+			}
+			return a.compareTo(b);
+		}
+	};
+
+	/** the number of threads that train the background model */
+	protected int threads = 1;
+
+	/** the minimal number of background descriptions per thread: less background data is trained on fewer threads */
+	public static int min_descriptions_per_thread = 1000;
+
+	/** the memory (in bytes) for an approximate background model (see {@link SketchBackgroundModel}), or 0 for an exact one */
+	protected long background_memory = 0;
 
 	/**
 	 * Create a new Overrepresentation object, specifying the minimum and maximum size (n) of an n-gram, as well as the minimum count an n-gram should have before considering it as a valid output.
@@ -70,11 +111,57 @@ public class Overrepresentation
 		this.max_ngram = max_ngram;
 		this.min_count_ngram = min_count_ngram;
 		this.lowercase = lowercase;
-		backgrounds = new TokenizedLM[max_ngram - min_ngram + 1];
+		background = null;
+		vocabulary = new Vocabulary();
 		tf = IndoEuropeanTokenizerFactory.INSTANCE;
 		all_nGrams = new TreeMap<Double, Set<String>>();
 	}
 
+	/**
+	 * Create a new Overrepresentation object with the same settings as this one, and without any results.
+	 * The background model and its vocabulary are shared with this object: the model is only read when calculating new terms, and should not be changed while the copy is in use.
+	 * 
+	 * @return a new Overrepresentation object that uses the same background model
+	 */
+	public Overrepresentation copy()
+	{
+		Overrepresentation copy = new Overrepresentation(min_count_ngram, min_ngram, max_ngram, lowercase);
+		copy.tf = tf;
+		copy.background = background;
+		copy.vocabulary = vocabulary;
+		copy.threads = threads;
+		copy.background_memory = background_memory;
+		return copy;
+	}
+
+	/**
+	 * Define the number of threads that train the background model. The background descriptions are split into one part per thread, 
+	 * each part is counted by its own model, and the counts of the parts are added up into the background model.
+	 * 
+	 * @param threads the number of threads (1 by default)
+	 */
+	public void setThreads(int threads)
+	{
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Define the memory for the counts of the background model. By default (0), all counts are kept exactly, in as much memory as they take.
+	 * With a memory budget, the background model keeps the most frequent counts exactly, and estimates the others with a count-min sketch, 
+	 * of which the error bounds are described by {@link BackgroundModel#getAccuracy()}.
+	 * 
+	 * @param memory the memory budget in bytes, or 0 for exact counts
+	 * @throws IllegalArgumentException when the budget is too small for the approximate counts, or too large for the Java heap
+	 */
+	public void setBackgroundMemory(long memory)
+	{
+		if (memory > 0)
+		{
+			SketchCounter.checkMemory(memory);
+		}
+		this.background_memory = Math.max(0, memory);
+	}
+
 	/**
 	 * Return all overrepresented n-grams as a sorted resultmap. These results should have been calculated by first creating a background model and then calculating the overrepresentation of new terms.
 	 * 
@@ -94,11 +181,12 @@ public class Overrepresentation
 	}
 
 	/**
-	 * Clean the background model. This does not clean the calculated results, which should be done with {@link #cleanAllResults()}!
+	 * Clean the background model, together with the vocabulary of its tokens. This does not clean the calculated results, which should be done with {@link #cleanAllResults()}!
 	 */
 	public void cleanBackgroundModel()
 	{
-		backgrounds = new TokenizedLM[max_ngram - max_ngram + 1];
+		background = null;
+		vocabulary = new Vocabulary();
 	}
 
 	/**
@@ -115,36 +203,189 @@ public class Overrepresentation
 
 	/**
 	 * Method that determines a background model from a given set of description lists.
-	 * A model is built for all possible n-grams between min_ngram and max_ngram.
+	 * One model counts all possible n-grams up to max_ngram, and serves all sizes of n-grams between min_ngram and max_ngram.
+	 * With more than one thread (see {@link #setThreads(int)}), the descriptions are split into parts that are trained concurrently.
 	 * 
 	 * @param descriptionLists the description lists that form the background data
 	 */
 	public void calculateBackgroundModel(Set<DescriptionsList> descriptionLists)
 	{
-		for (int ngram = max_ngram; ngram > (min_ngram - 1); ngram--)
+		if (background == null)
+		{
+			background = newBackground();
+		}
+		List<Description> descriptions = new ArrayList<Description>();
+		for (DescriptionsList list : descriptionLists)
+		{
+			descriptions.addAll(list.getDescriptions());
+		}
+		int parts = Math.min(threads, descriptions.size() / Math.max(1, min_descriptions_per_thread));
+		if (parts < 2 || background.newPart() == null)
 		{
-			int pos = ngram - min_ngram;
-			if (backgrounds[pos] == null)
+			// an approximate background model can not add up the counts of parts, so it is trained on one thread
+			train(background, descriptions);
+			return;
+		}
+		// the first part is trained on the background model itself, the other parts on new models that are then added to it
+		final BackgroundModel[] models = new BackgroundModel[parts];
+		models[0] = background;
+		ExecutorService pool = Executors.newFixedThreadPool(parts);
+		try
+		{
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int part = 0; part < parts; part++)
 			{
-				backgrounds[pos] = new TokenizedLM(tf, ngram, new UniformBoundaryLM(), new UniformBoundaryLM(), ngram);
-				backgrounds[pos].sequenceCounter().prune(min_count_occ);
+				if (part > 0)
+				{
+					models[part] = background.newPart();
+				}
+				final BackgroundModel model = models[part];
+				int start = (int) ((long) part * descriptions.size() / parts);
+				int end = (int) ((long) (part + 1) * descriptions.size() / parts);
+				final List<Description> sublist = descriptions.subList(start, end);
+				futures.add(pool.submit(new Runnable()
+				{
+					public void run()
+					{
+						train(model, sublist);
+					}
+				}));
 			}
-			for (DescriptionsList list : descriptionLists)
+			waitFor(futures);
+
+			// the parts are added up in pairs, so that each round halves the number of parts
+			for (int step = 1; step < parts; step *= 2)
 			{
-				for (Description dl : list.getDescriptions())
+				futures.clear();
+				for (int part = 0; part + step < parts; part += 2 * step)
 				{
-					String line = dl.getDescription();
-					double weight = dl.getWeight();
-					if (weight >= 0)
+					final BackgroundModel model = models[part];
+					final BackgroundModel other = models[part + step];
+					models[part + step] = null;
+					futures.add(pool.submit(new Runnable()
 					{
-						int intweight = new Double(weight).intValue();
-						backgrounds[pos].train(line, intweight);
-					}
+						public void run()
+						{
+							model.add(other);
+						}
+					}));
 				}
+				waitFor(futures);
+			}
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Create an empty background model: an exact one, or an approximate one when a memory budget is set.
+	 */
+	private BackgroundModel newBackground()
+	{
+		if (background_memory > 0)
+		{
+			return new SketchBackgroundModel(max_ngram, vocabulary, background_memory);
+		}
+		return new TrieBackgroundModel(max_ngram, vocabulary);
+	}
+
+	/**
+	 * Train a background model on a list of descriptions, with their weights as counts. Descriptions with a negative weight are skipped.
+	 */
+	private void train(BackgroundModel model, List<Description> descriptions)
+	{
+		for (Description dl : descriptions)
+		{
+			double weight = dl.getWeight();
+			if (weight >= 0)
+			{
+				int intweight = (int) weight;
+				model.train(tokenize(dl.getDescription(), vocabulary), intweight);
+			}
+		}
+	}
+
+	/**
+	 * Wait for the tasks that train (parts of) the background model on other threads, and pass on the exception when one of them failed.
+	 */
+	private void waitFor(List<Future<?>> futures)
+	{
+		try
+		{
+			for (Future<?> future : futures)
+			{
+				future.get();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while training the background model");
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+			{
+				throw (RuntimeException) cause;
 			}
+			if (cause instanceof Error)
+			{
+				throw (Error) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	/**
+	 * Return a textual representation of the settings that determine the background model: the sizes of the n-grams, and how descriptions are split into tokens.
+	 * 
+	 * @return the settings of this object
+	 */
+	public String getSettings()
+	{
+		return "min_ngram=" + min_ngram + ";max_ngram=" + max_ngram + ";min_count_occ=" + min_count_occ + ";background_memory=" + background_memory + ";lowercase=" + lowercase + ";tokenizer=" + tf.getClass().getName();
+	}
+
+	/**
+	 * Write the background model to a snapshot file, from which {@link #loadBackground(File, String)} restores it much faster than it can be trained again.
+	 * The snapshot is tagged with the settings of this object and with a description of the background data (see {@link BackgroundModel#save(File, String)}).
+	 * 
+	 * @param file the snapshot file
+	 * @param tag a description of the background data and of how its descriptions were converted (such as the TextMapping and Preprocess settings)
+	 * @throws IOException when there is no background model, or when the snapshot could not be written
+	 */
+	public void saveBackground(File file, String tag) throws IOException
+	{
+		if (background == null)
+		{
+			throw new IOException("There is no background model to save");
 		}
+		background.save(file, getSettings() + ";" + tag);
 	}
 
+	/**
+	 * Replace the background model by the one in a snapshot file, written by {@link #saveBackground(File, String)}.
+	 * The snapshot is only used when it was written by the same version, with the same settings and the same tag: otherwise the background model is not changed.
+	 * 
+	 * @param file the snapshot file
+	 * @param tag a description of the background data and of how its descriptions were converted, as given when the snapshot was saved
+	 * @return whether the background model was loaded from the snapshot
+	 * @throws IOException when the snapshot could not be read
+	 */
+	public boolean loadBackground(File file, String tag) throws IOException
+	{
+		BackgroundModel loaded = BackgroundModel.load(file, getSettings() + ";" + tag, new Vocabulary());
+		if (loaded == null)
+		{
+			return false;
+		}
+		background = loaded;
+		vocabulary = loaded.getVocabulary();
+		return true;
+	}
 
 	/**
 	 * Method to calculate the overrepresentation of n-grams within a list of descriptions, using the background model (if built previously).
@@ -158,78 +399,153 @@ public class Overrepresentation
 	{
 		all_nGrams = new TreeMap<Double, Set<String>>();
 
-		for (int ngram = max_ngram; ngram > (min_ngram - 1); ngram--)
+		// the tokens that the background does not know get their ids in a vocabulary of their own, which is forgotten with the descriptions
+		Vocabulary testvocabulary = new Vocabulary(vocabulary);
+		if (switchorder)
+		{
+			// the n-grams of each size are counted in their own windows of words, so each size needs its own model
+			for (int ngram = max_ngram; ngram > (min_ngram - 1); ngram--)
+			{
+				boolean allOK = calculateSwitched(test, ngram, testvocabulary);
+				if (!allOK)
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+
+		// the descriptions are tokenized and counted once, for all sizes of n-grams
+		NGramCounter foreground = new NGramCounter(max_ngram);
+		for (Description dl : test.getDescriptions())
 		{
-			boolean allOK = calculate(test, ngram, switchorder);
-			if (!allOK)
+			double weight = dl.getWeight();
+			int intweight = (int) weight;
+			if (weight >= 0 && intweight >= 0)
 			{
-				return false;
+				try
+				{
+					foreground.increment(tokenize(dl.getDescription(), testvocabulary), intweight);
+				}
+				catch (Exception e)
+				{
+					printWeightError();
+					return false;
+				}
 			}
 		}
+		for (int ngram = max_ngram; ngram > (min_ngram - 1); ngram--)
+		{
+			report(terms(foreground, ngram, testvocabulary));
+		}
 		return true;
 	}
 
 	/**
-	 * Method that calculates the overrepresentation of n-grams within a list of descriptions. 
-	 * First, a 'foreground' model is built using the descriptions in the list, and their weights. 
+	 * Select the n-grams of a certain size from the foreground counts, as a foreground TokenizedLM of this size would with TokenizedLM.newTermSet, 
+	 * or with TokenizedLM.frequentTermSet when there is no background model for this size.
+	 * The n-grams are scored in the same order as the model visits them, so that the same n-grams are kept when several have the same score.
+	 */
+	private SortedSet<ScoredObject<String[]>> terms(NGramCounter foreground, int ngram, Vocabulary testvocabulary)
+	{
+		boolean scored = background != null && ngram <= background.getMaxNGram();
+		Comparator<ScoredObject<String[]>> comparator = ScoredObject.comparator();
+		BoundedPriorityQueue<ScoredObject<String[]>> terms = new BoundedPriorityQueue<ScoredObject<String[]>>(comparator, max_returned_results);
+		// a new TokenizedLM starts with a count of 1 for the empty n-gram, before it is trained
+		int total = foreground.getTotalCount() + 1;
+		for (int nGram : foreground.getNGrams(ngram, scored ? min_count_ngram : 1))
+		{
+			int[] ids = foreground.getTokens(nGram);
+			String[] tokens = new String[ids.length];
+			for (int t = 0; t < ids.length; t++)
+			{
+				tokens[t] = testvocabulary.getToken(ids[t]);
+			}
+			int count = foreground.getCount(nGram);
+			if (!scored)
+			{
+				terms.offer(new ScoredObject<String[]>(tokens, count));
+			}
+			else
+			{
+				double expected = background.tokenProbability(ids, ngram, testvocabulary);
+				terms.offer(new ScoredObject<String[]>(tokens, BinomialDistribution.z(expected, count, total)));
+			}
+		}
+		return terms;
+	}
+
+	/**
+	 * Method that calculates the overrepresentation of n-grams within a list of descriptions, of which the words can be in any order. 
+	 * First, the foreground n-grams are counted in the windows of the descriptions, using their weights. 
 	 * If there is a background model previously built, this foreground model is compared by searching for overrepesented, new terms in the foreground. 
 	 * If there is no background previously built, the most frequently terms are simply determined from this input alone, which may lead to a bias towards overrepresented but uninformative information.
 	 * 
 	 * The results of this method are stored in the all_nGrams object. The method returns true when it was able to end succesfully.
 	 */
-	private boolean calculate(DescriptionsList descriptions, int ngram, boolean switchorder)
+	private boolean calculateSwitched(DescriptionsList descriptions, int ngram, Vocabulary testvocabulary)
 	{
-		int pos = ngram - min_ngram;
-		TokenizedLM foregroundModel = new TokenizedLM(tf, ngram);
-		foregroundModel.sequenceCounter().prune(min_count_occ);
+		NGramCounter foreground = new NGramCounter(ngram);
 		
 		for (Description dl : descriptions.getDescriptions())
 		{
 			String line = dl.getDescription();
 			double weight = dl.getWeight();
-			int intweight = new Double(weight).intValue();
+			int intweight = (int) weight;
 			if (weight >= 0 && intweight >= 0)
 			{
 				try
 				{
-					if (switchorder)
-					{
-						Set<String> substrings = getSubstrings(line, ngram);
+					Set<String> substrings = getSubstrings(line, ngram);
 
-						for (String ss : substrings)
-						{
-							foregroundModel.train(ss, intweight);
-						}
-					}
-					else
+					for (String ss : substrings)
 					{
-						foregroundModel.train(line, intweight);
+						foreground.increment(tokenize(ss, testvocabulary), intweight);
 					}
 				}
 				catch (Exception e)
 				{
-					String newline = Environment.getNewline(); 
-					System.out.println("An error occurred when applying weights. Are you sure you specified the correct column? " + newline);
-					System.out.println("If the problem persists, contact solan AT psb DOT ugent DOT be for help with this issue." + newline);
+					printWeightError();
 					return false;
 				}
 			}
 		}
 
-		if (pos >= 0 && pos < backgrounds.length && backgrounds[pos] != null)
-		{
-			SortedSet<ScoredObject<String[]>> newTerms = foregroundModel.newTermSet(ngram, min_count_ngram, max_returned_results, backgrounds[pos]);
-			report(newTerms);
-		}
-		else
-		{
-			SortedSet<ScoredObject<String[]>> terms = foregroundModel.frequentTermSet(ngram, max_returned_results);
-			report(terms);
-		}
+		report(terms(foreground, ngram, testvocabulary));
 		return true;
 
 	}
+
+	/**
+	 * Print the error message for descriptions of which the weights could not be applied.
+	 */
+	private void printWeightError()
+	{
+		String newline = Environment.getNewline(); 
+		System.out.println("An error occurred when applying weights. Are you sure you specified the correct column? " + newline);
+		System.out.println("If the problem persists, contact solan AT psb DOT ugent DOT be for help with this issue." + newline);
+	}
 	
+	/**
+	 * Split a text into tokens with the tokenizer factory of the models, and return the ids of the tokens in a vocabulary: the one of the background model or an extension of it.
+	 */
+	private int[] tokenize(String line, Vocabulary vocabulary)
+	{
+		char[] cs = line.toCharArray();
+		Tokenizer tokenizer = tf.tokenizer(cs, 0, cs.length);
+		int[] tokens = new int[16];
+		int nrtokens = 0;
+		for (String token = tokenizer.nextToken(); token != null; token = tokenizer.nextToken())
+		{
+			if (nrtokens == tokens.length)
+			{
+				tokens = Arrays.copyOf(tokens, nrtokens * 2);
+			}
+			tokens[nrtokens++] = vocabulary.getId(token);
+		}
+		return Arrays.copyOf(tokens, nrtokens);
+	}
+
 	/**
 	 * Return all n-grams in a certain line, specifying the n parameter. The tokens in the n-grams are internally sorted alphabetically.
 	 * This way, the same n-gram is recognised irrespective of the internal word order (e.g. 'signalling enzyme' and 'enzyme, signalling')
@@ -270,7 +586,8 @@ public class Overrepresentation
 	}
 
 	/**
-	 * Add these overrepresented ngrams to the collection of results, stored in all_nGrams
+	 * Add these overrepresented ngrams to the collection of results, stored in all_nGrams.
+	 * The n-grams with the same score are kept in the order of TIE_ORDER.
 	 */
 	private void report(SortedSet<ScoredObject<String[]>> nGrams)
 	{
@@ -290,7 +607,7 @@ public class Overrepresentation
 			{
 				if (!all_nGrams.containsKey(score))
 				{
-					all_nGrams.put(score, new HashSet<String>());
+					all_nGrams.put(score, new TreeSet<String>(TIE_ORDER));
 				}
 				all_nGrams.get(score).add(tok);
 			}
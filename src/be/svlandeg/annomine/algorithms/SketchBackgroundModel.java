@@ -0,0 +1,227 @@
+package be.svlandeg.annomine.algorithms;
+
+import be.svlandeg.annomine.data.CountMinSketch;
+import be.svlandeg.annomine.data.SketchCounter;
+import be.svlandeg.annomine.data.Vocabulary;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A background model that keeps approximate counts within a fixed memory budget, for background data of which the exact counts do not fit in memory.
+ * Each sequence is reduced to a 64-bit fingerprint of the strings of its tokens, and its count, extension count and number of extensions are counted in a {@link SketchCounter}:
+ * the most frequent ones exactly, the others in a count-min sketch. An estimated count is never below the true count, and exceeds it by at most the error bound of the sketch
+ * (with a probability given by {@link #getAccuracy()}). The number of extensions of a sequence is raised when the estimated count of an extension was still 0,
+ * so it can only be too low when the count of a new extension was overestimated.
+ * The counts of separately trained sketches can not be added up, as the extensions they have in common would be counted twice.
+ *
+ * @author Sofie Van Landeghem
+ */
+public class SketchBackgroundModel extends BackgroundModel
+{
+
+    /* the kinds of counts of a sequence, each with their own key */
+    private static final long COUNT = 1;
+    private static final long EXTENSIONCOUNT = 2;
+    private static final long EXTENSIONS = 3;
+
+    /* the fingerprint of the empty sequence, and the hash of the boundary token */
+    private static final long EMPTY = 0x2545F4914F6CDD1DL;
+    private static final long BOUNDARY = 0x6A09E667F3BCC909L;
+
+    /* the counts of all sequences, by key */
+    private SketchCounter counter;
+
+    /**
+     * Create an empty background model for n-grams up to a certain size, that takes (about) a certain amount of memory.
+     * Like {@link TrieBackgroundModel}, it starts with a count of 1 for the empty sequence.
+     *
+     * @param max_ngram the size of the largest n-grams
+     * @param vocabulary the vocabulary of the ids of the tokens
+     * @param memory the memory budget in bytes
+     * @throws IllegalArgumentException when the budget is too small (see {@link SketchCounter#SketchCounter(long)})
+     */
+    public SketchBackgroundModel(int max_ngram, Vocabulary vocabulary, long memory)
+    {
+        this(max_ngram, vocabulary, new SketchCounter(memory));
+        counter.add(key(EMPTY, COUNT), 1);
+    }
+
+    private SketchBackgroundModel(int max_ngram, Vocabulary vocabulary, SketchCounter counter)
+    {
+        super(max_ngram, vocabulary);
+        this.counter = counter;
+    }
+
+    @Override
+    public void train(int[] tokens, int count)
+    {
+        if (count < 0)
+        {
+            throw new IllegalArgumentException("Counts must be non-negative. Found count=" + count);
+        }
+        if (count == 0)
+        {
+            return;
+        }
+        int[] sequence = withBoundaries(tokens);
+        int length = sequence.length;
+        long[] hashes = new long[length];
+        for (int i = 0; i < length; i++)
+        {
+            hashes[i] = hash(sequence[i], vocabulary);
+        }
+        // the same sequences as in TrieBackgroundModel.train: all subsequences after the start boundary, with their prefixes, and the sequences from the start boundary
+        for (int start = 1; start < length; start++)
+        {
+            long prefix = EMPTY;
+            counter.add(key(prefix, COUNT), count);
+            int end = Math.min(start + max_ngram, length);
+            for (int i = start; i < end; i++)
+            {
+                long extended = extend(prefix, hashes[i]);
+                addExtension(prefix, extended, count);
+                prefix = extended;
+            }
+        }
+        long prefix = extend(EMPTY, hashes[0]);
+        int max = Math.min(max_ngram, length);
+        for (int end = 2; end <= max; end++)
+        {
+            long extended = extend(prefix, hashes[end - 1]);
+            addExtension(prefix, extended, count);
+            prefix = extended;
+        }
+    }
+
+    /**
+     * Count a sequence that extends a prefix with one token: the count of the sequence and the extension count of the prefix are raised,
+     * and the number of extensions of the prefix when the sequence was not counted before.
+     */
+    private void addExtension(long prefix, long sequence, int count)
+    {
+        counter.add(key(prefix, EXTENSIONCOUNT), count);
+        long key = key(sequence, COUNT);
+        if (counter.estimate(key) == 0)
+        {
+            counter.add(key(prefix, EXTENSIONS), 1);
+        }
+        counter.add(key, count);
+    }
+
+    @Override
+    public String getAccuracy()
+    {
+        CountMinSketch sketch = counter.getSketch();
+        if (sketch == null)
+        {
+            return "approximate background model: " + counter.getExactSize() + " counts kept exactly, and none in a count-min sketch, so all counts are exact";
+        }
+        return "approximate background model: " + counter.getExactSize() + " counts kept exactly, and " + sketch.getTotalCount() + " counted in a count-min sketch of " + sketch.getDepth() + " x "
+                + sketch.getWidth() + " cells. With probability " + (1 - sketch.getDelta()) + ", an estimated count exceeds the true count by at most " + sketch.getErrorBound()
+                + " (epsilon=" + sketch.getEpsilon() + ")";
+    }
+
+    @Override
+    protected long count(int[] ids, int start, int end, Vocabulary tokenvocabulary)
+    {
+        return estimate(ids, start, end, COUNT, tokenvocabulary);
+    }
+
+    @Override
+    protected long extensionCount(int[] ids, int start, int end, Vocabulary tokenvocabulary)
+    {
+        return estimate(ids, start, end, EXTENSIONCOUNT, tokenvocabulary);
+    }
+
+    @Override
+    protected int numExtensions(int[] ids, int start, int end, Vocabulary tokenvocabulary)
+    {
+        return (int) Math.min(Integer.MAX_VALUE, estimate(ids, start, end, EXTENSIONS, tokenvocabulary));
+    }
+
+    /**
+     * Estimate a kind of count of the sequence ids[start, end), or return 0 when it contains the unknown token.
+     */
+    private long estimate(int[] ids, int start, int end, long kind, Vocabulary tokenvocabulary)
+    {
+        long sequence = EMPTY;
+        for (int i = start; i < end; i++)
+        {
+            if (ids[i] < 0 && ids[i] != BOUNDARY_TOKEN)
+            {
+                return 0;
+            }
+            sequence = extend(sequence, hash(ids[i], tokenvocabulary));
+        }
+        return counter.estimate(key(sequence, kind));
+    }
+
+    /**
+     * Return the hash of a token, from its string rather than its id, so that the keys stay the same when the ids of the vocabulary change between runs.
+     * The string is looked up in the vocabulary of the id: the vocabulary of this model or an extension of it.
+     */
+    private long hash(int id, Vocabulary tokenvocabulary)
+    {
+        if (id == BOUNDARY_TOKEN)
+        {
+            return BOUNDARY;
+        }
+        // FNV-1a over the characters of the token
+        String token = tokenvocabulary.getToken(id);
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < token.length(); i++)
+        {
+            hash ^= token.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Return the fingerprint of a sequence that extends another sequence with one token.
+     */
+    private static long extend(long sequence, long token)
+    {
+        return mix(sequence * 0x9E3779B97F4A7C15L + token);
+    }
+
+    /**
+     * Return the key of a kind of count of a sequence.
+     */
+    private static long key(long sequence, long kind)
+    {
+        return mix(sequence ^ (kind * 0xC2B2AE3D27D4EB4FL));
+    }
+
+    /**
+     * Spread the bits of a 64-bit value over all bits (the finalizer of MurmurHash3).
+     */
+    private static long mix(long value)
+    {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    /**
+     * Write the table and the sketch of the counter. The keys do not depend on the ids of the tokens, so no tokens are written.
+     */
+    @Override
+    protected void write(DataOutputStream out) throws IOException
+    {
+        counter.write(out);
+    }
+
+    /**
+     * Read a model written by {@link #write(DataOutputStream)}, of which the tokens get their ids in a vocabulary when they are looked up.
+     */
+    static SketchBackgroundModel read(DataInputStream in, int max_ngram, Vocabulary vocabulary) throws IOException
+    {
+        return new SketchBackgroundModel(max_ngram, vocabulary, SketchCounter.read(in));
+    }
+}
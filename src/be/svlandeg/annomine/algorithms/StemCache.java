@@ -0,0 +1,329 @@
+package be.svlandeg.annomine.algorithms;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of stemmed words, which can be shared between threads.
+ * The words are spread over a number of stripes that are locked independently, and a full stripe forgets its least recently used word.
+ * The numbers of hits, misses and evictions are counted, so that the size of the cache can be chosen for a certain corpus.
+ *
+ * @author Sofie Van Landeghem
+ */
+public class StemCache
+{
+
+	/* the number of independently locked parts of the cache (a power of 2) */
+	private static final int STRIPES = 16;
+
+	protected int capacity;
+
+	private Stripe[] stripes;
+
+	/* one reusable key per thread, to look up words in a sequence of characters without creating a string for them */
+	private static final ThreadLocal<RangeKey> rangekeys = new ThreadLocal<RangeKey>()
+	{
+		@Override
+		protected RangeKey initialValue()
+		{
+			return new RangeKey();
+		}
+	};
+
+	/**
+	 * Create a cache for at most the given number of words.
+	 *
+	 * @param capacity the maximal number of words in the cache (at least 1)
+	 */
+	public StemCache(int capacity)
+	{
+		this.capacity = Math.max(capacity, 1);
+		int perstripe = (this.capacity + STRIPES - 1) / STRIPES;
+		stripes = new Stripe[STRIPES];
+		for (int i = 0; i < STRIPES; i++)
+		{
+			stripes[i] = new Stripe(perstripe);
+		}
+	}
+
+	/**
+	 * Return the stemmed version of a word, when it is in the cache.
+	 *
+	 * @param word the original word
+	 * @return the stemmed version, or null when the word is not in the cache
+	 */
+	public String get(String word)
+	{
+		Stripe stripe = stripe(word.hashCode());
+		synchronized (stripe)
+		{
+			String stem = stripe.get(word);
+			if (stem == null)
+			{
+				stripe.misses++;
+			}
+			else
+			{
+				stripe.hits++;
+			}
+			return stem;
+		}
+	}
+
+	/**
+	 * Return the stemmed version of the characters start..end of a sequence, when that word is in the cache.
+	 * The word is looked up without creating a string for it: the same entry as {@link #get(String)} is found for the same word.
+	 *
+	 * @param word the sequence that contains the original word
+	 * @param start the start of the word in the sequence
+	 * @param end the end of the word in the sequence (exclusive)
+	 * @return the stemmed version, or null when the word is not in the cache
+	 */
+	public String get(CharSequence word, int start, int end)
+	{
+		RangeKey key = rangekeys.get();
+		key.set(word, start, end);
+		Stripe stripe = stripe(key.hash);
+		try
+		{
+			synchronized (stripe)
+			{
+				String stem = stripe.get(key);
+				if (stem == null)
+				{
+					stripe.misses++;
+				}
+				else
+				{
+					stripe.hits++;
+				}
+				return stem;
+			}
+		}
+		finally
+		{
+			key.set(null, 0, 0);
+		}
+	}
+
+	/**
+	 * Store the stemmed version of a word, possibly evicting the least recently used word of its stripe.
+	 *
+	 * @param word the original word
+	 * @param stem the stemmed version
+	 */
+	public void put(String word, String stem)
+	{
+		Stripe stripe = stripe(word.hashCode());
+		synchronized (stripe)
+		{
+			stripe.put(word, stem);
+		}
+	}
+
+	/**
+	 * Remove all words from the cache, and reset the counters.
+	 */
+	public void clear()
+	{
+		for (Stripe stripe : stripes)
+		{
+			synchronized (stripe)
+			{
+				stripe.clear();
+				stripe.hits = 0;
+				stripe.misses = 0;
+				stripe.evictions = 0;
+			}
+		}
+	}
+
+	/**
+	 * Return the maximal number of words in this cache.
+	 *
+	 * @return the capacity of this cache
+	 */
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * Return the number of words currently in this cache.
+	 *
+	 * @return the size of this cache
+	 */
+	public int size()
+	{
+		int size = 0;
+		for (Stripe stripe : stripes)
+		{
+			synchronized (stripe)
+			{
+				size += stripe.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Return the number of words that were found in the cache.
+	 *
+	 * @return the number of hits
+	 */
+	public long getHits()
+	{
+		long hits = 0;
+		for (Stripe stripe : stripes)
+		{
+			synchronized (stripe)
+			{
+				hits += stripe.hits;
+			}
+		}
+		return hits;
+	}
+
+	/**
+	 * Return the number of words that were not found in the cache.
+	 *
+	 * @return the number of misses
+	 */
+	public long getMisses()
+	{
+		long misses = 0;
+		for (Stripe stripe : stripes)
+		{
+			synchronized (stripe)
+			{
+				misses += stripe.misses;
+			}
+		}
+		return misses;
+	}
+
+	/**
+	 * Return the number of words that were removed from the cache because it was full.
+	 *
+	 * @return the number of evictions
+	 */
+	public long getEvictions()
+	{
+		long evictions = 0;
+		for (Stripe stripe : stripes)
+		{
+			synchronized (stripe)
+			{
+				evictions += stripe.evictions;
+			}
+		}
+		return evictions;
+	}
+
+	/**
+	 * Summarize the use of this cache: its size and the numbers of hits, misses and evictions.
+	 */
+	@Override
+	public String toString()
+	{
+		long hits = getHits();
+		long misses = getMisses();
+		long percentage = hits + misses == 0 ? 0 : Math.round(100.0 * hits / (hits + misses));
+		return "stem cache: " + size() + "/" + capacity + " words, " + hits + " hits (" + percentage + "%), " + misses + " misses, " + getEvictions() + " evictions";
+	}
+
+	/**
+	 * Return the stripe that contains a word with a certain hash code.
+	 */
+	private Stripe stripe(int h)
+	{
+		h ^= (h >>> 16);
+		return stripes[h & (STRIPES - 1)];
+	}
+
+	/**
+	 * A word in a sequence of characters, that can be looked up in a map of strings: its hash code is that of the string of the word,
+	 * and it equals the string with the same characters (a map compares the key it looks up with the keys it holds, in that order).
+	 */
+	private static class RangeKey
+	{
+
+		private CharSequence sequence;
+		private int start;
+		private int end;
+		private int hash;
+
+		private void set(CharSequence sequence, int start, int end)
+		{
+			this.sequence = sequence;
+			this.start = start;
+			this.end = end;
+			int h = 0;
+			for (int i = start; i < end; i++)
+			{
+				h = 31 * h + sequence.charAt(i);
+			}
+			this.hash = h;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof String))
+			{
+				return false;
+			}
+			String word = (String) o;
+			if (word.length() != end - start)
+			{
+				return false;
+			}
+			for (int i = start; i < end; i++)
+			{
+				if (word.charAt(i - start) != sequence.charAt(i))
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * One part of the cache: a map in access order that removes its eldest entry when it grows too large.
+	 * All access is synchronized on the stripe itself.
+	 */
+	private static class Stripe extends LinkedHashMap<String, String>
+	{
+
+		private static final long serialVersionUID = 1L;
+
+		private int capacity;
+		private long hits = 0;
+		private long misses = 0;
+		private long evictions = 0;
+
+		private Stripe(int capacity)
+		{
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest)
+		{
+			if (size() > capacity)
+			{
+				evictions++;
+				return true;
+			}
+			return false;
+		}
+	}
+}
@@ -1,18 +1,177 @@
 package be.svlandeg.annomine.algorithms;
 
+import be.svlandeg.annomine.io.Preprocess;
+
+import java.util.Locale;
+
 /**
  * This class wraps a private class "PorterStemmer" to apply stemming
  */
 public class Stemmer
 {
 
+	/** the default number of words of which the stemmed version is remembered */
+	public static final int DEFAULT_CACHE_SIZE = 1 << 16;
+
+	/* the stemmed versions of recently stemmed words, shared by all stemmers (null when they are not remembered) */
+	private static volatile StemCache cache = new StemCache(DEFAULT_CACHE_SIZE);
+
+	/**
+	 * Return the cache of stemmed words that is shared by all stemmers.
+	 * 
+	 * @return the cache of stemmed words, or null when stemmed words are not remembered
+	 */
+	public static StemCache getCache()
+	{
+		return cache;
+	}
+
+	/**
+	 * Set the number of stemmed words that are remembered, which replaces the current cache (and resets its counters).
+	 * 
+	 * @param size the maximal number of words in the cache, or 0 to stem every word again
+	 */
+	public static void setCacheSize(int size)
+	{
+		if (size > 0)
+		{
+			cache = new StemCache(size);
+		}
+		else
+		{
+			cache = null;
+		}
+	}
+
 	/**
 	 * Return the stemmed version of the given word, using the Porter Stemming algorithm.
+	 * The result is looked up in (and stored in) the shared cache of stemmed words.
 	 * 
 	 * @param word the original word
 	 * @return the stemmed version
 	 */
 	public String stem(String word)
+	{
+		StemCache c = cache;
+		if (c == null)
+		{
+			return stemWord(word);
+		}
+		String stem = c.get(word);
+		if (stem == null)
+		{
+			stem = stemWord(word);
+			c.put(word, stem);
+		}
+		return stem;
+	}
+
+	/* the stemmer that is reused by stem(CharSequence, int, int, StringBuilder) */
+	private PorterStemmer reusable;
+
+	/**
+	 * Stem the characters start..end of a sequence, and append the stemmed version to a buffer.
+	 * The word is first looked up in the shared cache of stemmed words, without creating a string for it.
+	 * Otherwise, words of ASCII characters are lower-cased and stemmed in a buffer that is reused, and other words as by {@link #stem(String)}, with the same result;
+	 * the stemmed word is then stored in the cache.
+	 * Unlike {@link #stem(String)}, this method is not thread-safe: each thread should use its own Stemmer object.
+	 * 
+	 * @param word the sequence that contains the original word
+	 * @param start the start of the word in the sequence
+	 * @param end the end of the word in the sequence (exclusive)
+	 * @param out the buffer to which the stemmed version is appended
+	 */
+	public void stem(CharSequence word, int start, int end, StringBuilder out)
+	{
+		StemCache c = cache;
+		String stem = c == null ? null : c.get(word, start, end);
+		if (stem != null)
+		{
+			out.append(stem);
+			return;
+		}
+		if (!isPlainAscii(word, start, end))
+		{
+			String original = word.subSequence(start, end).toString();
+			stem = stemWord(original);
+			if (c != null)
+			{
+				c.put(original, stem);
+			}
+			out.append(stem);
+			return;
+		}
+		if (reusable == null)
+		{
+			reusable = new PorterStemmer();
+		}
+		for (int i = start; i < end; i++)
+		{
+			reusable.add(toLowerCase(word.charAt(i)));
+		}
+		reusable.stem();
+		int from = out.length();
+		reusable.appendTo(out);
+		if (c != null)
+		{
+			c.put(word.subSequence(start, end).toString(), out.substring(from));
+		}
+	}
+
+	/**
+	 * Check whether the characters start..end of a sequence are ASCII characters that String.toLowerCase() maps one by one onto ASCII characters.
+	 * This is the case for all ASCII characters, except for the 'I' in Turkish and Azerbaijani.
+	 * The meta characters of {@link Preprocess} have no case, and are accepted as well.
+	 * 
+	 * @param word the sequence that contains the word
+	 * @param start the start of the word in the sequence
+	 * @param end the end of the word in the sequence (exclusive)
+	 * @return whether the word can be lower-cased character by character with {@link #toLowerCase(char)}
+	 */
+	static boolean isPlainAscii(CharSequence word, int start, int end)
+	{
+		for (int c = start; c < end; c++)
+		{
+			char ch = word.charAt(c);
+			if (ch >= 128)
+			{
+				if (ch != Preprocess.HYPHEN && ch != Preprocess.PLUS)
+				{
+					return false;
+				}
+				continue;
+			}
+			if (ch == 'I')
+			{
+				String language = Locale.getDefault().getLanguage();
+				if (language.equals("tr") || language.equals("az"))
+				{
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Lower-case an ASCII character.
+	 * 
+	 * @param ch an ASCII character
+	 * @return the lower-case version of the character
+	 */
+	static char toLowerCase(char ch)
+	{
+		if (ch >= 'A' && ch <= 'Z')
+		{
+			return (char) (ch + ('a' - 'A'));
+		}
+		return ch;
+	}
+
+	/**
+	 * Stem a word without looking at the cache.
+	 */
+	private String stemWord(String word)
 	{
 		PorterStemmer ps = new PorterStemmer();
 		String result = new String(word);
@@ -60,6 +219,11 @@ public class Stemmer
 
 		private char[] b;
 		private int i, /* offset into b */i_end, /* offset to end of stemmed word */j, k;
+
+		/* the positions in b at which a meta character of Preprocess was spelled out in the current word, and those meta characters */
+		private int[] spelled_at = new int[4];
+		private char[] spelled_meta = new char[4];
+		private int nr_spelled;
 		
 		/* unit of size whereby b is increased */
 		private static final int INC = 50;
@@ -96,6 +260,21 @@ public class Stemmer
 		 */
 		private void add(char[] w, int wLen)
 		{
+			for (int c = 0; c < wLen; c++)
+			{
+				if (w[c] == Preprocess.HYPHEN || w[c] == Preprocess.PLUS)
+				{
+					for (c = 0; c < wLen; c++)
+					{
+						add(w[c]);
+					}
+					return;
+				}
+			}
+			if (i == 0)
+			{
+				nr_spelled = 0;
+			}
 			if (i + wLen >= b.length)
 			{
 				char[] new_b = new char[i + wLen + INC];
@@ -111,6 +290,109 @@ public class Stemmer
 			}
 		}
 
+		/**
+		 * Adds one character to the word being stemmed.
+		 */
+		private void add(char ch)
+		{
+			if (i == 0)
+			{
+				nr_spelled = 0;
+			}
+			if (ch == Preprocess.HYPHEN || ch == Preprocess.PLUS)
+			{
+				spellOut(ch);
+				return;
+			}
+			if (i >= b.length)
+			{
+				char[] new_b = new char[i + INC];
+				for (int c = 0; c < i; c++)
+				{
+					new_b[c] = b[c];
+				}
+				b = new_b;
+			}
+			b[i++] = ch;
+		}
+
+		/**
+		 * After a word has been stemmed, append it to a buffer, without creating a new String.
+		 */
+		private void appendTo(StringBuilder out)
+		{
+			int from = 0;
+			for (int s = 0; s < nr_spelled; s++)
+			{
+				int at = spelled_at[s];
+				String spelling = spelling(spelled_meta[s]);
+				if (at + spelling.length() > i_end)
+				{
+					break;
+				}
+				if (spells(at, spelling))
+				{
+					out.append(b, from, at - from);
+					out.append(spelled_meta[s]);
+					from = at + spelling.length();
+				}
+			}
+			out.append(b, from, i_end - from);
+		}
+
+		/**
+		 * Adds a meta character of Preprocess as the word that it replaces ("hyphen" or "plus"), and remembers where it was spelled out.
+		 * The measure and the suffixes of the word are then those of the spelled-out word, so that the meta characters do not change how a word is stemmed.
+		 * When the stemmed word still contains the spelled-out word, appendTo() and toString() put the meta character back.
+		 */
+		private void spellOut(char meta)
+		{
+			int at = i;
+			String spelling = spelling(meta);
+			for (int c = 0; c < spelling.length(); c++)
+			{
+				add(spelling.charAt(c));
+			}
+			if (nr_spelled == spelled_at.length)
+			{
+				int[] new_at = new int[2 * nr_spelled];
+				char[] new_meta = new char[2 * nr_spelled];
+				for (int c = 0; c < nr_spelled; c++)
+				{
+					new_at[c] = spelled_at[c];
+					new_meta[c] = spelled_meta[c];
+				}
+				spelled_at = new_at;
+				spelled_meta = new_meta;
+			}
+			spelled_at[nr_spelled] = at;
+			spelled_meta[nr_spelled] = meta;
+			nr_spelled++;
+		}
+
+		/**
+		 * The word that a meta character of Preprocess replaces.
+		 */
+		private String spelling(char meta)
+		{
+			return meta == Preprocess.HYPHEN ? "hyphen" : "plus";
+		}
+
+		/**
+		 * spells(at, s) is true <=> b contains the string s from position at onwards.
+		 */
+		private boolean spells(int at, String s)
+		{
+			for (int c = 0; c < s.length(); c++)
+			{
+				if (b[at + c] != s.charAt(c))
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+
 		/**
 		 * After a word has been stemmed, it can be retrieved by toString(),
 		 * or a reference to the internal buffer can be retrieved by getResultBuffer
@@ -119,7 +401,13 @@ public class Stemmer
 		@Override
 		public String toString()
 		{
-			return new String(b, 0, i_end);
+			if (nr_spelled == 0)
+			{
+				return new String(b, 0, i_end);
+			}
+			StringBuilder out = new StringBuilder(i_end);
+			appendTo(out);
+			return out.toString();
 		}
 
 		/** 
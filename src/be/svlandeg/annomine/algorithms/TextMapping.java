@@ -1,41 +1,67 @@
 package be.svlandeg.annomine.algorithms;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.StringTokenizer;
 import java.util.TreeSet;
 
+import be.svlandeg.annomine.io.Preprocess;
+
 /**
  * This class provides functionality to unify the input textual descriptions through lower-casing, stemming, etc.
- * It keeps track of the original lines and their transformed/cleaned versions.
+ * A TextMapping object only holds the settings of the conversion, and never changes: it can be shared by all threads (stemmed words are cached in a shared {@link StemCache}).
+ * The original lines and their transformed/cleaned versions are kept by a {@link MappingContext} per batch of descriptions (see {@link #newContext()}).
  * 
  * @author Sofie Van Landeghem
  */
 public class TextMapping
 {
-    /** maps the converted line back to the original*/
-    protected Map<String, String> origmap;
-
     /** if set to true, matching will be done case-insensitive */
-    protected boolean tolowercase;
+    protected final boolean tolowercase;
 
     /** if set to true, matching will be done using stemming */
-    protected boolean stemming;
+    protected final boolean stemming;
 
     /** if set to true, unknown proteins are renamed to 'conserved hypothetical protein' */
-    protected boolean unify_unknowns;
+    protected final boolean unify_unknowns;
     
     /** Default value for removeEndPunctuation = true */
-    protected boolean removeEndPunctuation;
+    protected final boolean removeEndPunctuation;
     
     /** Default value for sortTokensAlphabetically = false */
-    protected boolean sortTokensAlphabetically;
+    protected final boolean sortTokensAlphabetically;
+
+    /** decides which descriptions are unknown proteins, when unify_unknowns is set */
+    protected final UnknownClassifier unknowns;
+
+    /* the classifier of unknown proteins that new TextMapping objects use */
+    private static volatile UnknownClassifier defaultUnknowns = UnknownClassifier.getDefault();
+
+    /* the flags of a preference key, which decides which original form is kept when two forms are converted to the same string */
+    private static final int ALL_UPPER = 1;
+    private static final int ALL_LOWER = 2;
+    private static final int BALANCED_ROUND = 4;
+    private static final int ENCLOSED_ROUND = 8;
+    private static final int BALANCED_SQUARE = 16;
+    private static final int ENCLOSED_SQUARE = 32;
 
+    /* lookup tables by character for the word delimiters and the symbols that should not be at the end of a string (all of them are ASCII) */
+    private static final boolean[] delimiters = toTable(wordDelimiters());
+    private static final boolean[] end_removals = toTable(endRemovals());
+
+    /* one reusable stemmer per thread, as they are not thread-safe */
+    private static final ThreadLocal<Stemmer> stemmers = new ThreadLocal<Stemmer>()
+    {
+        @Override
+        protected Stemmer initialValue()
+        {
+            return new Stemmer();
+        }
+    };
 
     /**
      * Create a new TextMapping object. By default, punctuation at the end of a string will be removed.
@@ -65,26 +91,39 @@ public class TextMapping
         this.unify_unknowns = unify_unknowns;
         this.removeEndPunctuation = removeEndPunctuation;
         this.sortTokensAlphabetically = sortTokensAlphabetically;
-        clean();
+        this.unknowns = defaultUnknowns;
     }
 
     /**
-     * Clear the cache (the list of original lines and their converted/cleaned versions)
+     * Define which descriptions are unknown proteins, for all TextMapping objects that are created afterwards.
+     * 
+     * @param unknowns the classifier of unknown proteins (see {@link UnknownClassifier#read(java.io.File)})
      */
-    public void clean()
+    public static void setUnknownClassifier(UnknownClassifier unknowns)
     {
-        origmap = new HashMap<String, String>();
+        defaultUnknowns = unknowns;
     }
 
     /**
-     * Retrieve the original string.
+     * Create a new, empty mapping from converted strings to their original forms, which converts its lines with the settings of this object.
+     * Each batch of descriptions (usually one query gene) gets its own mapping, so that different batches can be converted and printed at the same time.
      * 
-     * @param converted the converted string
-     * @return the original form of a converted string (useful for printing)
+     * @return a new mapping context
      */
-    public String retrieveOriginal(String converted)
+    public MappingContext newContext()
     {
-        return origmap.get(converted);
+        return new MappingContext(this);
+    }
+
+    /**
+     * Return a textual representation of the settings of this object, which determine how strings are converted.
+     * 
+     * @return the settings of this object
+     */
+    public String getSettings()
+    {
+        return "tolowercase=" + tolowercase + ";stemming=" + stemming + ";unify_unknowns=" + unify_unknowns + ";removeEndPunctuation=" + removeEndPunctuation
+                + ";sortTokensAlphabetically=" + sortTokensAlphabetically + (unify_unknowns ? ";" + unknowns.getSettings() : "");
     }
 
     /**
@@ -94,74 +133,152 @@ public class TextMapping
      * Otherwise, prefer the string with matching number of opening and closing braces.
      * If all else is undecided, chose the shorter one or the one that lexically comes before the other.
      */
-    private String chose(String first, String second)
+    String chose(String first, String second)
+    {
+        return chose(first, preference(first), second, preference(second));
+    }
+
+    /**
+     * Chose between two strings as {@link #chose(String, String)} does, given their preference keys (see {@link #preference(String)}).
+     */
+    String chose(String first, int first_key, String second, int second_key)
     {
-        if (first.toUpperCase().equals(first) && !second.toUpperCase().equals(second))
+        boolean first_upper = (first_key & ALL_UPPER) != 0;
+        boolean second_upper = (second_key & ALL_UPPER) != 0;
+        if (first_upper && !second_upper)
         {
             return second;  // prefer the second one that is NOT all upper case
         }
-        if (!first.toUpperCase().equals(first) && second.toUpperCase().equals(second))
+        if (!first_upper && second_upper)
         {
             return first; // prefer the first one that is NOT all upper case
         }
-        if (first.toLowerCase().equals(first) && !second.toLowerCase().equals(second))
+        boolean first_lower = (first_key & ALL_LOWER) != 0;
+        boolean second_lower = (second_key & ALL_LOWER) != 0;
+        if (first_lower && !second_lower)
         {
             return second;  // prefer the second one that is NOT all lower case
         }
-        if (!first.toLowerCase().equals(first) && second.toLowerCase().equals(second))
+        if (!first_lower && second_lower)
         {
             return first;   // prefer the first one that is NOT all lower case
         }
 
-        int first_openbraces = first.length() - first.replace("(", "").length();
-        int first_closebraces = first.length() - first.replace(")", "").length();
-        int second_openbraces = second.length() - second.replace("(", "").length();
-        int second_closebraces = second.length() - second.replace(")", "").length();
-
-        if ((first_openbraces == first_closebraces) && (second_openbraces != second_closebraces))
+        for (int braces = 0; braces < 2; braces++)
         {
-            if (!(first.startsWith("(") && first.endsWith(")")))
+            // first ( and ), then [ and ]
+            int balanced = braces == 0 ? BALANCED_ROUND : BALANCED_SQUARE;
+            int enclosed = braces == 0 ? ENCLOSED_ROUND : ENCLOSED_SQUARE;
+            boolean first_balanced = (first_key & balanced) != 0;
+            boolean second_balanced = (second_key & balanced) != 0;
+            if (first_balanced && !second_balanced && (first_key & enclosed) == 0)
             {
-                return first;   // prefer the one with equal number of ( and )
+                return first;   // prefer the one with equal number of opening and closing braces
             }
-        }
-        if ((first_openbraces != first_closebraces) && (second_openbraces == second_closebraces))
-        {
-            if (!(second.startsWith("(") && second.endsWith(")")))
+            if (!first_balanced && second_balanced && (second_key & enclosed) == 0)
             {
-                return second;   // prefer the one with equal number of ( and )
+                return second;   // prefer the one with equal number of opening and closing braces
             }
         }
 
-        first_openbraces = first.length() - first.replace("[", "").length();
-        first_closebraces = first.length() - first.replace("]", "").length();
-        second_openbraces = second.length() - second.replace("[", "").length();
-        second_closebraces = second.length() - second.replace("]", "").length();
+        if (first.length() < second.length())
+        {
+            return first;   // prefer the first one that is smaller
+        }
+        if (first.compareTo(second) < 0)
+        {
+            return first;   // prefer the first one that lexically comes before the second one
+        }
+        return second;
+    }
 
-        if ((first_openbraces == first_closebraces) && (second_openbraces != second_closebraces))
+    /**
+     * Calculate the preference key of a string: the properties that {@link #chose(String, String)} looks at, apart from the length and the string itself.
+     * The key is worked out in one pass over the string, so that strings do not need to be upper-cased, lower-cased or scanned for every brace type.
+     * The meta characters {@link Preprocess#HYPHEN} and {@link Preprocess#PLUS} count as lower case letters, as the meta words they replaced did,
+     * so a word such as ATP-BINDING is not taken to be all upper case.
+     */
+    static int preference(String s)
+    {
+        int length = s.length();
+        int open_round = 0;
+        int close_round = 0;
+        int open_square = 0;
+        int close_square = 0;
+        boolean upper = true;
+        boolean lower = true;
+        boolean ascii = true;
+        boolean meta = false;
+        for (int i = 0; i < length; i++)
         {
-            if (!(first.startsWith("[") && first.endsWith("]")))
+            char c = s.charAt(i);
+            if (c >= 'a' && c <= 'z')
             {
-                return first;   // prefer the one with equal number of [ and ]
+                upper = false;
             }
-        }
-        if ((first_openbraces != first_closebraces) && (second_openbraces == second_closebraces))
-        {
-            if (!(second.startsWith("[") && second.endsWith("]")))
+            else if (c >= 'A' && c <= 'Z')
+            {
+                lower = false;
+            }
+            else if (c == '(')
+            {
+                open_round++;
+            }
+            else if (c == ')')
             {
-                return second;   // prefer the one with equal number of [ and ]
+                close_round++;
+            }
+            else if (c == '[')
+            {
+                open_square++;
+            }
+            else if (c == ']')
+            {
+                close_square++;
+            }
+            else if (c == Preprocess.HYPHEN || c == Preprocess.PLUS)
+            {
+                upper = false;
+                meta = true;
+            }
+            else if (c >= 128)
+            {
+                ascii = false;
             }
         }
-
-        if (first.length() < second.length())
+        if (!ascii)
         {
-            return first;   // prefer the first one that is smaller
+            // other scripts have their own case rules
+            upper = s.toUpperCase().equals(s);
+            lower = s.toLowerCase().equals(s);
+            upper = upper && !meta;
         }
-        if (first.compareTo(second) < 0)
+        int key = 0;
+        if (upper)
         {
-            return first;   // prefer the first one that lexically comes before the second one
+            key |= ALL_UPPER;
         }
-        return second;
+        if (lower)
+        {
+            key |= ALL_LOWER;
+        }
+        if (open_round == close_round)
+        {
+            key |= BALANCED_ROUND;
+        }
+        if (s.startsWith("(") && s.endsWith(")"))
+        {
+            key |= ENCLOSED_ROUND;
+        }
+        if (open_square == close_square)
+        {
+            key |= BALANCED_SQUARE;
+        }
+        if (s.startsWith("[") && s.endsWith("]"))
+        {
+            key |= ENCLOSED_SQUARE;
+        }
+        return key;
     }
 
     /**
@@ -170,20 +287,12 @@ public class TextMapping
      */
     private String stripRemovalsAtEnd(String line)
     {
-        String result = line;
-        Set<String> puncts = endRemovals();
-        
-        // check whether the last character is an unwanted punctuation symbol
-        String last = result.substring(result.length() - 1, result.length());
-        while (puncts.contains(last) && result.length() > 0)
+        int end = line.length();
+        while (end > 0 && isIn(end_removals, line.charAt(end - 1)))
         {
-            result = result.substring(0, result.length() - 1);
-            if (result.length() > 0)
-            {
-                last = result.substring(result.length() - 1, result.length());
-            }
+            end--;
         }
-        return result;
+        return line.substring(0, end);
     }
     
     /**
@@ -198,20 +307,20 @@ public class TextMapping
         	substrings.add(stok.nextToken());
         }
 
-        String ssubstring = "";
+        StringBuilder ssubstring = new StringBuilder(line.length() + 1);
         for (String ss : substrings)
         {
-        	ssubstring += ss.trim() + " ";
+        	ssubstring.append(ss.trim()).append(' ');
         }
         
-        return ssubstring.trim();
+        return ssubstring.toString().trim();
     }
 
     /**
      * Return the set of symbols that delimit words, and are thus ignored when comparing strings/tokens, because we only compare tokens.
      * TODO: if these need to be length 1, make them characters!
      */
-    private Set<String> wordDelimiters()
+    private static Set<String> wordDelimiters()
     {
         Set<String> puncts = new HashSet<String>();
         puncts.add(".");
@@ -249,21 +358,11 @@ public class TextMapping
         return puncts;
     }
     
-    /**
-     * Return the set of symbols that can be used within strings, but not at the beginning of end (in which case they become a delimiter)
-     */
-    private Set<Character> intermediatePunctuation()
-    {
-        Set<Character> puncts = new HashSet<Character>();
-        puncts.add('_');
-        return puncts;
-    }
-
     /**
      * Return the set of symbols that should not be at the end of a string.
      * TODO: if these need to be length 1, make them characters!
      */
-    private Set<String> endRemovals()
+    private static Set<String> endRemovals()
     {
         Set<String> puncts = new HashSet<String>();
         puncts.add(".");
@@ -290,6 +389,27 @@ public class TextMapping
         return puncts;
     }
 
+    /**
+     * Turn a set of one-character symbols into a lookup table by character.
+     */
+    private static boolean[] toTable(Set<String> symbols)
+    {
+        boolean[] table = new boolean[128];
+        for (String symbol : symbols)
+        {
+            table[symbol.charAt(0)] = true;
+        }
+        return table;
+    }
+
+    /**
+     * Check whether a character is one of the symbols of a lookup table.
+     */
+    private static boolean isIn(boolean[] table, char c)
+    {
+        return c < table.length && table[c];
+    }
+
     /**
      * Retrieve the actual content of a tab-delimited line, removing the first token before the first (and only) tab.
      * 
@@ -317,184 +437,231 @@ public class TextMapping
 
     /**
      * Convert a string to the new variant: remove punctuation, apply lowercase/stemming if needed, etc.
+     * Nothing is stored: use {@link MappingContext#convert(String, boolean, boolean)} to be able to retrieve the original form later on.
      * 
      * @param line the original line
-     * @param substrings define whether substrings should also be calculated and inserted in the internal mapping
      * @param switchorder decides whether the order of the words in the description line can be moved around
      * @return a cleaned copy of the original line
      */
-    public String convert(String line, boolean substrings, boolean switchorder)
+    public String convert(String line, boolean switchorder)
     {
-    	// remove all punctuation that can be in the middle, but not at the beginning of end of a string
-    	// we do this by looking at cases where such punctuation occurs with a space, and in those cases, only keep the space
-    	Set<Character> punct_intermediate = intermediatePunctuation();
-        for (Character punct : punct_intermediate)
-        {
-        	line.replace(punct + " ", " ");
-        	line.replace(" " + punct, " ");
-        }
-    	
-    	
-        Set<String> punct_delimiters = wordDelimiters();
-        String splitstring = "";
-        for (String delimit : punct_delimiters)
-        {
-            splitstring += delimit;
-        }
-        StringTokenizer stok = new StringTokenizer(line, splitstring);
-        String convertedlinesave = "";
-        String convertedlinesub = "";
-        SortedSet<String> tokens_sorted = new TreeSet<String>();
-        List<String> tokens_listed = new ArrayList<String>();
-        while (stok.hasMoreTokens())
+        return convertLine(line, switchorder)[0];
+    }
+
+    /**
+     * Convert a line without storing anything: return the cleaned line, and the version that is used as key in the mapping
+     * (which has its tokens sorted when the order of the words can be switched).
+     */
+    String[] convertLine(String line, boolean switchorder)
+    {
+        // the converted tokens are written one after the other into one buffer, and only the converted lines become strings
+        StringBuilder converted = new StringBuilder(line.length() + 16);
+        int[] token_starts = new int[16];
+        int[] token_ends = new int[16];
+        int nrtokens = 0;
+        int length = line.length();
+        int i = 0;
+        while (i < length)
         {
-            String token = stok.nextToken();
-            if (stemming)
+            while (i < length && isIn(delimiters, line.charAt(i)))
             {
-                token = new Stemmer().stem(token);
+                i++;
             }
-            if (tolowercase)
+            if (i >= length)
             {
-                token = token.toLowerCase();
-            } 
-            tokens_sorted.add(token);
-            tokens_listed.add(token);
-
+                break;
+            }
+            int start = i;
+            while (i < length && !isIn(delimiters, line.charAt(i)))
+            {
+                i++;
+            }
+            if (nrtokens == token_starts.length)
+            {
+                token_starts = Arrays.copyOf(token_starts, nrtokens * 2);
+                token_ends = Arrays.copyOf(token_ends, nrtokens * 2);
+            }
+            if (nrtokens > 0)
+            {
+                converted.append(' ');
+            }
+            token_starts[nrtokens] = converted.length();
+            appendToken(line, start, i, converted);
+            token_ends[nrtokens] = converted.length();
+            nrtokens++;
         }
+        String convertedlinesub = converted.toString().trim();
+        String convertedlinesave = convertedlinesub;
         if (switchorder)
         {
-            for (String tok : tokens_sorted)
+            convertedlinesave = sortTokens(converted, token_starts, token_ends, nrtokens);
+        }
+        return new String[] { convertedlinesub, convertedlinesave };
+    }
+
+    /**
+     * Append the converted version of the characters start..end of a line to a buffer: stemmed and/or lower-cased if needed.
+     * Tokens of ASCII characters are converted without allocating new objects, other tokens go through the String methods.
+     */
+    private void appendToken(String line, int start, int end, StringBuilder out)
+    {
+        if (stemming)
+        {
+            // the stemmer lower-cases the token before it is stemmed, so lower-casing it again would change nothing
+            stemmers.get().stem(line, start, end, out);
+        }
+        else if (!tolowercase)
+        {
+            out.append(line, start, end);
+        }
+        else if (Stemmer.isPlainAscii(line, start, end))
+        {
+            for (int i = start; i < end; i++)
             {
-                convertedlinesave += tok + " ";
+                out.append(Stemmer.toLowerCase(line.charAt(i)));
             }
         }
         else
         {
-            for (String tok : tokens_listed)
+            out.append(line.substring(start, end).toLowerCase());
+        }
+    }
+
+    /**
+     * Return the distinct tokens of a converted line in alphabetical order, separated by spaces.
+     * The tokens are the ranges of the buffer given by their start and end positions.
+     */
+    private String sortTokens(StringBuilder converted, int[] token_starts, int[] token_ends, int nrtokens)
+    {
+        if (nrtokens > 64)
+        {
+            // long lines are rare: just sort their tokens as strings
+            SortedSet<String> tokens_sorted = new TreeSet<String>();
+            for (int t = 0; t < nrtokens; t++)
+            {
+                tokens_sorted.add(converted.substring(token_starts[t], token_ends[t]));
+            }
+            StringBuilder sorted = new StringBuilder(converted.length());
+            for (String tok : tokens_sorted)
             {
-                convertedlinesave += tok + " ";
+                sorted.append(tok).append(' ');
             }
+            return sorted.toString().trim();
         }
-
-        for (String tok : tokens_listed)
+        int[] order = new int[nrtokens];
+        for (int t = 0; t < nrtokens; t++)
+        {
+            int k = t;
+            while (k > 0 && compareTokens(converted, token_starts[order[k - 1]], token_ends[order[k - 1]], token_starts[t], token_ends[t]) > 0)
+            {
+                order[k] = order[k - 1];
+                k--;
+            }
+            order[k] = t;
+        }
+        StringBuilder sorted = new StringBuilder(converted.length());
+        for (int t = 0; t < nrtokens; t++)
         {
-            convertedlinesub += tok + " ";
+            int tok = order[t];
+            if (t > 0 && compareTokens(converted, token_starts[order[t - 1]], token_ends[order[t - 1]], token_starts[tok], token_ends[tok]) == 0)
+            {
+                continue;
+            }
+            if (sorted.length() > 0)
+            {
+                sorted.append(' ');
+            }
+            sorted.append(converted, token_starts[tok], token_ends[tok]);
         }
+        return sorted.toString().trim();
+    }
 
-        convertedlinesub = convertedlinesub.trim();
-        convertedlinesave = convertedlinesave.trim();
-        add(line, convertedlinesave);
-        if (substrings)
+    /**
+     * Compare two ranges of a buffer like String.compareTo compares strings.
+     */
+    private static int compareTokens(StringBuilder converted, int start1, int end1, int start2, int end2)
+    {
+        int length1 = end1 - start1;
+        int length2 = end2 - start2;
+        int min = Math.min(length1, length2);
+        for (int i = 0; i < min; i++)
         {
-            addSubstrings(line, switchorder);
+            char c1 = converted.charAt(start1 + i);
+            char c2 = converted.charAt(start2 + i);
+            if (c1 != c2)
+            {
+                return c1 - c2;
+            }
         }
-        return convertedlinesub;
+        return length1 - length2;
     }
 
     /**
      * Check whether an input string contains words such as "hypothetical protein" or "predicted protein", or whether it equals to "unknown" or "protein" (matched lowercase).
-     * In these cases, return the string "conserved unknown protein" to ensure more homogeneity of the output results
+     * In these cases, return the string "conserved unknown protein" to ensure more homogeneity of the output results.
+     * The words are those of the {@link UnknownClassifier} of this object.
      * 
      * @param input the input string
      * @return the output string, which is either equal to the input, or the string "conserved unknown protein" if the input refers to a generic description
      */
     public String convertHypothetical(String input)
     {
-        String lowercaseinput = input.toLowerCase().trim();
-        if (lowercaseinput.contains("hypothetical protein") || lowercaseinput.equals("protein")
-                || lowercaseinput.contains("predicted protein") || lowercaseinput.equals("unknown protein")
-                || lowercaseinput.equals("unnamed protein") || lowercaseinput.contains("conserved unknown protein")
-                || lowercaseinput.equals("family protein") || lowercaseinput.equals("unknown")
-                || lowercaseinput.equals("unnamed protein product"))
+        if (unknowns.isUnknown(input))
         {
-            return "conserved unknown protein";
+            return UnknownClassifier.UNKNOWN;
         }
         return input;
     }
 
     /**
-     * Add a line to this text mapping object, by unifying the hypothetical protein descriptions and keeping the mapping to this input string and its converted version.
+     * Split a line into the words of which substrings are made: each word keeps the delimiters that follow it, and delimiters at the start of the line form a word on their own.
      */
-    private void add(String line, String convertedline)
+    List<String> splitWords(String fullline)
     {
-    	if (unify_unknowns)
-        {
-            line = convertHypothetical(line);
-        }
-        if (!origmap.containsKey(convertedline))
+        List<String> tokens = new ArrayList<String>();
+        int length = fullline.length();
+        int start = 0;
+        for (int i = 1; i < length; i++)
         {
-            origmap.put(convertedline, line);
+            // a new word starts at every character that is not a delimiter, but follows one
+            if (!isIn(delimiters, fullline.charAt(i)) && isIn(delimiters, fullline.charAt(i - 1)))
+            {
+                tokens.add(fullline.substring(start, i));
+                start = i;
+            }
         }
-        else
+        if (length > 0)
         {
-            String newstring = chose(origmap.get(convertedline), line);
-            origmap.put(convertedline, newstring);
+            tokens.add(fullline.substring(start));
         }
+        return tokens;
     }
 
     /**
-     * Add the substrings of a specific line to the mapping.
-     * Various parameters deal with the preprocessing of the line, such as allowing the order of the words to switch or removing unwanted punctuation at the end.
+     * Return the substring made of the words start..end (exclusive) of a line.
+     * Various parameters deal with the preprocessing of the substring, such as allowing the order of the words to switch or removing unwanted punctuation at the end.
      */
-    private void addSubstrings(String fullline, boolean switchorder)
+    String getSubstring(List<String> tokens, int start, int end)
     {
-        Set<String> removals = wordDelimiters();
-        String splitstring = "";
-        for (String remove : removals)
+        StringBuilder words = new StringBuilder();
+        for (int j = start; j < end; j++)
         {
-            splitstring += remove;
+            words.append(tokens.get(j));
         }
-        StringTokenizer stok = new StringTokenizer(fullline, splitstring, true);
-        List<String> tokens = new ArrayList<String>();
-        String token = null;
-        while (stok.hasMoreTokens() || token != null)
+        String substring = words.toString();
+        if (removeEndPunctuation)
         {
-            if (token == null)
+            substring = substring.trim();
+            if (substring.isEmpty())
             {
-                token = stok.nextToken();
+                return substring;
             }
-            String word = token;
-            token = null;
-            boolean go = true;
-            while (stok.hasMoreTokens() && go)
-            {
-                token = stok.nextToken();
-                if (removals.contains(token))
-                {
-                    word += token;
-                    token = null;
-                }
-                else
-                {
-                    go = false;
-                }
-            }
-            tokens.add(word);
+        	substring = stripRemovalsAtEnd(substring);
         }
-        int totaltokens = tokens.size();
-        for (int ngram = 1; ngram <= totaltokens; ngram++)
+        if (sortTokensAlphabetically)
         {
-            for (int start = 0; start < totaltokens - ngram + 1; start++)
-            {
-                String substring = "";
-                for (int j = start; j < start + ngram; j++)
-                {
-                    substring += tokens.get(j);
-                }
-                if (removeEndPunctuation)
-                {
-                	substring = stripRemovalsAtEnd(substring.trim());
-                }
-                if (sortTokensAlphabetically)
-                {
-                	substring = getSortedSubstring(substring);
-                }
-                if (substring != null && !substring.isEmpty())
-                {
-                    convert(substring, false, switchorder);
-                }
-            }
+        	substring = getSortedSubstring(substring);
         }
+        return substring;
     }
-    
 }
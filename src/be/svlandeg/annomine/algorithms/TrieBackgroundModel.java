@@ -0,0 +1,227 @@
+package be.svlandeg.annomine.algorithms;
+
+import be.svlandeg.annomine.data.CountTrie;
+import be.svlandeg.annomine.data.Vocabulary;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A background model that keeps the exact counts of all n-grams in one {@link CountTrie} over the ids of a {@link Vocabulary}.
+ * It estimates probabilities exactly as the TokenizedLM of each size would.
+ *
+ * @author Sofie Van Landeghem
+ */
+public class TrieBackgroundModel extends BackgroundModel
+{
+
+    /* the number of nodes that are written or read at once, and the size of one written node: its parent, token and count, and its extension count */
+    private static final int BLOCK = 1 << 16;
+    private static final int NODE_BYTES = 3 * 4 + 8;
+
+    /* the counts of all sequences of token ids, which can start or end with the boundary token */
+    private CountTrie trie;
+
+    /**
+     * Create an empty background model for n-grams up to a certain size.
+     * A new TokenizedLM counts the boundary token once, which pruning its counts (as Overrepresentation did) removes again: only the count of 1 for the empty sequence remains.
+     *
+     * @param max_ngram the size of the largest n-grams
+     * @param vocabulary the vocabulary of the ids of the tokens
+     */
+    public TrieBackgroundModel(int max_ngram, Vocabulary vocabulary)
+    {
+        this(max_ngram, vocabulary, new CountTrie());
+        trie.setRoot(1, 0);
+    }
+
+    private TrieBackgroundModel(int max_ngram, Vocabulary vocabulary, CountTrie trie)
+    {
+        super(max_ngram, vocabulary);
+        this.trie = trie;
+    }
+
+    @Override
+    public void train(int[] tokens, int count)
+    {
+        if (count < 0)
+        {
+            throw new IllegalArgumentException("Counts must be non-negative. Found count=" + count);
+        }
+        if (count == 0)
+        {
+            return;
+        }
+        int[] sequence = withBoundaries(tokens);
+        int length = sequence.length;
+        for (int start = 1; start < length; start++)
+        {
+            trie.increment(sequence, start, Math.min(start + max_ngram, length), count);
+        }
+        int max = Math.min(max_ngram, length);
+        for (int end = 2; end <= max; end++)
+        {
+            trie.incrementSequence(sequence, 0, end, count);
+        }
+    }
+
+    @Override
+    public BackgroundModel newPart()
+    {
+        return new TrieBackgroundModel(max_ngram, vocabulary);
+    }
+
+    /**
+     * Add the counts of another model to this one, as if the descriptions that the other model was trained on had been trained on this one.
+     * This way, parts of the background data can be trained on separate models (for instance on separate threads), and added up afterwards.
+     *
+     * @param other the other model, with the same maximal size of n-grams, which is not changed
+     * @throws IllegalArgumentException when the other model is not a TrieBackgroundModel, or counts n-grams of another maximal size
+     */
+    @Override
+    public void add(BackgroundModel other)
+    {
+        if (!(other instanceof TrieBackgroundModel) || other.max_ngram != max_ngram)
+        {
+            throw new IllegalArgumentException("Can not add a " + other.getClass().getSimpleName() + " of " + other.max_ngram + "-grams to one of " + max_ngram + "-grams");
+        }
+        trie.add(((TrieBackgroundModel) other).trie);
+        // the count of 1 for the empty sequence, with which the other model started, is not part of its training
+        trie.setRoot(trie.getCount(0) - 1, trie.getExtensionCount(0));
+    }
+
+    @Override
+    public String getAccuracy()
+    {
+        return "exact background model: " + trie.size() + " sequences counted";
+    }
+
+    @Override
+    protected long count(int[] ids, int start, int end, Vocabulary tokenvocabulary)
+    {
+        return trie.getCount(trie.find(ids, start, end));
+    }
+
+    @Override
+    protected long extensionCount(int[] ids, int start, int end, Vocabulary tokenvocabulary)
+    {
+        return trie.getExtensionCount(trie.find(ids, start, end));
+    }
+
+    @Override
+    protected int numExtensions(int[] ids, int start, int end, Vocabulary tokenvocabulary)
+    {
+        return trie.getNumExtensions(trie.find(ids, start, end));
+    }
+
+    /**
+     * Write the counted tokens, and the nodes of the trie in their order: for each node, the node it extends,
+     * its token (as the index of the token in the written tokens, or the special token), its count and its extension count.
+     * The tokens are written as strings, and the nodes in blocks of a fixed size, so that they can be read back in bulk without a second copy of the trie.
+     */
+    @Override
+    protected void write(DataOutputStream out) throws IOException
+    {
+        int size = trie.size();
+
+        // the tokens are written in the order of the 1-grams, and the nodes refer to them by their index in that order
+        int[] indices = new int[vocabulary.size()];
+        Arrays.fill(indices, -1);
+        int nrtokens = 0;
+        for (int node = 1; node < size; node++)
+        {
+            int token = trie.getToken(node);
+            if (token >= 0 && indices[token] < 0)
+            {
+                indices[token] = nrtokens++;
+            }
+        }
+        String[] strings = new String[nrtokens];
+        for (int id = 0; id < indices.length; id++)
+        {
+            if (indices[id] >= 0)
+            {
+                strings[indices[id]] = vocabulary.getToken(id);
+            }
+        }
+        out.writeInt(nrtokens);
+        for (String token : strings)
+        {
+            writeString(out, token);
+        }
+        out.writeInt(size);
+        ByteBuffer bytes = ByteBuffer.allocate(BLOCK * NODE_BYTES);
+        for (int start = 0; start < size; start += BLOCK)
+        {
+            int end = Math.min(start + BLOCK, size);
+            bytes.clear();
+            for (int node = start; node < end; node++)
+            {
+                int token = node == 0 ? 0 : trie.getToken(node);
+                bytes.putInt(trie.getParent(node));
+                bytes.putInt(node > 0 && token >= 0 ? indices[token] : token);
+                bytes.putInt(trie.getCount(node));
+                bytes.putLong(trie.getExtensionCount(node));
+            }
+            out.write(bytes.array(), 0, bytes.position());
+        }
+    }
+
+    /**
+     * Read a model written by {@link #write(DataOutputStream)}, adding its tokens to a vocabulary.
+     */
+    static TrieBackgroundModel read(DataInputStream in, int max_ngram, Vocabulary vocabulary) throws IOException
+    {
+        int[] ids = new int[in.readInt()];
+        for (int index = 0; index < ids.length; index++)
+        {
+            ids[index] = vocabulary.getId(readString(in));
+        }
+        int size = in.readInt();
+        if (size < 1)
+        {
+            throw new IOException("The background model has an invalid number of nodes: " + size);
+        }
+        CountTrie trie = new CountTrie(size);
+        byte[] bytes = new byte[BLOCK * NODE_BYTES];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        for (int start = 0; start < size; start += BLOCK)
+        {
+            int end = Math.min(start + BLOCK, size);
+            in.readFully(bytes, 0, (end - start) * NODE_BYTES);
+            buffer.clear();
+            for (int node = start; node < end; node++)
+            {
+                int parent = buffer.getInt();
+                int token = buffer.getInt();
+                int count = buffer.getInt();
+                long extensioncount = buffer.getLong();
+                if (node == 0)
+                {
+                    trie.setRoot(count, extensioncount);
+                    continue;
+                }
+                if (token >= 0)
+                {
+                    if (token >= ids.length)
+                    {
+                        throw new IOException("The background model refers to token " + token + " of " + ids.length);
+                    }
+                    token = ids[token];
+                }
+                try
+                {
+                    trie.addNode(parent, token, count, extensioncount);
+                }
+                catch (IllegalArgumentException e)
+                {
+                    throw new IOException("The background model contains an invalid node: " + e.getMessage());
+                }
+            }
+        }
+        return new TrieBackgroundModel(max_ngram, vocabulary, trie);
+    }
+}
@@ -0,0 +1,218 @@
+package be.svlandeg.annomine.algorithms;
+
+import be.svlandeg.annomine.io.Preprocess;
+import be.svlandeg.annomine.io.WordMatcher;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides whether a description refers to an unknown protein, such as 'hypothetical protein' or 'unnamed protein product'.
+ * A description is unknown when it contains one of a list of phrases, or when it equals one of a list of names (both matched lower-case, after trimming).
+ * Both lists are compiled into one {@link WordMatcher}: the names are matched between two marker characters that surround the description,
+ * so that one pass over a description decides on all phrases and names. A classifier is never changed, so it can be shared between threads.
+ *
+ * @author Sofie Van Landeghem
+ */
+public class UnknownClassifier
+{
+
+	/** the description that replaces all unknown proteins */
+	public static final String UNKNOWN = "conserved unknown protein";
+
+	/* the characters that mark the start and end of a description, so that a name only matches a complete description */
+	private static final char START = '\u0002';
+	private static final char END = '\u0003';
+
+	protected List<String> phrases;
+	protected List<String> names;
+
+	/* finds the phrases anywhere, and the names between the markers */
+	private WordMatcher matcher;
+
+	/* finds the phrases and the names anywhere, to know whether a part of a description can be unknown */
+	private WordMatcher parts;
+
+	/**
+	 * Compile the phrases and names of unknown proteins. They are lower-cased and trimmed, and empty ones are ignored.
+	 *
+	 * @param phrases the phrases that make a description unknown wherever they occur in it
+	 * @param names the names that make a description unknown when it is equal to them
+	 */
+	public UnknownClassifier(List<String> phrases, List<String> names)
+	{
+		this.phrases = normalize(phrases);
+		this.names = normalize(names);
+		List<String> words = new ArrayList<String>(this.phrases);
+		for (String name : this.names)
+		{
+			words.add(START + name + END);
+		}
+		matcher = new WordMatcher(words);
+		List<String> all = new ArrayList<String>(this.phrases);
+		all.addAll(this.names);
+		parts = new WordMatcher(all);
+	}
+
+	/**
+	 * Create a classifier with the default phrases and names of unknown proteins.
+	 *
+	 * @return the default classifier
+	 */
+	public static UnknownClassifier getDefault()
+	{
+		List<String> phrases = new ArrayList<String>();
+		phrases.add("hypothetical protein");
+		phrases.add("predicted protein");
+		phrases.add("conserved unknown protein");
+
+		List<String> names = new ArrayList<String>();
+		names.add("protein");
+		names.add("unknown protein");
+		names.add("unnamed protein");
+		names.add("family protein");
+		names.add("unknown");
+		names.add("unnamed protein product");
+		return new UnknownClassifier(phrases, names);
+	}
+
+	/**
+	 * Read the phrases and names of unknown proteins from a file.
+	 * The file contains one phrase or name per line, following a line '[contains]' for the phrases that can occur anywhere in a description,
+	 * or a line '[equals]' for the names that should equal the whole description. Empty lines, and lines starting with '#', are skipped.
+	 *
+	 * @param file the file with the phrases and names
+	 * @return the classifier for these phrases and names
+	 * @throws IOException when the file could not be read
+	 */
+	public static UnknownClassifier read(File file) throws IOException
+	{
+		List<String> phrases = new ArrayList<String>();
+		List<String> names = new ArrayList<String>();
+		List<String> current = null;
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try
+		{
+			String line = reader.readLine();
+			while (line != null)
+			{
+				if (line.trim().equalsIgnoreCase("[contains]"))
+				{
+					current = phrases;
+				}
+				else if (line.trim().equalsIgnoreCase("[equals]"))
+				{
+					current = names;
+				}
+				else if (line.length() > 0 && !line.startsWith("#"))
+				{
+					if (current == null)
+					{
+						throw new IOException("  ! " + file.getName() + " should contain a line [contains] or [equals] before the first phrase");
+					}
+					current.add(line);
+				}
+				line = reader.readLine();
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		return new UnknownClassifier(phrases, names);
+	}
+
+	/**
+	 * Check whether a description refers to an unknown protein.
+	 *
+	 * @param description the description
+	 * @return whether the description contains one of the phrases, or equals one of the names
+	 */
+	public boolean isUnknown(String description)
+	{
+		return matcher.contains(lowerCase(description, true));
+	}
+
+	/**
+	 * Check whether a part of a description (a sequence of its characters) can refer to an unknown protein.
+	 * When this returns false, {@link #isUnknown(String)} is false for every part of the description, so the parts do not need to be checked one by one.
+	 *
+	 * @param description the description
+	 * @return whether any of the phrases or names occurs somewhere in the description
+	 */
+	public boolean mayContainUnknown(String description)
+	{
+		return parts.contains(lowerCase(description, false));
+	}
+
+	/**
+	 * Return a textual representation of the phrases and names of this classifier.
+	 *
+	 * @return the settings of this classifier
+	 */
+	public String getSettings()
+	{
+		return "unknownphrases=" + phrases + ";unknownnames=" + names;
+	}
+
+	/**
+	 * Lower-case and trim a description as String.toLowerCase().trim() does, and surround it with the markers if needed.
+	 * Descriptions of ASCII characters are converted character by character.
+	 */
+	private static String lowerCase(String description, boolean markers)
+	{
+		int start = 0;
+		int end = description.length();
+		while (start < end && description.charAt(start) <= ' ')
+		{
+			start++;
+		}
+		while (end > start && description.charAt(end - 1) <= ' ')
+		{
+			end--;
+		}
+		StringBuilder lowercase = new StringBuilder(end - start + 2);
+		if (markers)
+		{
+			lowercase.append(START);
+		}
+		if (Stemmer.isPlainAscii(description, start, end))
+		{
+			for (int i = start; i < end; i++)
+			{
+				lowercase.append(Stemmer.toLowerCase(description.charAt(i)));
+			}
+		}
+		else
+		{
+			lowercase.append(description.toLowerCase().trim());
+		}
+		if (markers)
+		{
+			lowercase.append(END);
+		}
+		return lowercase.toString();
+	}
+
+	/**
+	 * Lower-case and trim a list of phrases, without empty ones. Hyphens and plus signs are written as in preprocessed descriptions (see {@link Preprocess#convertToMeta(String)}).
+	 */
+	private static List<String> normalize(List<String> phrases)
+	{
+		List<String> normalized = new ArrayList<String>();
+		Preprocess pp = new Preprocess();
+		for (String phrase : phrases)
+		{
+			String lowercase = pp.convertToMeta(phrase.toLowerCase().trim());
+			if (lowercase.length() > 0 && !normalized.contains(lowercase))
+			{
+				normalized.add(lowercase);
+			}
+		}
+		return normalized;
+	}
+}
@@ -0,0 +1,444 @@
+package be.svlandeg.annomine.data;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A map from strings to strings that uses little memory and creates no objects per entry.
+ * Each entry is stored as one record in a shared byte array (the arena): the key followed by the value, each as its length and its chars,
+ * with one byte for every ASCII char. The table itself only holds 64-bit hashes of the keys and the offsets of their records (open addressing),
+ * and two keys with the same hash are told apart by comparing them with the arena.
+ * Null keys and values are not supported, and entries can not be removed (only the whole map can be cleared).
+ * This class is not thread-safe.
+ *
+ * @author Sofie Van Landeghem
+ */
+public class CompactStringMap extends AbstractMap<String, String>
+{
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    /* the hashes of the keys, and the offsets of their records in the arena plus 1 (0 marks an empty slot) */
+    private long[] hashes;
+    private int[] records;
+
+    private byte[] arena;
+    private int arenasize;
+
+    /* the number of bytes in the arena that belong to records of which the value was replaced */
+    private int wasted;
+
+    private int size;
+    private int threshold;
+
+    /* the position in the arena after the last string that was read or compared */
+    private int position;
+
+    /**
+     * Create an empty map.
+     */
+    public CompactStringMap()
+    {
+        this(16);
+    }
+
+    /**
+     * Create an empty map, with room for a certain number of entries before the table needs to grow.
+     *
+     * @param capacity the expected number of entries
+     */
+    public CompactStringMap(int capacity)
+    {
+        int slots = 16;
+        while (slots * LOAD_FACTOR < capacity)
+        {
+            slots *= 2;
+        }
+        allocate(slots);
+        arena = new byte[Math.max(256, capacity * 32)];
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return key instanceof String && find((String) key, hash((String) key)) >= 0;
+    }
+
+    @Override
+    public String get(Object key)
+    {
+        if (!(key instanceof String))
+        {
+            return null;
+        }
+        int slot = find((String) key, hash((String) key));
+        if (slot < 0)
+        {
+            return null;
+        }
+        // find() leaves the position right after the key, at the start of the value
+        return read(position);
+    }
+
+    @Override
+    public String put(String key, String value)
+    {
+        if (key == null || value == null)
+        {
+            throw new NullPointerException("CompactStringMap does not support null keys or values");
+        }
+        long h = hash(key);
+        int slot = find(key, h);
+        if (slot >= 0)
+        {
+            String previous = read(position);
+            if (!previous.equals(value))
+            {
+                // the record is replaced as a whole, the old one is reclaimed when the table grows
+                wasted += position - (records[slot] - 1);
+                records[slot] = write(key, value) + 1;
+            }
+            return previous;
+        }
+        if (size >= threshold)
+        {
+            // the free slot moves when the table grows
+            rehash(hashes.length * 2);
+            slot = find(key, h);
+        }
+        slot = -slot - 1;
+        hashes[slot] = h;
+        records[slot] = write(key, value) + 1;
+        size++;
+        return null;
+    }
+
+    @Override
+    public void clear()
+    {
+        allocate(16);
+        arena = new byte[256];
+        arenasize = 0;
+        wasted = 0;
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet()
+    {
+        return new AbstractSet<Map.Entry<String, String>>()
+        {
+            @Override
+            public int size()
+            {
+                return size;
+            }
+
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator()
+            {
+                return new EntryIterator();
+            }
+        };
+    }
+
+    /**
+     * Return the number of bytes used by the keys and values of this map, including those of replaced values that are not yet reclaimed.
+     *
+     * @return the size of the arena
+     */
+    public int getArenaSize()
+    {
+        return arenasize;
+    }
+
+    /**
+     * Calculate the 64-bit hash of a string (FNV-1a over its chars, followed by a final mix).
+     */
+    private static long hash(String s)
+    {
+        long h = 0xcbf29ce484222325L;
+        int length = s.length();
+        for (int i = 0; i < length; i++)
+        {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= (h >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= (h >>> 33);
+        return h;
+    }
+
+    /**
+     * Find the slot of a key: its index when it is in the table, or -(index of the free slot where it belongs) - 1 when it is not.
+     * When the key is found, the position is set to the start of its value.
+     */
+    private int find(String key, long h)
+    {
+        int mask = hashes.length - 1;
+        int slot = (int) (h ^ (h >>> 32)) & mask;
+        while (records[slot] != 0)
+        {
+            if (hashes[slot] == h && matches(records[slot] - 1, key))
+            {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -slot - 1;
+    }
+
+    /**
+     * Check whether the string stored at a certain offset in the arena equals a given string, and set the position to the end of the stored string.
+     */
+    private boolean matches(int offset, String s)
+    {
+        int length = readLength(offset);
+        int p = position;
+        if (length != s.length())
+        {
+            return false;
+        }
+        for (int i = 0; i < length; i++)
+        {
+            int c = arena[p++];
+            if (c < 0)
+            {
+                c = ((c & 0x7f) << 9) | ((arena[p++] & 0xff) << 1) | ((arena[p++] >> 7) & 1);
+            }
+            if (c != s.charAt(i))
+            {
+                return false;
+            }
+        }
+        position = p;
+        return true;
+    }
+
+    /**
+     * Read the string stored at a certain offset in the arena, and set the position to the end of it.
+     */
+    private String read(int offset)
+    {
+        int length = readLength(offset);
+        int p = position;
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++)
+        {
+            int c = arena[p++];
+            if (c < 0)
+            {
+                c = ((c & 0x7f) << 9) | ((arena[p++] & 0xff) << 1) | ((arena[p++] >> 7) & 1);
+            }
+            chars[i] = (char) c;
+        }
+        position = p;
+        return new String(chars);
+    }
+
+    /**
+     * Read the length of the string stored at a certain offset (7 bits per byte, the last byte is the one with the high bit cleared),
+     * and set the position to its first char.
+     */
+    private int readLength(int offset)
+    {
+        int p = offset;
+        int length = 0;
+        byte b;
+        do
+        {
+            b = arena[p++];
+            length = (length << 7) | (b & 0x7f);
+        }
+        while (b < 0);
+        position = p;
+        return length;
+    }
+
+    /**
+     * Append a record with a key and its value to the arena, and return its offset.
+     */
+    private int write(String key, String value)
+    {
+        int needed = 10 + 3 * (key.length() + value.length());
+        if (arenasize + needed > arena.length)
+        {
+            arena = Arrays.copyOf(arena, Math.max(arena.length + (arena.length >> 1), arenasize + needed));
+        }
+        int offset = arenasize;
+        writeString(key);
+        writeString(value);
+        return offset;
+    }
+
+    /**
+     * Append one string to the arena: its length, followed by its chars.
+     * An ASCII char takes one byte, any other char takes three bytes, of which the first has the high bit set.
+     */
+    private void writeString(String s)
+    {
+        int length = s.length();
+        int shift = 28;
+        while (shift > 0 && (length >>> shift) == 0)
+        {
+            shift -= 7;
+        }
+        for (; shift > 0; shift -= 7)
+        {
+            arena[arenasize++] = (byte) (0x80 | ((length >>> shift) & 0x7f));
+        }
+        arena[arenasize++] = (byte) (length & 0x7f);
+        for (int i = 0; i < length; i++)
+        {
+            char c = s.charAt(i);
+            if (c < 0x80)
+            {
+                arena[arenasize++] = (byte) c;
+            }
+            else
+            {
+                // the 16 bits of the char are spread over 7 + 8 + 1 bits, with a marker bit in front
+                arena[arenasize++] = (byte) (0x80 | (c >>> 9));
+                arena[arenasize++] = (byte) (c >>> 1);
+                arena[arenasize++] = (byte) ((c & 1) << 7);
+            }
+        }
+    }
+
+    /**
+     * Create an empty table with a certain number of slots (a power of 2).
+     */
+    private void allocate(int slots)
+    {
+        hashes = new long[slots];
+        records = new int[slots];
+        size = 0;
+        threshold = (int) (slots * LOAD_FACTOR);
+    }
+
+    /**
+     * Move all entries to a table with a certain number of slots. When many values were replaced, the arena is compacted at the same time.
+     */
+    private void rehash(int slots)
+    {
+        long[] oldhashes = hashes;
+        int[] oldrecords = records;
+        byte[] oldarena = arena;
+        boolean compact = wasted > arenasize / 4;
+        int entries = size;
+        allocate(slots);
+        if (compact)
+        {
+            arena = new byte[Math.max(256, arenasize - wasted)];
+            arenasize = 0;
+            wasted = 0;
+        }
+        int mask = slots - 1;
+        for (int i = 0; i < oldrecords.length; i++)
+        {
+            if (oldrecords[i] != 0)
+            {
+                long h = oldhashes[i];
+                int slot = (int) (h ^ (h >>> 32)) & mask;
+                while (records[slot] != 0)
+                {
+                    slot = (slot + 1) & mask;
+                }
+                hashes[slot] = h;
+                if (compact)
+                {
+                    records[slot] = copy(oldarena, oldrecords[i] - 1) + 1;
+                }
+                else
+                {
+                    records[slot] = oldrecords[i];
+                }
+            }
+        }
+        size = entries;
+    }
+
+    /**
+     * Append a record stored in another arena to this arena, and return its new offset.
+     */
+    private int copy(byte[] from, int offset)
+    {
+        int end = skip(from, skip(from, offset));
+        System.arraycopy(from, offset, arena, arenasize, end - offset);
+        int newoffset = arenasize;
+        arenasize += end - offset;
+        return newoffset;
+    }
+
+    /**
+     * Return the offset right after the string stored at a certain offset in an arena.
+     */
+    private static int skip(byte[] from, int offset)
+    {
+        int p = offset;
+        int length = 0;
+        byte b;
+        do
+        {
+            b = from[p++];
+            length = (length << 7) | (b & 0x7f);
+        }
+        while (b < 0);
+        for (int i = 0; i < length; i++)
+        {
+            p += from[p] < 0 ? 3 : 1;
+        }
+        return p;
+    }
+
+    /**
+     * Iterates over the entries in the order of the table. Entries are read from the arena when they are returned, and can not be changed or removed.
+     */
+    private class EntryIterator implements Iterator<Map.Entry<String, String>>
+    {
+        private int next = advance(0);
+
+        private int advance(int slot)
+        {
+            while (slot < records.length && records[slot] == 0)
+            {
+                slot++;
+            }
+            return slot;
+        }
+
+        public boolean hasNext()
+        {
+            return next < records.length;
+        }
+
+        public Map.Entry<String, String> next()
+        {
+            if (next >= records.length)
+            {
+                throw new NoSuchElementException();
+            }
+            int slot = next;
+            next = advance(slot + 1);
+            String key = read(records[slot] - 1);
+            String value = read(position);
+            return new SimpleImmutableEntry<String, String>(key, value);
+        }
+
+        public void remove()
+        {
+            throw new UnsupportedOperationException("CompactStringMap does not support removing entries");
+        }
+    }
+}
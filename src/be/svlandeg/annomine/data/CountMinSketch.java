@@ -0,0 +1,215 @@
+package be.svlandeg.annomine.data;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A count-min sketch: approximate counts of 64-bit keys in a fixed number of int cells, arranged in rows of equal width.
+ * A key is counted in one cell of each row, and its estimate is the smallest of these cells. An estimate is never below the true count,
+ * and with probability 1 - delta it exceeds the true count by at most epsilon times the total count, with epsilon = e / width and delta = e^-depth.
+ * The keys should already be well mixed (such as the result of a good 64-bit hash function). This class is not thread-safe.
+ *
+ * @author Sofie Van Landeghem
+ */
+public class CountMinSketch
+{
+
+    /* the number of cells that are written or read at once */
+    private static final int BLOCK = 1 << 16;
+
+    private int width;
+    private int depth;
+
+    /* the cells of all rows, one row after the other; a cell never overflows, but stays at the maximal int */
+    private int[] cells;
+
+    /* the sum of all counts that were added */
+    private long total;
+
+    /**
+     * Create an empty sketch.
+     *
+     * @param width the number of cells per row
+     * @param depth the number of rows
+     * @throws IllegalArgumentException when the width or depth is not positive, or the sketch would be too large
+     */
+    public CountMinSketch(int width, int depth)
+    {
+        if (width < 1 || depth < 1 || (long) width * depth > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("Can not create a count-min sketch of " + depth + " x " + width + " cells");
+        }
+        this.width = width;
+        this.depth = depth;
+        cells = new int[width * depth];
+    }
+
+    /**
+     * Add a count to a key.
+     *
+     * @param key the key
+     * @param count the count, which should not be negative
+     */
+    public void add(long key, long count)
+    {
+        total += count;
+        for (int row = 0; row < depth; row++)
+        {
+            int cell = cell(key, row);
+            cells[cell] = (int) Math.min(Integer.MAX_VALUE, cells[cell] + count);
+        }
+    }
+
+    /**
+     * Estimate the count of a key.
+     *
+     * @param key the key
+     * @return the estimate, which is at least the count of the key
+     */
+    public long estimate(long key)
+    {
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < depth && estimate > 0; row++)
+        {
+            estimate = Math.min(estimate, cells[cell(key, row)]);
+        }
+        return estimate;
+    }
+
+    /**
+     * Return the sum of all counts that were added.
+     *
+     * @return the total count
+     */
+    public long getTotalCount()
+    {
+        return total;
+    }
+
+    /**
+     * Return the number of cells per row.
+     *
+     * @return the width of the sketch
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * Return the number of rows.
+     *
+     * @return the depth of the sketch
+     */
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    /**
+     * Return the factor of the total count by which an estimate can exceed the true count (with probability 1 - {@link #getDelta()}): e / width.
+     *
+     * @return the relative error epsilon
+     */
+    public double getEpsilon()
+    {
+        return Math.E / width;
+    }
+
+    /**
+     * Return the probability that an estimate exceeds the true count by more than epsilon times the total count: e^-depth.
+     *
+     * @return the probability delta
+     */
+    public double getDelta()
+    {
+        return Math.exp(-depth);
+    }
+
+    /**
+     * Return the amount by which an estimate can exceed the true count (with probability 1 - {@link #getDelta()}): epsilon times the total count.
+     *
+     * @return the absolute error bound
+     */
+    public long getErrorBound()
+    {
+        return (long) Math.ceil(getEpsilon() * total);
+    }
+
+    /**
+     * Return the memory taken by the cells of a sketch.
+     *
+     * @param width the number of cells per row
+     * @param depth the number of rows
+     * @return the size of the cells in bytes
+     */
+    public static long getMemory(int width, int depth)
+    {
+        return 4L * width * depth;
+    }
+
+    /**
+     * Write this sketch, with its cells as blocks of ints.
+     *
+     * @param out the output
+     * @throws IOException when the sketch could not be written
+     */
+    public void write(DataOutputStream out) throws IOException
+    {
+        out.writeInt(width);
+        out.writeInt(depth);
+        out.writeLong(total);
+        // the cells can be more than one buffer holds, so they are written in blocks
+        ByteBuffer bytes = ByteBuffer.allocate(BLOCK * 4);
+        for (int start = 0; start < cells.length; start += BLOCK)
+        {
+            int length = Math.min(BLOCK, cells.length - start);
+            bytes.clear();
+            bytes.asIntBuffer().put(cells, start, length);
+            out.write(bytes.array(), 0, length * 4);
+        }
+    }
+
+    /**
+     * Read a sketch written by {@link #write(DataOutputStream)}.
+     *
+     * @param in the input
+     * @return the sketch
+     * @throws IOException when the sketch could not be read
+     */
+    public static CountMinSketch read(DataInputStream in) throws IOException
+    {
+        int width = in.readInt();
+        int depth = in.readInt();
+        CountMinSketch sketch;
+        try
+        {
+            sketch = new CountMinSketch(width, depth);
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new IOException(e.getMessage());
+        }
+        sketch.total = in.readLong();
+        byte[] bytes = new byte[BLOCK * 4];
+        for (int start = 0; start < sketch.cells.length; start += BLOCK)
+        {
+            int length = Math.min(BLOCK, sketch.cells.length - start);
+            in.readFully(bytes, 0, length * 4);
+            ByteBuffer.wrap(bytes).asIntBuffer().get(sketch.cells, start, length);
+        }
+        return sketch;
+    }
+
+    /**
+     * Return the cell of a key in a row. The rows use different combinations of the two halves of the key (double hashing),
+     * and a combination is mapped onto the width by multiplication instead of a modulo.
+     */
+    private int cell(long key, int row)
+    {
+        int hash = (int) key + row * ((int) (key >>> 32) | 1);
+        return row * width + (int) (((hash & 0xFFFFFFFFL) * width) >>> 32);
+    }
+}
@@ -0,0 +1,347 @@
+package be.svlandeg.annomine.data;
+
+import java.util.Arrays;
+
+/**
+ * A trie that counts sequences of token ids, and answers count queries for sequences of any length from the same nodes.
+ * The nodes are numbered in the order in which they are created (the root, the empty sequence, is node 0), and their data is kept in primitive arrays:
+ * the node a node extends, its last token, its count, the sum of the counts of the nodes that extend it (its extension count), and how many nodes extend it.
+ * The node that extends a node with a token is found in a table of primitive keys (open addressing), so the trie creates no objects per node.
+ * Tokens can be any int, including negative ones for special tokens. This class is not thread-safe.
+ *
+ * @author Sofie Van Landeghem
+ */
+public class CountTrie
+{
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    /* for each node: the node it extends (-1 for the root), its last token, its count, its extension count and its number of extensions */
+    private int[] parents;
+    private int[] tokens;
+    private int[] counts;
+    private long[] extensioncounts;
+    private int[] extensions;
+    private int nodes;
+
+    /* the nodes by the node they extend and their last token, packed into one key, and the nodes plus 1 (0 marks an empty slot) */
+    private long[] keys;
+    private int[] slots;
+    private int threshold;
+
+    /**
+     * Create a trie that only contains the root, with count 0.
+     */
+    public CountTrie()
+    {
+        this(16);
+    }
+
+    /**
+     * Create a trie that only contains the root, with room for a certain number of nodes before its arrays need to grow.
+     *
+     * @param capacity the expected number of nodes
+     */
+    public CountTrie(int capacity)
+    {
+        capacity = Math.max(16, capacity);
+        parents = new int[capacity];
+        tokens = new int[capacity];
+        counts = new int[capacity];
+        extensioncounts = new long[capacity];
+        extensions = new int[capacity];
+        int size = 16;
+        while (size * LOAD_FACTOR < capacity)
+        {
+            size *= 2;
+        }
+        allocate(size);
+        parents[0] = -1;
+        nodes = 1;
+    }
+
+    /**
+     * Add a count to a sequence and to each of its prefixes, including the empty one.
+     * Each prefix that is followed by a token of the sequence also gets the count added to its extension count.
+     *
+     * @param sequence an array containing the sequence
+     * @param start the position of the first token of the sequence
+     * @param end the position after the last token of the sequence
+     * @param count the count to add
+     */
+    public void increment(int[] sequence, int start, int end, int count)
+    {
+        int node = 0;
+        counts[0] += count;
+        for (int i = start; i < end; i++)
+        {
+            extensioncounts[node] += count;
+            node = getOrAdd(node, sequence[i]);
+            counts[node] += count;
+        }
+    }
+
+    /**
+     * Add a count to a sequence only. The longest proper prefix of the sequence gets the count added to its extension count.
+     * Prefixes that do not exist yet are added with count 0.
+     *
+     * @param sequence an array containing the sequence
+     * @param start the position of the first token of the sequence
+     * @param end the position after the last token of the sequence
+     * @param count the count to add
+     */
+    public void incrementSequence(int[] sequence, int start, int end, int count)
+    {
+        int node = 0;
+        for (int i = start; i < end; i++)
+        {
+            if (i == end - 1)
+            {
+                extensioncounts[node] += count;
+            }
+            node = getOrAdd(node, sequence[i]);
+        }
+        counts[node] += count;
+    }
+
+    /**
+     * Find the node of a sequence.
+     *
+     * @param sequence an array containing the sequence
+     * @param start the position of the first token of the sequence
+     * @param end the position after the last token of the sequence
+     * @return the node, or -1 when the sequence was never counted
+     */
+    public int find(int[] sequence, int start, int end)
+    {
+        int node = 0;
+        for (int i = start; i < end && node >= 0; i++)
+        {
+            node = getChild(node, sequence[i]);
+        }
+        return node;
+    }
+
+    /**
+     * Find the node that extends a node with one token.
+     *
+     * @param node the node
+     * @param token the token
+     * @return the node that extends the given node with the token, or -1 when there is none
+     */
+    public int getChild(int node, int token)
+    {
+        long key = key(node, token);
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (slots[slot] != 0)
+        {
+            if (keys[slot] == key)
+            {
+                return slots[slot] - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Return the number of nodes, including the root.
+     *
+     * @return the number of nodes
+     */
+    public int size()
+    {
+        return nodes;
+    }
+
+    /**
+     * Return the node that a node extends with one token.
+     *
+     * @param node the node
+     * @return the parent node, which is always created before the node, or -1 for the root
+     */
+    public int getParent(int node)
+    {
+        return parents[node];
+    }
+
+    /**
+     * Return the token with which a node extends its parent.
+     *
+     * @param node the node (not the root)
+     * @return the last token of the sequence of the node
+     */
+    public int getToken(int node)
+    {
+        return tokens[node];
+    }
+
+    /**
+     * Return the count of a node.
+     *
+     * @param node the node, or -1 for a sequence that was never counted
+     * @return the count of the node (0 for -1)
+     */
+    public int getCount(int node)
+    {
+        return node < 0 ? 0 : counts[node];
+    }
+
+    /**
+     * Return the sum of the counts of the nodes that extend a node, as it was counted.
+     *
+     * @param node the node, or -1 for a sequence that was never counted
+     * @return the extension count of the node (0 for -1)
+     */
+    public long getExtensionCount(int node)
+    {
+        return node < 0 ? 0 : extensioncounts[node];
+    }
+
+    /**
+     * Return the number of nodes that extend a node with one token.
+     *
+     * @param node the node, or -1 for a sequence that was never counted
+     * @return the number of extensions of the node (0 for -1)
+     */
+    public int getNumExtensions(int node)
+    {
+        return node < 0 ? 0 : extensions[node];
+    }
+
+    /**
+     * Add a node at the end of this trie, with its data as returned by the getters. The node it extends should already be in this trie.
+     * This is used to copy a trie node by node, in the order of its nodes.
+     *
+     * @param parent the node that the new node extends
+     * @param token the token with which it extends that node
+     * @param count the count of the new node
+     * @param extensioncount the extension count of the new node
+     * @return the new node
+     * @throws IllegalArgumentException when the parent does not exist, or already has an extension with this token
+     */
+    public int addNode(int parent, int token, int count, long extensioncount)
+    {
+        if (parent < 0 || parent >= nodes || getChild(parent, token) >= 0)
+        {
+            throw new IllegalArgumentException("Can not add token " + token + " to node " + parent);
+        }
+        int node = getOrAdd(parent, token);
+        counts[node] = count;
+        extensioncounts[node] = extensioncount;
+        return node;
+    }
+
+    /**
+     * Set the count and extension count of the root, for instance when copying a trie.
+     *
+     * @param count the count of the root
+     * @param extensioncount the extension count of the root
+     */
+    public void setRoot(int count, long extensioncount)
+    {
+        counts[0] = count;
+        extensioncounts[0] = extensioncount;
+    }
+
+    /**
+     * Add the counts of another trie to this one, as if the sequences counted in the other trie had been counted in this one.
+     * The nodes of the other trie are visited in their order, so the node that a node extends is always added before the node itself.
+     *
+     * @param other the other trie, which is not changed
+     */
+    public void add(CountTrie other)
+    {
+        int[] added = new int[other.nodes];
+        counts[0] += other.counts[0];
+        extensioncounts[0] += other.extensioncounts[0];
+        for (int node = 1; node < other.nodes; node++)
+        {
+            int target = getOrAdd(added[other.parents[node]], other.tokens[node]);
+            counts[target] += other.counts[node];
+            extensioncounts[target] += other.extensioncounts[node];
+            added[node] = target;
+        }
+    }
+
+    /**
+     * Return the node that extends a node with a token, adding it with count 0 when it is new.
+     */
+    private int getOrAdd(int parent, int token)
+    {
+        long key = key(parent, token);
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (slots[slot] != 0)
+        {
+            if (keys[slot] == key)
+            {
+                return slots[slot] - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (nodes == counts.length)
+        {
+            int capacity = nodes * 2;
+            parents = Arrays.copyOf(parents, capacity);
+            tokens = Arrays.copyOf(tokens, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            extensioncounts = Arrays.copyOf(extensioncounts, capacity);
+            extensions = Arrays.copyOf(extensions, capacity);
+        }
+        int node = nodes++;
+        parents[node] = parent;
+        tokens[node] = token;
+        extensions[parent]++;
+        keys[slot] = key;
+        slots[slot] = node + 1;
+        if (nodes > threshold)
+        {
+            rehash(keys.length * 2);
+        }
+        return node;
+    }
+
+    private static long key(int node, int token)
+    {
+        return ((long) node << 32) | (token & 0xFFFFFFFFL);
+    }
+
+    private void allocate(int size)
+    {
+        keys = new long[size];
+        slots = new int[size];
+        threshold = (int) (size * LOAD_FACTOR);
+    }
+
+    private void rehash(int size)
+    {
+        long[] oldkeys = keys;
+        int[] oldslots = slots;
+        allocate(size);
+        int mask = size - 1;
+        for (int i = 0; i < oldkeys.length; i++)
+        {
+            if (oldslots[i] != 0)
+            {
+                int slot = mix(oldkeys[i]) & mask;
+                while (slots[slot] != 0)
+                {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldkeys[i];
+                slots[slot] = oldslots[i];
+            }
+        }
+    }
+
+    /**
+     * Spread the bits of a key over the slots of a table, of which the size is a power of 2.
+     */
+    private static int mix(long key)
+    {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 29));
+    }
+}
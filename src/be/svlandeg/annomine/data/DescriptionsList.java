@@ -1,5 +1,7 @@
 package be.svlandeg.annomine.data;
 
+import be.svlandeg.annomine.algorithms.MappingContext;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -16,6 +18,9 @@ public class DescriptionsList
     /** The name of this list */
     protected String name;
 
+    /** The mapping of the converted descriptions back to their original forms, or null when they were not converted */
+    protected MappingContext mapping;
+
     /**
      * Provide a name and a list of descriptions.
      * @param name the name of this batch	
@@ -54,6 +59,24 @@ public class DescriptionsList
         return descriptions;
     }
 
+    /**
+     * Define the mapping of the converted descriptions in this list back to their original forms.
+     * @param mapping the mapping context in which the descriptions were converted (can be null)
+     */
+    public void setMapping(MappingContext mapping)
+    {
+        this.mapping = mapping;
+    }
+
+    /**
+     * Return the mapping of the converted descriptions in this list back to their original forms.
+     * @return the mapping context in which the descriptions were converted, or null when they were not converted
+     */
+    public MappingContext getMapping()
+    {
+        return mapping;
+    }
+
     /**
      * Return the name of this list. This should not be used as unique identifier!
      * @return the name
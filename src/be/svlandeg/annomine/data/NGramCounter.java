@@ -0,0 +1,329 @@
+package be.svlandeg.annomine.data;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Counts all n-grams of a range of sizes in sequences of token ids, in one pass over each sequence.
+ * Each counted n-gram is a node that points to the (n-1)-gram it extends, so that an n-gram is found from its prefix with one lookup in a table of
+ * primitive keys (open addressing): the longest n-grams at a position are counted by extending the shorter ones, without ever building an array per n-gram.
+ * The tokens get local ids in the order in which they are first counted, which is also the order in which n-grams are returned (see {@link #getNGrams(int, int)}).
+ * This class is not thread-safe.
+ *
+ * @author Sofie Van Landeghem
+ */
+public class NGramCounter
+{
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    /* the size of the largest n-grams that are counted */
+    private int maxLength;
+
+    /* for each node: the node of its prefix (-1 for the 1-grams), the local id of its last token, its size and its count */
+    private int[] prefixes;
+    private int[] lasts;
+    private int[] lengths;
+    private int[] counts;
+    private int nodes;
+
+    /* the nodes by their prefix and last token, packed into one key, and the nodes plus 1 (0 marks an empty slot) */
+    private long[] keys;
+    private int[] slots;
+    private int threshold;
+
+    /* the local ids by token id (again with open addressing), and the token ids by local id */
+    private int[] tokenkeys;
+    private int[] localids;
+    private int[] tokens;
+    private int nrtokens;
+    private int tokenthreshold;
+
+    /* the sum of the counts of all positions, including the position after each sequence (as a language model counts its boundary) */
+    private int total;
+
+    /**
+     * Create an empty counter for n-grams up to a certain size.
+     *
+     * @param maxLength the size of the largest n-grams that are counted
+     */
+    public NGramCounter(int maxLength)
+    {
+        this.maxLength = maxLength;
+        prefixes = new int[256];
+        lasts = new int[256];
+        lengths = new int[256];
+        counts = new int[256];
+        allocate(512);
+        tokens = new int[64];
+        allocateTokens(128);
+    }
+
+    /**
+     * Count all n-grams of the sequence, from 1-grams up to the maximal size.
+     * The total count is increased with the count for each token, plus one more for the end of the sequence.
+     *
+     * @param sequence the token ids
+     * @param count the count of the sequence (for instance its weight)
+     * @throws IllegalArgumentException when the count is negative
+     */
+    public void increment(int[] sequence, int count)
+    {
+        if (count < 0)
+        {
+            throw new IllegalArgumentException("Counts must be non-negative. Found count=" + count);
+        }
+        if (count == 0)
+        {
+            return;
+        }
+        total += count * (sequence.length + 1);
+        for (int start = 0; start < sequence.length; start++)
+        {
+            int end = Math.min(sequence.length, start + maxLength);
+            int node = -1;
+            for (int i = start; i < end; i++)
+            {
+                node = getOrAddNode(node, getOrAddLocalId(sequence[i]));
+                counts[node] += count;
+            }
+        }
+    }
+
+    /**
+     * Return the sum of the counts of all positions in the counted sequences: the count of the empty n-gram.
+     *
+     * @return the total count
+     */
+    public int getTotalCount()
+    {
+        return total;
+    }
+
+    /**
+     * Return the n-grams of a certain size that were counted at least a minimal number of times.
+     * They are sorted by their tokens, where one token comes before another when it was counted first.
+     *
+     * @param length the size of the n-grams
+     * @param minCount the minimal count
+     * @return the n-grams, as node numbers for {@link #getCount(int)} and {@link #getTokens(int)}
+     */
+    public int[] getNGrams(int length, int minCount)
+    {
+        int[] result = new int[16];
+        int size = 0;
+        for (int node = 0; node < nodes; node++)
+        {
+            if (lengths[node] == length && counts[node] >= minCount)
+            {
+                if (size == result.length)
+                {
+                    result = Arrays.copyOf(result, size * 2);
+                }
+                result[size++] = node;
+            }
+        }
+        if (size < 2)
+        {
+            return Arrays.copyOf(result, size);
+        }
+        // the n-grams are sorted by the local ids of their tokens
+        final int[][] sequences = new int[size][];
+        Integer[] sorted = new Integer[size];
+        for (int n = 0; n < size; n++)
+        {
+            sorted[n] = n;
+            sequences[n] = getLocalIds(result[n]);
+        }
+        Arrays.sort(sorted, new Comparator<Integer>()
+        {
+            public int compare(Integer first, Integer second)
+            {
+                int[] s1 = sequences[first];
+                int[] s2 = sequences[second];
+                for (int i = 0; i < s1.length; i++)
+                {
+                    if (s1[i] != s2[i])
+                    {
+                        return s1[i] < s2[i] ? -1 : 1;
+                    }
+                }
+                return 0;
+            }
+        });
+        int[] nGrams = new int[size];
+        for (int n = 0; n < size; n++)
+        {
+            nGrams[n] = result[sorted[n]];
+        }
+        return nGrams;
+    }
+
+    /**
+     * Return the number of times an n-gram was counted.
+     *
+     * @param nGram the n-gram, as returned by {@link #getNGrams(int, int)}
+     * @return the count of the n-gram
+     */
+    public int getCount(int nGram)
+    {
+        return counts[nGram];
+    }
+
+    /**
+     * Return the token ids of an n-gram.
+     *
+     * @param nGram the n-gram, as returned by {@link #getNGrams(int, int)}
+     * @return the token ids of the n-gram, in order
+     */
+    public int[] getTokens(int nGram)
+    {
+        int[] ids = getLocalIds(nGram);
+        for (int i = 0; i < ids.length; i++)
+        {
+            ids[i] = tokens[ids[i]];
+        }
+        return ids;
+    }
+
+    /**
+     * Return the local ids of the tokens of an n-gram, by following its prefixes back to its 1-gram.
+     */
+    private int[] getLocalIds(int node)
+    {
+        int[] ids = new int[lengths[node]];
+        for (int i = ids.length - 1; i >= 0; i--)
+        {
+            ids[i] = lasts[node];
+            node = prefixes[node];
+        }
+        return ids;
+    }
+
+    /**
+     * Return the node that extends a prefix node with a token, adding it with count 0 when it is new.
+     */
+    private int getOrAddNode(int prefix, int localid)
+    {
+        long key = ((long) prefix << 32) | (localid & 0xFFFFFFFFL);
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (slots[slot] != 0)
+        {
+            if (keys[slot] == key)
+            {
+                return slots[slot] - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (nodes == counts.length)
+        {
+            int capacity = nodes * 2;
+            prefixes = Arrays.copyOf(prefixes, capacity);
+            lasts = Arrays.copyOf(lasts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+        int node = nodes++;
+        prefixes[node] = prefix;
+        lasts[node] = localid;
+        lengths[node] = prefix < 0 ? 1 : lengths[prefix] + 1;
+        keys[slot] = key;
+        slots[slot] = node + 1;
+        if (nodes > threshold)
+        {
+            rehash(keys.length * 2);
+        }
+        return node;
+    }
+
+    /**
+     * Return the local id of a token, giving it the next one when it is new.
+     */
+    private int getOrAddLocalId(int token)
+    {
+        int mask = tokenkeys.length - 1;
+        int slot = mix(token) & mask;
+        while (localids[slot] != 0)
+        {
+            if (tokenkeys[slot] == token)
+            {
+                return localids[slot] - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (nrtokens == tokens.length)
+        {
+            tokens = Arrays.copyOf(tokens, nrtokens * 2);
+        }
+        int localid = nrtokens++;
+        tokens[localid] = token;
+        tokenkeys[slot] = token;
+        localids[slot] = localid + 1;
+        if (nrtokens > tokenthreshold)
+        {
+            int[] oldkeys = tokenkeys;
+            int[] oldids = localids;
+            allocateTokens(tokenkeys.length * 2);
+            int newmask = tokenkeys.length - 1;
+            for (int i = 0; i < oldkeys.length; i++)
+            {
+                if (oldids[i] != 0)
+                {
+                    int s = mix(oldkeys[i]) & newmask;
+                    while (localids[s] != 0)
+                    {
+                        s = (s + 1) & newmask;
+                    }
+                    tokenkeys[s] = oldkeys[i];
+                    localids[s] = oldids[i];
+                }
+            }
+        }
+        return localid;
+    }
+
+    private void allocate(int size)
+    {
+        keys = new long[size];
+        slots = new int[size];
+        threshold = (int) (size * LOAD_FACTOR);
+    }
+
+    private void allocateTokens(int size)
+    {
+        tokenkeys = new int[size];
+        localids = new int[size];
+        tokenthreshold = (int) (size * LOAD_FACTOR);
+    }
+
+    private void rehash(int size)
+    {
+        long[] oldkeys = keys;
+        int[] oldslots = slots;
+        allocate(size);
+        int mask = size - 1;
+        for (int i = 0; i < oldkeys.length; i++)
+        {
+            if (oldslots[i] != 0)
+            {
+                int slot = mix(oldkeys[i]) & mask;
+                while (slots[slot] != 0)
+                {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldkeys[i];
+                slots[slot] = oldslots[i];
+            }
+        }
+    }
+
+    /**
+     * Spread the bits of a key over the slots of a table, of which the size is a power of 2.
+     */
+    private static int mix(long key)
+    {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 29));
+    }
+}
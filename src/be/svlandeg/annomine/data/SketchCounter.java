@@ -0,0 +1,383 @@
+package be.svlandeg.annomine.data;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Counts 64-bit keys within a fixed memory budget: the most frequent keys (the heavy hitters) are counted exactly in a table, and all other counts go to a {@link CountMinSketch}.
+ * Up to half of the budget goes to the table (with open addressing), the rest to the sketch. The table starts small and doubles while it fits in its half,
+ * so that a budget that is larger than the counts only takes the memory the counts need. When the table can not grow any further and is full,
+ * the half of its keys with the smallest counts are moved to the sketch, which is only created then, and their keys can enter the table again later.
+ * The estimate of a key is its count in the table plus its estimate in the sketch,
+ * so it is never below the true count, and it only exceeds it by the error of the sketch (see {@link #getSketch()}).
+ * The keys should already be well mixed (such as the result of a good 64-bit hash function). This class is not thread-safe.
+ *
+ * @author Sofie Van Landeghem
+ */
+public class SketchCounter
+{
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    /* the number of slots of a new table */
+    private static final int MIN_SLOTS = 1024;
+
+    /* the number of longs that are written or read at once */
+    private static final int BLOCK = 1 << 16;
+
+    /** the number of rows of the sketch: an estimate exceeds its error bound with a probability of e^-5, less than 1% */
+    public static final int DEPTH = 5;
+
+    /* the keys in the table (0 marks an empty slot), and their counts */
+    private long[] keys;
+    private long[] counts;
+    private int size;
+    private int capacity;
+
+    /* the number of slots the table can grow to, and the width of the sketch, within the budget */
+    private int max_slots;
+    private int width;
+
+    /* the counts of the keys that are not in the table, or null as long as no key had to be moved out of the table */
+    private CountMinSketch sketch;
+
+    /**
+     * Create an empty counter that takes (about) a certain amount of memory at most.
+     *
+     * @param memory the memory budget in bytes
+     * @throws IllegalArgumentException when the budget is too small to hold a table and a sketch, or too large for the Java heap (see {@link #checkMemory(long)})
+     */
+    public SketchCounter(long memory)
+    {
+        checkMemory(memory);
+        max_slots = maxSlots(memory);
+        width = width(memory, max_slots);
+        allocate(MIN_SLOTS);
+    }
+
+    private SketchCounter(long[] keys, long[] counts, CountMinSketch sketch, int max_slots, int width)
+    {
+        this.max_slots = max_slots;
+        this.width = width;
+        this.keys = keys;
+        this.counts = counts;
+        capacity = (int) (keys.length * LOAD_FACTOR);
+        for (long key : keys)
+        {
+            if (key != 0)
+            {
+                size++;
+            }
+        }
+        this.sketch = sketch;
+    }
+
+    /**
+     * Check whether a memory budget can hold a table and a sketch, and whether it fits in the Java heap next to the memory that is already in use.
+     *
+     * @param memory the memory budget in bytes
+     * @throws IllegalArgumentException when the budget is too small or too large
+     */
+    public static void checkMemory(long memory)
+    {
+        long minimum = MIN_SLOTS * 16 + CountMinSketch.getMemory(1024, DEPTH);
+        if (memory < minimum || width(memory, maxSlots(memory)) < 1024)
+        {
+            throw new IllegalArgumentException("Can not count within " + memory + " bytes: the memory should be at least " + minimum + " bytes");
+        }
+        Runtime runtime = Runtime.getRuntime();
+        long available = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        if (memory > available)
+        {
+            throw new IllegalArgumentException("Can not count within " + memory + " bytes: the memory should be at most " + available
+                    + " bytes, which the Java heap has left (the maximal heap size can be raised with the -Xmx option of java)");
+        }
+    }
+
+    /**
+     * Return the number of slots of the largest table that fits in half of a budget: each slot takes a key and a count.
+     */
+    private static int maxSlots(long memory)
+    {
+        long slots = MIN_SLOTS;
+        while (slots * 2 * 16 <= memory / 2 && slots < (1 << 30))
+        {
+            slots *= 2;
+        }
+        return (int) slots;
+    }
+
+    /**
+     * Return the width of the sketch that fits in a budget next to the largest table.
+     */
+    private static int width(long memory, int slots)
+    {
+        return (int) Math.max(0, Math.min((memory - slots * 16L) / CountMinSketch.getMemory(1, DEPTH), Integer.MAX_VALUE / DEPTH));
+    }
+
+    /**
+     * Add a count to a key.
+     *
+     * @param key the key
+     * @param count the count, which should not be negative
+     */
+    public void add(long key, long count)
+    {
+        if (key == 0)
+        {
+            key = 1;
+        }
+        int mask = keys.length - 1;
+        int slot = slot(key, mask);
+        while (keys[slot] != 0)
+        {
+            if (keys[slot] == key)
+            {
+                counts[slot] += count;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size == capacity)
+        {
+            if (keys.length < max_slots)
+            {
+                grow();
+            }
+            else
+            {
+                evict();
+            }
+            add(key, count);
+            return;
+        }
+        keys[slot] = key;
+        counts[slot] = count;
+        size++;
+    }
+
+    /**
+     * Estimate the count of a key: its count in the table, plus its estimate in the sketch.
+     *
+     * @param key the key
+     * @return the estimate, which is at least the count of the key
+     */
+    public long estimate(long key)
+    {
+        if (key == 0)
+        {
+            key = 1;
+        }
+        long estimate = sketch == null || sketch.getTotalCount() == 0 ? 0 : sketch.estimate(key);
+        int mask = keys.length - 1;
+        int slot = slot(key, mask);
+        while (keys[slot] != 0)
+        {
+            if (keys[slot] == key)
+            {
+                return estimate + counts[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return estimate;
+    }
+
+    /**
+     * Return the number of keys that are counted exactly, in the table.
+     *
+     * @return the number of keys in the table
+     */
+    public int getExactSize()
+    {
+        return size;
+    }
+
+    /**
+     * Return the sketch that holds the counts of the keys that are not in the table, and of which the error bounds are those of the estimates.
+     *
+     * @return the sketch, or null when all keys are in the table, and the estimates are exact
+     */
+    public CountMinSketch getSketch()
+    {
+        return sketch;
+    }
+
+    /**
+     * Move the keys with the smallest counts from the table to the sketch, at least half of them.
+     * The counts are grouped by their highest bit, and the groups are moved from the smallest counts up.
+     * The table is compacted in place, so that evicting takes no memory beyond the budget.
+     */
+    private void evict()
+    {
+        if (sketch == null)
+        {
+            sketch = new CountMinSketch(width, DEPTH);
+        }
+        int[] groups = new int[65];
+        for (int slot = 0; slot < keys.length; slot++)
+        {
+            if (keys[slot] != 0)
+            {
+                groups[64 - Long.numberOfLeadingZeros(counts[slot])]++;
+            }
+        }
+        int highest = 0;
+        int moved = groups[0];
+        while (moved < size / 2)
+        {
+            moved += groups[++highest];
+        }
+        // the table is at most half full, so it has an empty slot, and no run of keys wraps around from before it to after it:
+        // walking from that slot, every key that stays can be put back at or before its current slot, behind the keys that were put back before
+        int mask = keys.length - 1;
+        int empty = 0;
+        while (keys[empty] != 0)
+        {
+            empty++;
+        }
+        for (int i = 1; i < keys.length; i++)
+        {
+            int old = (empty + i) & mask;
+            long key = keys[old];
+            if (key == 0)
+            {
+                continue;
+            }
+            long count = counts[old];
+            keys[old] = 0;
+            counts[old] = 0;
+            if (64 - Long.numberOfLeadingZeros(count) <= highest)
+            {
+                sketch.add(key, count);
+                size--;
+            }
+            else
+            {
+                int slot = slot(key, mask);
+                while (keys[slot] != 0)
+                {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                counts[slot] = count;
+            }
+        }
+    }
+
+    /**
+     * Double the number of slots of the table, and put its keys back in their new slots.
+     */
+    private void grow()
+    {
+        long[] oldkeys = keys;
+        long[] oldcounts = counts;
+        allocate(oldkeys.length * 2);
+        int mask = keys.length - 1;
+        for (int old = 0; old < oldkeys.length; old++)
+        {
+            if (oldkeys[old] != 0)
+            {
+                int slot = slot(oldkeys[old], mask);
+                while (keys[slot] != 0)
+                {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldkeys[old];
+                counts[slot] = oldcounts[old];
+                size++;
+            }
+        }
+    }
+
+    /**
+     * Write the table and the sketch (if any), each as one block, and the sizes they can take within the budget.
+     *
+     * @param out the output
+     * @throws IOException when the counter could not be written
+     */
+    public void write(DataOutputStream out) throws IOException
+    {
+        out.writeInt(keys.length);
+        out.writeInt(max_slots);
+        out.writeInt(width);
+        writeLongs(out, keys);
+        writeLongs(out, counts);
+        out.writeBoolean(sketch != null);
+        if (sketch != null)
+        {
+            sketch.write(out);
+        }
+    }
+
+    /**
+     * Read a counter written by {@link #write(DataOutputStream)}.
+     *
+     * @param in the input
+     * @return the counter
+     * @throws IOException when the counter could not be read
+     */
+    public static SketchCounter read(DataInputStream in) throws IOException
+    {
+        int slots = in.readInt();
+        int max_slots = in.readInt();
+        int width = in.readInt();
+        if (slots < MIN_SLOTS || slots > max_slots || max_slots > (1 << 30) || Integer.bitCount(slots) != 1 || Integer.bitCount(max_slots) != 1)
+        {
+            throw new IOException("The counter has an invalid table of " + slots + " slots (at most " + max_slots + ")");
+        }
+        if (width < 1024 || width > Integer.MAX_VALUE / DEPTH)
+        {
+            throw new IOException("The counter has an invalid sketch width of " + width);
+        }
+        long[] keys = new long[slots];
+        long[] counts = new long[slots];
+        readLongs(in, keys);
+        readLongs(in, counts);
+        CountMinSketch sketch = in.readBoolean() ? CountMinSketch.read(in) : null;
+        return new SketchCounter(keys, counts, sketch, max_slots, width);
+    }
+
+    /**
+     * Write an array of longs in blocks, as a table can be larger than one buffer.
+     */
+    private static void writeLongs(DataOutputStream out, long[] values) throws IOException
+    {
+        ByteBuffer bytes = ByteBuffer.allocate(BLOCK * 8);
+        for (int start = 0; start < values.length; start += BLOCK)
+        {
+            int length = Math.min(BLOCK, values.length - start);
+            bytes.clear();
+            bytes.asLongBuffer().put(values, start, length);
+            out.write(bytes.array(), 0, length * 8);
+        }
+    }
+
+    /**
+     * Read an array of longs written by {@link #writeLongs(DataOutputStream, long[])}.
+     */
+    private static void readLongs(DataInputStream in, long[] values) throws IOException
+    {
+        byte[] bytes = new byte[BLOCK * 8];
+        for (int start = 0; start < values.length; start += BLOCK)
+        {
+            int length = Math.min(BLOCK, values.length - start);
+            in.readFully(bytes, 0, length * 8);
+            ByteBuffer.wrap(bytes).asLongBuffer().get(values, start, length);
+        }
+    }
+
+    private void allocate(int slots)
+    {
+        keys = new long[slots];
+        counts = new long[slots];
+        capacity = (int) (slots * LOAD_FACTOR);
+        size = 0;
+    }
+
+    private static int slot(long key, int mask)
+    {
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,106 @@
+package be.svlandeg.annomine.data;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class that maps each normalized token (lowercased and stemmed, as it occurs in a converted description) to an integer id, and back.
+ * Ids are given out in the order in which tokens are first seen, starting from 0, and never change.
+ * A vocabulary belongs to one background model, and can be shared by threads: looking up a known token does not lock.
+ * The descriptions that are compared to the model get their ids from an extension of it (see {@link #Vocabulary(Vocabulary)}), so that their tokens are forgotten with them.
+ * @author Sofie Van Landeghem
+ */
+public class Vocabulary
+{
+
+    /* the vocabulary that this one extends (or null), and the number of its tokens when this one was created */
+    private final Vocabulary base;
+    private final int base_size;
+
+    /* the ids of the tokens added to this vocabulary, and these tokens by id - base_size */
+    private ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+    private volatile String[] tokens = new String[1024];
+    private int size = 0;
+
+    /**
+     * Create an empty vocabulary.
+     */
+    public Vocabulary()
+    {
+        this.base = null;
+        this.base_size = 0;
+    }
+
+    /**
+     * Create a vocabulary that extends another one: it gives the tokens of the other vocabulary the same ids,
+     * and the tokens that the other vocabulary does not know ids after those, without adding them to the other vocabulary.
+     * The other vocabulary should not be changed while this one is in use.
+     * @param base the vocabulary to extend
+     */
+    public Vocabulary(Vocabulary base)
+    {
+        this.base = base;
+        this.base_size = base.size();
+        this.size = base_size;
+    }
+
+    /**
+     * Return the id of a token, adding the token to this vocabulary when it is new.
+     * @param token the token
+     * @return the id of the token
+     */
+    public int getId(String token)
+    {
+        if (base != null)
+        {
+            Integer id = base.ids.get(token);
+            if (id != null && id < base_size)
+            {
+                return id;
+            }
+        }
+        Integer id = ids.get(token);
+        if (id != null)
+        {
+            return id;
+        }
+        synchronized (this)
+        {
+            id = ids.get(token);
+            if (id == null)
+            {
+                if (size - base_size == tokens.length)
+                {
+                    tokens = Arrays.copyOf(tokens, tokens.length * 2);
+                }
+                tokens[size - base_size] = token;
+                id = size++;
+                ids.put(token, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Return the token with a certain id.
+     * @param id the id of the token, as returned by {@link #getId(String)}
+     * @return the token
+     */
+    public String getToken(int id)
+    {
+        if (id < base_size)
+        {
+            return base.getToken(id);
+        }
+        return tokens[id - base_size];
+    }
+
+    /**
+     * Return the number of tokens in this vocabulary, including those of the vocabulary it extends.
+     * @return the number of tokens
+     */
+    public synchronized int size()
+    {
+        return size;
+    }
+}
@@ -0,0 +1,339 @@
+package be.svlandeg.annomine.io;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a BGZF (block-gzipped) file, decompressing its blocks on several threads.
+ * The compressed blocks are read from disk in order and handed to a thread pool, and their decompressed contents are returned in that same order,
+ * so this stream returns exactly the same bytes as a {@link java.util.zip.GZIPInputStream} would.
+ *
+ * @author Sofie Van Landeghem
+ */
+public class BgzfInputStream extends InputStream
+{
+
+    /** the size of a gzip header with the BGZF extra field */
+    protected static final int HEADER_SIZE = 18;
+
+    /* the size of the fixed part of a gzip header, up to and including the length of the extra field */
+    private static final int FIXED_HEADER_SIZE = 12;
+
+    /* the maximal size of a block, both compressed and decompressed */
+    private static final int MAX_BLOCK_SIZE = 1 << 16;
+
+    protected InputStream in;
+    protected ExecutorService executor;
+    protected int ahead;                                // the number of blocks that are decompressed ahead of the reader
+
+    private LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+    private boolean eof = false;
+    private byte[] current;
+    private int pos;
+
+    /**
+     * Open a BGZF file for reading.
+     *
+     * @param file the input file
+     * @param threads the number of threads that decompress blocks
+     * @throws IOException when the input file could not be opened
+     */
+    public BgzfInputStream(File file, int threads) throws IOException
+    {
+        this.in = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+        this.ahead = threads * 2;
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "bgzf-inflater");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Check whether a header is the start of a BGZF block.
+     *
+     * @param header at least the first 18 bytes of the block
+     * @return whether the header has a gzip magic number and a 'BC' extra field
+     */
+    protected static boolean isBgzfHeader(byte[] header)
+    {
+        return (header[0] & 0xff) == 0x1f && (header[1] & 0xff) == 0x8b && (header[2] & 0xff) == 8 && (header[3] & 4) != 0
+                && blockSize(header, FIXED_HEADER_SIZE, Math.min(readShort(header, 10), header.length - FIXED_HEADER_SIZE)) > 0;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        if (!nextBytes())
+        {
+            return -1;
+        }
+        return current[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        if (len == 0)
+        {
+            return 0;
+        }
+        if (!nextBytes())
+        {
+            return -1;
+        }
+        int n = Math.min(len, current.length - pos);
+        System.arraycopy(current, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException
+    {
+        if (current == null)
+        {
+            return 0;
+        }
+        return current.length - pos;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        executor.shutdownNow();
+        pending.clear();
+        current = null;
+        eof = true;
+        in.close();
+    }
+
+    /**
+     * Make sure there are bytes left in the current block, moving to the next block when needed. Return false at the end of the file.
+     */
+    private boolean nextBytes() throws IOException
+    {
+        while (current == null || pos >= current.length)
+        {
+            fill();
+            if (pending.isEmpty())
+            {
+                return false;
+            }
+            current = get(pending.removeFirst());
+            pos = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Read compressed blocks from the file and hand them to the thread pool, until enough blocks are being decompressed.
+     */
+    private void fill() throws IOException
+    {
+        while (!eof && pending.size() < ahead)
+        {
+            final byte[] block = readBlock();
+            if (block == null)
+            {
+                eof = true;
+            }
+            else
+            {
+                pending.add(executor.submit(new Callable<byte[]>()
+                {
+                    public byte[] call() throws IOException
+                    {
+                        return inflate(block);
+                    }
+                }));
+            }
+        }
+    }
+
+    /**
+     * Read one complete compressed block (header included), or return null at the end of the file.
+     */
+    private byte[] readBlock() throws IOException
+    {
+        byte[] header = new byte[FIXED_HEADER_SIZE];
+        int read = readFully(header, 0, FIXED_HEADER_SIZE);
+        if (read == 0)
+        {
+            return null;
+        }
+        if (read < FIXED_HEADER_SIZE || (header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b || (header[3] & 4) == 0)
+        {
+            throw new IOException("Not a BGZF block: the file is gzip-compressed, but not block-gzipped");
+        }
+        int xlen = readShort(header, 10);
+        byte[] extra = new byte[xlen];
+        if (readFully(extra, 0, xlen) < xlen)
+        {
+            throw new EOFException("Unexpected end of BGZF file");
+        }
+        int size = blockSize(extra, 0, xlen);
+        if (size < FIXED_HEADER_SIZE + xlen + 8)
+        {
+            throw new IOException("Not a BGZF block: the gzip header has no valid 'BC' field");
+        }
+        byte[] block = new byte[size];
+        System.arraycopy(header, 0, block, 0, FIXED_HEADER_SIZE);
+        System.arraycopy(extra, 0, block, FIXED_HEADER_SIZE, xlen);
+        int rest = size - FIXED_HEADER_SIZE - xlen;
+        if (readFully(block, FIXED_HEADER_SIZE + xlen, rest) < rest)
+        {
+            throw new EOFException("Unexpected end of BGZF file");
+        }
+        return block;
+    }
+
+    /**
+     * Decompress one block, and check its length and CRC.
+     */
+    private static byte[] inflate(byte[] block) throws IOException
+    {
+        int start = FIXED_HEADER_SIZE + readShort(block, 10);
+        int length = block.length - start - 8;
+        long crc = readInt(block, block.length - 8) & 0xffffffffL;
+        int size = readInt(block, block.length - 4);
+        if (size < 0 || size > MAX_BLOCK_SIZE)
+        {
+            throw new IOException("Corrupt BGZF block: invalid size " + size);
+        }
+        byte[] data = new byte[size];
+        Inflater inflater = new Inflater(true);
+        try
+        {
+            inflater.setInput(block, start, length);
+            int done = 0;
+            while (done < size && !inflater.finished())
+            {
+                int n = inflater.inflate(data, done, size - done);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                {
+                    break;
+                }
+                done += n;
+            }
+            if (done != size)
+            {
+                throw new IOException("Corrupt BGZF block: expected " + size + " bytes, but found " + done);
+            }
+        }
+        catch (DataFormatException e)
+        {
+            throw new IOException("Corrupt BGZF block: " + e.getMessage());
+        }
+        finally
+        {
+            inflater.end();
+        }
+        CRC32 check = new CRC32();
+        check.update(data, 0, size);
+        if (check.getValue() != crc)
+        {
+            throw new IOException("Corrupt BGZF block: CRC mismatch");
+        }
+        return data;
+    }
+
+    /**
+     * Wait for a block to be decompressed, and pass on the exception when that failed.
+     */
+    private byte[] get(Future<byte[]> future) throws IOException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while decompressing a BGZF block");
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+            {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            throw new IOException(cause.getMessage());
+        }
+    }
+
+    /**
+     * Read up to len bytes, stopping only at the end of the file. Return the number of bytes read.
+     */
+    private int readFully(byte[] b, int off, int len) throws IOException
+    {
+        int read = 0;
+        while (read < len)
+        {
+            int n = in.read(b, off + read, len - read);
+            if (n < 0)
+            {
+                break;
+            }
+            read += n;
+        }
+        return read;
+    }
+
+    /**
+     * Find the 'BC' subfield in the extra field of a gzip header, and return the total size of the block, or -1 when there is no such subfield.
+     */
+    private static int blockSize(byte[] b, int off, int xlen)
+    {
+        int i = off;
+        int end = off + xlen;
+        while (i + 4 <= end)
+        {
+            int slen = readShort(b, i + 2);
+            if (b[i] == 'B' && b[i + 1] == 'C' && slen == 2 && i + 6 <= end)
+            {
+                return readShort(b, i + 4) + 1;
+            }
+            i += 4 + slen;
+        }
+        return -1;
+    }
+
+    private static int readShort(byte[] b, int off)
+    {
+        return (b[off] & 0xff) | ((b[off + 1] & 0xff) << 8);
+    }
+
+    private static int readInt(byte[] b, int off)
+    {
+        return (b[off] & 0xff) | ((b[off + 1] & 0xff) << 8) | ((b[off + 2] & 0xff) << 16) | ((b[off + 3] & 0xff) << 24);
+    }
+}
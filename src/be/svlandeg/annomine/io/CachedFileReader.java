@@ -0,0 +1,885 @@
+package be.svlandeg.annomine.io;
+
+import be.svlandeg.annomine.Environment;
+import be.svlandeg.annomine.algorithms.MappingContext;
+import be.svlandeg.annomine.algorithms.TextMapping;
+import be.svlandeg.annomine.data.Description;
+import be.svlandeg.annomine.data.DescriptionsList;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This reader stores the preprocessed descriptions that another reader returns in a binary cache file, and reads them back from that file in later runs.
+ * The converted descriptions, their weights and query genes are stored per batch, together with the original lines of the batch and their converted forms,
+ * so that a later run on the same input with the same settings can skip the preprocessing (and stemming) entirely.
+ *
+ * A cache file is only used when it was made from the same input file (same path, size and modification time), by a reader with the same columns,
+ * with the same word lists for {@link Preprocess}, and with the same TextMapping settings. Each batch that is read from a cache file gets its own mapping context,
+ * which contains the lines that were stored for that batch: as in the run that wrote the cache, their mappings are only worked out when they are needed.
+ *
+ * There is one cache file per input file and settings, whatever the number of threads: each batch is stored with the position in the input file at which its
+ * query gene starts, and an index at the end of the cache file finds the first batch of any range of the input file (see {@link FileSplitter}).
+ * When a range is read before the input file is cached, the range is cached in a part file, and the parts are merged into the cache file as soon as
+ * they cover the whole input file. Cache files and parts that were made from an earlier version of the input file, or by another version of this class, are deleted
+ * when a new cache file for the input file is complete.
+ *
+ * @author Sofie Van Landeghem
+ */
+public class CachedFileReader extends ConcatenatedFileReader
+{
+
+    /** the version of the cache format and of the preprocessing: cache files made by another version are not used */
+    protected static final int VERSION = 4;
+
+    private static final int MAGIC = 0x414d4331;
+
+    /** the reader that reads the input files when there is no cache file yet */
+    protected Reader delegate;
+
+    /** the directory that contains the cache files */
+    protected File cachedir;
+
+    private long start = -1;
+    private long end = -1;
+    private boolean reading = false;    // whether a file is opened, but its first batch was not yet requested
+    private String cache_key;           // the key of the cache file (without the range of a part)
+    private File cache_file;            // the cache file that is read, or that is written when the whole file is read
+    private File part_file;             // the part file that is written when a range is read, or null
+    private File temp_file;
+    private DataInputStream cache_in;
+    private DataOutputStream cache_out;
+    private CountingOutputStream cache_position;
+
+    /* the positions in the input file at which the batches that are written start (or null when they are not known),
+     * and the index of the written batches: their positions in the input file and in the cache file */
+    private long[] batch_starts;
+    private int batches;
+    private long[] index_starts;
+    private long[] index_positions;
+
+    /**
+     * Create a reader that caches the descriptions read by another reader.
+     *
+     * @param delegate the reader that reads the input files
+     * @param cachedir the directory that contains the cache files
+     */
+    public CachedFileReader(Reader delegate, File cachedir)
+    {
+        super(delegate.tm, delegate.evalue_col, delegate.score_col, delegate.description_col, delegate.query_col);
+        this.delegate = delegate;
+        this.cachedir = cachedir;
+    }
+
+    @Override
+    public void setThreads(int threads)
+    {
+        super.setThreads(threads);
+        delegate.setThreads(threads);
+    }
+
+    @Override
+    protected Reader copy()
+    {
+        return new CachedFileReader(delegate.copy(), cachedir);
+    }
+
+    @Override
+    public Description readDescription(String line, boolean substrings, boolean switchorder) throws IllegalArgumentException
+    {
+        return delegate.readDescription(line, substrings, switchorder);
+    }
+
+    @Override
+    public DescriptionsList readList(File file, boolean firsttime, boolean switchorder, String newline) throws IOException, IllegalArgumentException
+    {
+        String key = key(file, firsttime, switchorder) + ";list=true";
+        File cached = cacheFile(file, key);
+        DataInputStream in = openCache(cached, key, -1, newline);
+        if (in != null)
+        {
+            try
+            {
+                return readBatch(in, -1);
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        DescriptionsList dl = delegate.readList(file, firsttime, switchorder, newline);
+        this.file = file;
+        cache_key = key;
+        cache_file = cached;
+        part_file = null;
+        batch_starts = new long[] { 0 };
+        cache_out = createCache(cache_file, key, newline);
+        if (cache_out != null)
+        {
+            try
+            {
+                writeBatch(cache_out, dl);
+                finishCache(newline);
+            }
+            catch (IOException e)
+            {
+                abandonCache(e, newline);
+            }
+        }
+        return dl;
+    }
+
+    @Override
+    public void open(File file, long start, long end, String newline) throws IOException
+    {
+        close();
+        if (!file.canRead())
+        {
+            System.out.println("Error: Couldn't read " + file.getName() + newline);
+            throw new IOException("Can not read " + file);
+        }
+        this.file = file;
+        this.start = start;
+        this.end = end;
+        reading = true;
+    }
+
+    @Override
+    public DescriptionsList readNextDescription(boolean substrings, boolean switchorder, String newline) throws IOException
+    {
+        if (reading)
+        {
+            // only now the settings of the batches are known, so only now the cache file can be chosen
+            reading = false;
+            cache_key = key(file, substrings, switchorder);
+            cache_file = cacheFile(file, cache_key);
+            cache_in = openCache(cache_file, cache_key, start, newline);
+            if (cache_in == null)
+            {
+                concatenated().open(file, start, end, newline);
+                batch_starts = batchStarts(newline);
+                if (start < 0)
+                {
+                    part_file = null;
+                    cache_out = createCache(cache_file, cache_key, newline);
+                }
+                else if (batch_starts != null)
+                {
+                    // the range is cached on its own, until all ranges of the file are cached and can be merged
+                    part_file = partFile(cache_file, start, end);
+                    cache_out = createCache(part_file, partKey(cache_key, start, end), newline);
+                }
+            }
+        }
+        DescriptionsList dl = null;
+        if (cache_in != null)
+        {
+            try
+            {
+                dl = readBatch(cache_in, end);
+            }
+            catch (IOException e)
+            {
+                System.out.println("Error: Couldn't read " + cache_file.getName() + newline);
+                System.out.println(e.getMessage() + newline);
+                close();
+                throw (e);
+            }
+        }
+        else
+        {
+            dl = concatenated().readNextDescription(substrings, switchorder, newline);
+            if (cache_out != null)
+            {
+                try
+                {
+                    if (dl != null)
+                    {
+                        writeBatch(cache_out, dl);
+                    }
+                    else
+                    {
+                        finishCache(newline);
+                    }
+                }
+                catch (IOException e)
+                {
+                    abandonCache(e, newline);
+                }
+            }
+        }
+        if (dl == null)
+        {
+            close();
+        }
+        return dl;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        reading = false;
+        if (cache_in != null)
+        {
+            DataInputStream toclose = cache_in;
+            cache_in = null;
+            toclose.close();
+        }
+        if (cache_out != null)
+        {
+            // the file was not read until the end, so the cache would be incomplete
+            cache_out.close();
+            cache_out = null;
+            temp_file.delete();
+        }
+        if (delegate instanceof ConcatenatedFileReader)
+        {
+            ((ConcatenatedFileReader) delegate).close();
+        }
+    }
+
+    /**
+     * Return the delegate as a reader of concatenated files.
+     */
+    private ConcatenatedFileReader concatenated()
+    {
+        if (!(delegate instanceof ConcatenatedFileReader))
+        {
+            throw new UnsupportedOperationException("  ! " + delegate.getClass().getSimpleName() + " can only read complete files");
+        }
+        return (ConcatenatedFileReader) delegate;
+    }
+
+    /**
+     * Describe everything that determines the content of the cache: the input file, the settings of the readers and of the TextMapping.
+     * The range of the input file that is read is not part of the key, as all ranges are served from the same cache file.
+     */
+    private String key(File file, boolean substrings, boolean switchorder)
+    {
+        String key = identity(file) + "substrings=" + substrings + ";switchorder=" + switchorder;
+        key += ";" + delegate.getSettings() + ";" + Preprocess.getSettings();
+        if (tm != null)
+        {
+            key += ";" + tm.getSettings();
+        }
+        return key;
+    }
+
+    /**
+     * The start of the key of every cache file of an input file in its current version: its path, size and modification time, and the version of this class.
+     */
+    private static String identity(File file)
+    {
+        return "version=" + VERSION + ";file=" + file.getAbsolutePath() + ";length=" + file.length() + ";modified=" + file.lastModified() + ";";
+    }
+
+    /**
+     * The key of the part file of a range: the key of the cache file, and the range.
+     */
+    private static String partKey(String key, long start, long end)
+    {
+        return key + ";start=" + start + ";end=" + end;
+    }
+
+    /**
+     * The cache file for a certain input file and key. Different keys for the same input file normally get different cache files.
+     */
+    private File cacheFile(File file, String key)
+    {
+        return new File(cachedir, file.getName() + "." + Integer.toHexString(key.hashCode()) + ".cache");
+    }
+
+    /**
+     * The part file that caches a range of the input file of a cache file.
+     */
+    private static File partFile(File cached, long start, long end)
+    {
+        return new File(cached.getParentFile(), partPrefix(cached) + start + "-" + end + ".part");
+    }
+
+    /**
+     * The start of the names of the part files of a cache file.
+     */
+    private static String partPrefix(File cached)
+    {
+        String name = cached.getName();
+        return name.substring(0, name.length() - ".cache".length()) + ".";
+    }
+
+    /**
+     * Find the positions in the input file at which the batches start that will be written to the cache. Return null when they are not known:
+     * a compressed file can not be read in ranges, so its batches do not need a position, and a cache file without them only serves the whole file.
+     */
+    private long[] batchStarts(String newline)
+    {
+        try
+        {
+            if (GzipFiles.isGzip(file))
+            {
+                return null;
+            }
+            return new FileSplitter(query_col).queryStarts(file, Math.max(0, start), end < 0 ? file.length() : end);
+        }
+        catch (IOException e)
+        {
+            System.out.println(" ! Couldn't find the query genes of " + file.getName() + " for its cache file" + newline);
+            System.out.println(e.getMessage() + newline);
+            return null;
+        }
+    }
+
+    /**
+     * Open a cache file and check its key. Return null when there is no valid cache file.
+     * For a range of the input file that starts at a certain position, the cache file is positioned at the first batch that starts at or after that position.
+     */
+    private DataInputStream openCache(File cached, String key, long start, String newline)
+    {
+        if (!cached.isFile())
+        {
+            return null;
+        }
+        DataInputStream in = null;
+        try
+        {
+            FileInputStream file_in = new FileInputStream(cached);
+            in = new DataInputStream(new BufferedInputStream(file_in, 1 << 16));
+            if (in.readInt() == MAGIC && key.equals(readString(in)))
+            {
+                if (start >= 0)
+                {
+                    long position = findBatch(file_in.getChannel(), start);
+                    if (position < 0)
+                    {
+                        in.close();
+                        return null;
+                    }
+                    file_in.getChannel().position(position);
+                    in = new DataInputStream(new BufferedInputStream(file_in, 1 << 16));
+                }
+                if (Environment.getPrintLog())
+                {
+                    System.out.println("  reading preprocessed descriptions from " + cached + newline);
+                }
+                return in;
+            }
+            in.close();
+        }
+        catch (IOException e)
+        {
+            try
+            {
+                if (in != null)
+                {
+                    in.close();
+                }
+            }
+            catch (IOException e2)
+            {}
+        }
+        return null;
+    }
+
+    /**
+     * Find the position in a cache file of the first batch that starts at or after a position in the input file, with a binary search in the index of the cache file.
+     * Return the position of the end of the batches when there is no such batch, or -1 when the positions of the batches in the input file are not known.
+     */
+    private static long findBatch(FileChannel channel, long start) throws IOException
+    {
+        long index = readLong(channel, channel.size() - 8);
+        ByteBuffer count = ByteBuffer.allocate(4);
+        readFully(channel, count, index);
+        int size = count.getInt(0);
+        if (size > 0 && readLong(channel, index + 4) < 0)
+        {
+            return -1;
+        }
+        int low = 0;
+        int high = size;
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if (readLong(channel, index + 4 + 16L * middle) < start)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+        // the batches end with one byte, just before the index
+        return low == size ? index - 1 : readLong(channel, index + 4 + 16L * low + 8);
+    }
+
+    /**
+     * Read a long at a certain position of a file, without moving the position of the channel.
+     */
+    private static long readLong(FileChannel channel, long position) throws IOException
+    {
+        ByteBuffer bytes = ByteBuffer.allocate(8);
+        readFully(channel, bytes, position);
+        return bytes.getLong(0);
+    }
+
+    /**
+     * Fill a buffer from a certain position of a file, without moving the position of the channel.
+     */
+    private static void readFully(FileChannel channel, ByteBuffer bytes, long position) throws IOException
+    {
+        while (bytes.hasRemaining())
+        {
+            if (channel.read(bytes, position + bytes.position()) < 0)
+            {
+                throw new IOException("Unexpected end of the cache file");
+            }
+        }
+    }
+
+    /**
+     * Start writing a new cache or part file, in a temporary file that only replaces that file once it is complete. Return null when that is not possible.
+     */
+    private DataOutputStream createCache(File cached, String key, String newline)
+    {
+        try
+        {
+            cachedir.mkdirs();
+            temp_file = File.createTempFile(cached.getName(), ".tmp", cachedir);
+            cache_position = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(temp_file), 1 << 16));
+            DataOutputStream out = new DataOutputStream(cache_position);
+            out.writeInt(MAGIC);
+            writeString(out, key);
+            batches = 0;
+            index_starts = new long[16];
+            index_positions = new long[16];
+            return out;
+        }
+        catch (IOException e)
+        {
+            System.out.println(" ! Couldn't create a cache file in " + cachedir + newline);
+            System.out.println(e.getMessage() + newline);
+            if (temp_file != null)
+            {
+                temp_file.delete();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Mark the end of the batches, write the index, and move the file to its final place.
+     * A complete cache file replaces the cache files of earlier versions of the input file, and a part file is merged with the other parts when they cover the whole input file.
+     */
+    private void finishCache(String newline) throws IOException
+    {
+        if (batch_starts != null && batches != batch_starts.length)
+        {
+            throw new IOException("The batches do not match the query genes of " + file.getName());
+        }
+        DataOutputStream out = cache_out;
+        cache_out = null;
+        out.writeByte(0);
+        writeIndex(out, cache_position.getCount(), index_starts, index_positions, batches);
+        out.close();
+        File cached = part_file == null ? cache_file : part_file;
+        cached.delete();
+        if (!temp_file.renameTo(cached))
+        {
+            temp_file.delete();
+            throw new IOException("Couldn't rename " + temp_file + " to " + cached);
+        }
+        if (part_file == null)
+        {
+            deleteStale(cachedir, file, cache_file);
+        }
+        else
+        {
+            mergeParts(file, cache_file, cache_key, newline);
+        }
+    }
+
+    /**
+     * Write the index of the batches: their number, and for each batch its position in the input file and in the cache file,
+     * followed by the position of the index itself.
+     */
+    private static void writeIndex(DataOutputStream out, long position, long[] starts, long[] positions, int size) throws IOException
+    {
+        out.writeInt(size);
+        for (int i = 0; i < size; i++)
+        {
+            out.writeLong(starts[i]);
+            out.writeLong(positions[i]);
+        }
+        out.writeLong(position);
+    }
+
+    /**
+     * Merge the part files of a cache file into the cache file, when they cover the whole input file. The part files are then deleted.
+     * The ranges of the input file are cached on several threads, so the parts are merged by the one that completes them.
+     */
+    private static synchronized void mergeParts(File input, File cached, String key, String newline) throws IOException
+    {
+        File dir = cached.getParentFile();
+        String prefix = partPrefix(cached);
+        List<File> parts = new ArrayList<File>();
+        List<long[]> ranges = new ArrayList<long[]>();
+        File[] files = dir.listFiles();
+        for (File part : files == null ? new File[0] : files)
+        {
+            String name = part.getName();
+            if (name.startsWith(prefix) && name.endsWith(".part"))
+            {
+                String[] range = name.substring(prefix.length(), name.length() - ".part".length()).split("-");
+                try
+                {
+                    ranges.add(new long[] { Long.parseLong(range[0]), Long.parseLong(range[1]) });
+                    parts.add(part);
+                }
+                catch (RuntimeException e)
+                {}
+            }
+        }
+        List<Integer> chain = new ArrayList<Integer>();
+        if (!cover(ranges, 0, input.length(), chain))
+        {
+            return;
+        }
+        File temp = File.createTempFile(cached.getName(), ".tmp", dir);
+        try
+        {
+            CountingOutputStream position = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+            DataOutputStream out = new DataOutputStream(position);
+            out.writeInt(MAGIC);
+            writeString(out, key);
+            int size = 0;
+            long[] starts = new long[16];
+            long[] positions = new long[16];
+            byte[] buffer = new byte[1 << 16];
+            for (int p : chain)
+            {
+                long[] range = ranges.get(p);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(parts.get(p)), 1 << 16));
+                try
+                {
+                    String partkey = partKey(key, range[0], range[1]);
+                    if (in.readInt() != MAGIC || !partkey.equals(readString(in)))
+                    {
+                        throw new IOException(parts.get(p) + " is not a part of " + cached);
+                    }
+                    // the batches of the part are copied as they are, and their positions are moved along in the index
+                    long header = 8 + partkey.getBytes("UTF-8").length;
+                    FileChannel channel = new FileInputStream(parts.get(p)).getChannel();
+                    long index;
+                    try
+                    {
+                        index = readLong(channel, channel.size() - 8);
+                        channel.position(index);
+                        DataInputStream index_in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+                        int count = index_in.readInt();
+                        long shift = position.getCount() - header;
+                        for (int i = 0; i < count; i++)
+                        {
+                            if (size == starts.length)
+                            {
+                                starts = Arrays.copyOf(starts, size * 2);
+                                positions = Arrays.copyOf(positions, size * 2);
+                            }
+                            starts[size] = index_in.readLong();
+                            positions[size++] = index_in.readLong() + shift;
+                        }
+                    }
+                    finally
+                    {
+                        channel.close();
+                    }
+                    // copy everything up to the byte that ends the batches of the part
+                    long remaining = index - 1 - header;
+                    while (remaining > 0)
+                    {
+                        int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                        if (read < 0)
+                        {
+                            throw new IOException("Unexpected end of " + parts.get(p));
+                        }
+                        out.write(buffer, 0, read);
+                        remaining -= read;
+                    }
+                }
+                finally
+                {
+                    in.close();
+                }
+            }
+            out.writeByte(0);
+            writeIndex(out, position.getCount(), starts, positions, size);
+            out.close();
+            cached.delete();
+            if (!temp.renameTo(cached))
+            {
+                throw new IOException("Couldn't rename " + temp + " to " + cached);
+            }
+        }
+        finally
+        {
+            temp.delete();
+        }
+        if (Environment.getPrintLog())
+        {
+            System.out.println("  merged " + chain.size() + " cached ranges into " + cached + newline);
+        }
+        for (File part : parts)
+        {
+            part.delete();
+        }
+        deleteStale(dir, input, cached);
+    }
+
+    /**
+     * Find ranges that cover the positions from start to end one after the other, and add their indices to the chain.
+     */
+    private static boolean cover(List<long[]> ranges, long start, long end, List<Integer> chain)
+    {
+        if (start == end)
+        {
+            return true;
+        }
+        for (int i = 0; i < ranges.size(); i++)
+        {
+            long[] range = ranges.get(i);
+            if (range[0] == start && range[1] > start && range[1] <= end)
+            {
+                chain.add(i);
+                if (cover(ranges, range[1], end, chain))
+                {
+                    return true;
+                }
+                chain.remove(chain.size() - 1);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Delete the cache and part files of an input file that were made from another version of it, or by another version of this class.
+     * Files of the same version of the input file with other settings are kept.
+     */
+    private static void deleteStale(File dir, File input, File cached)
+    {
+        String identity = identity(input);
+        String path = ";file=" + input.getAbsolutePath() + ";";
+        File[] files = dir.listFiles();
+        for (File other : files == null ? new File[0] : files)
+        {
+            String name = other.getName();
+            if (other.equals(cached) || !name.startsWith(input.getName() + ".") || !(name.endsWith(".cache") || name.endsWith(".part")))
+            {
+                continue;
+            }
+            String key = null;
+            try
+            {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(other), 1 << 12));
+                try
+                {
+                    if (in.readInt() == MAGIC)
+                    {
+                        key = readString(in);
+                    }
+                }
+                finally
+                {
+                    in.close();
+                }
+            }
+            catch (IOException e)
+            {}
+            if (key != null && key.contains(path) && !key.startsWith(identity))
+            {
+                other.delete();
+            }
+        }
+    }
+
+    /**
+     * Stop writing the cache file after an error, without interrupting the reading of the input.
+     */
+    private void abandonCache(IOException e, String newline)
+    {
+        System.out.println(" ! Couldn't write the cache file " + (part_file == null ? cache_file : part_file) + newline);
+        System.out.println(e.getMessage() + newline);
+        try
+        {
+            if (cache_out != null)
+            {
+                cache_out.close();
+            }
+        }
+        catch (IOException e2)
+        {}
+        cache_out = null;
+        temp_file.delete();
+    }
+
+    /**
+     * Write one batch: the position in the input file at which it starts (or -1), its name, its descriptions, and the lines of its mapping context.
+     */
+    private void writeBatch(DataOutputStream out, DescriptionsList dl) throws IOException
+    {
+        long batch_start = -1;
+        if (batch_starts != null)
+        {
+            if (batches >= batch_starts.length)
+            {
+                throw new IOException("The batches do not match the query genes of " + file.getName());
+            }
+            batch_start = batch_starts[batches];
+        }
+        if (batches == index_starts.length)
+        {
+            index_starts = Arrays.copyOf(index_starts, batches * 2);
+            index_positions = Arrays.copyOf(index_positions, batches * 2);
+        }
+        index_starts[batches] = batch_start;
+        index_positions[batches++] = cache_position.getCount();
+        out.writeByte(1);
+        out.writeLong(batch_start);
+        String name = dl.getName();
+        writeString(out, name);
+        out.writeInt(dl.getDescriptions().size());
+        for (Description d : dl.getDescriptions())
+        {
+            writeString(out, d.getDescription());
+            out.writeDouble(d.getWeight());
+            String query = d.getQuery();
+            // most descriptions belong to the query gene that names their batch
+            if (query == null ? name == null : query.equals(name))
+            {
+                out.writeBoolean(false);
+            }
+            else
+            {
+                out.writeBoolean(true);
+                writeString(out, query);
+            }
+        }
+        // the original lines are stored rather than their mappings, which are only worked out when they are needed
+        out.writeBoolean(dl.getMapping() != null);
+        if (dl.getMapping() != null)
+        {
+            dl.getMapping().writeConversions(out);
+        }
+    }
+
+    /**
+     * Read one batch and add its lines to a new mapping context. Return null at the end of the cache file, or at the first batch at or after the end of the range that is read (if any).
+     */
+    private DescriptionsList readBatch(DataInputStream in, long end) throws IOException
+    {
+        if (in.readByte() == 0)
+        {
+            return null;
+        }
+        long batch_start = in.readLong();
+        if (end >= 0 && batch_start >= end)
+        {
+            return null;
+        }
+        String name = readString(in);
+        DescriptionsList dl = new DescriptionsList(name);
+        int size = in.readInt();
+        for (int i = 0; i < size; i++)
+        {
+            String description = readString(in);
+            double weight = in.readDouble();
+            String query = name;
+            if (in.readBoolean())
+            {
+                query = readString(in);
+            }
+            dl.addDescription(new Description(description, weight, query));
+        }
+        if (in.readBoolean())
+        {
+            MappingContext mapping = tm.newContext();
+            mapping.readConversions(in);
+            dl.setMapping(mapping);
+        }
+        return dl;
+    }
+
+    /**
+     * Write a string as its length and UTF-8 bytes, or -1 for null.
+     */
+    private static void writeString(DataOutputStream out, String s) throws IOException
+    {
+        if (s == null)
+        {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read a string written by {@link #writeString(DataOutputStream, String)}.
+     */
+    private static String readString(DataInputStream in) throws IOException
+    {
+        int length = in.readInt();
+        if (length < 0)
+        {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * An output stream that counts the bytes written to it, so that the positions of the batches in a cache file are known while it is written.
+     */
+    private static class CountingOutputStream extends FilterOutputStream
+    {
+
+        private long count = 0;
+
+        private CountingOutputStream(OutputStream out)
+        {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        private long getCount()
+        {
+            return count;
+        }
+    }
+}
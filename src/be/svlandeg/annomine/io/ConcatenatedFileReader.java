@@ -6,17 +6,19 @@ import be.svlandeg.annomine.data.DescriptionsList;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 
 /**
  * This custom reader reads various DescriptionsLists from one file. The batches should be in one big file, ordered by query gene, as the file is read only once consecutively.
+ * The file is kept open in between calls, so that each line is read only once, no matter how many query genes the file contains.
  * @author Sofie Van Landeghem
  */
 public class ConcatenatedFileReader extends Reader
 {
 	
-    protected int row_counter;  // remembers where in the file we were reading
+    protected File file;                // the file that is currently being read
+    protected BufferedReader reader;    // remains open in between calls, until the end of the file is reached
+    protected String pendingLine;       // first line of the next query gene, read but not yet processed
 
     /**
      * Create a reader object that will read Description batches from tab-delimited files.
@@ -30,7 +32,12 @@ public class ConcatenatedFileReader extends Reader
     public ConcatenatedFileReader(TextMapping tm, int evalue_col, int score_col, int description_col, int query_col)
     {
         super(tm, evalue_col, score_col, description_col, query_col);
-        row_counter = 0;
+    }
+
+    @Override
+    protected Reader copy()
+    {
+        return new ConcatenatedFileReader(tm, evalue_col, score_col, description_col, query_col);
     }
 
     @Override
@@ -39,78 +46,161 @@ public class ConcatenatedFileReader extends Reader
         Description dl = null;
         if (score_col >= 0)
         {
-            dl = new Input(tm).readScoredFromTab(line, score_col, description_col, query_col, substrings, switchorder);
+            dl = getInput().readScoredFromTab(line, score_col, description_col, query_col, substrings, switchorder);
         }
         else if (evalue_col >= 0)
         {
-            dl = new Input(tm).readEvaluedFromTab(line, evalue_col, description_col, query_col, substrings, switchorder);
+            dl = getInput().readEvaluedFromTab(line, evalue_col, description_col, query_col, substrings, switchorder);
         }
         else
         {
-            dl = new Input(tm).readFromTab(line, description_col, query_col, substrings, switchorder);
+            dl = getInput().readFromTab(line, description_col, query_col, substrings, switchorder);
         }
         return dl;
     }
 
     /**
-     * Read a description batch from a certain file.
+     * Read the next description batch from a certain file. 
+     * The first call opens the file, and subsequent calls continue reading where the previous call stopped. 
+     * When a different file is given, reading starts again from the beginning of that file.
      * 
      * @param file the input file
-     * @param substrings the first time this should be true: the converted versions of all substrings will then be stored in the TextMapping object
+     * @param substrings the first time this should be true: the converted versions of all substrings will then be stored in the mapping context of the batch
      * @param switchorder decides whether the order of the words in the description line can be moved around
      * @param newline the newline character, used when printing the error message
-     * @return a description batch
+     * @return a description batch, or null when the end of the file was reached
      * @throws IOException when the input file could not be read properly
      * @throws IllegalArgumentException when an invalid column index is encountered
      */
     public DescriptionsList readNextDescription(File file, boolean substrings, boolean switchorder, String newline) throws IOException
     {
-        String filename = file.getName();
+        if (!file.equals(this.file))
+        {
+            open(file, newline);
+        }
+        return readNextDescription(substrings, switchorder, newline);
+    }
 
-        BufferedReader reader = null;
-        int counter = 0;
-        DescriptionsList dl = null;
+    /**
+     * Open a file for reading its description batches with {@link #readNextDescription(boolean, boolean, String)}. 
+     * A previously opened file is closed first.
+     * 
+     * @param file the input file
+     * @param newline the newline character, used when printing the error message
+     * @throws IOException when the input file could not be opened
+     */
+    public void open(File file, String newline) throws IOException
+    {
+        open(file, -1, -1, newline);
+    }
+
+    /**
+     * Open a part of a file for reading its description batches with {@link #readNextDescription(boolean, boolean, String)}. 
+     * A previously opened file is closed first.
+     * 
+     * @param file the input file
+     * @param start the position of the first byte to read, which should be the start of a line, or -1 to read the whole file
+     * @param end the position after the last byte to read, which should be the end of a line
+     * @param newline the newline character, used when printing the error message
+     * @throws IOException when the input file could not be opened
+     */
+    public void open(File file, long start, long end, String newline) throws IOException
+    {
+        close();
         try
         {
-            reader = new BufferedReader(new FileReader(file));
-            String line = reader.readLine();
+            if (start < 0)
+            {
+                reader = openReader(file);
+            }
+            else
+            {
+                reader = openReader(file, start, end);
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: Couldn't read " + file.getName() + newline);
+            System.out.println(e.getMessage() + newline);
+            throw (e);
+        }
+        this.file = file;
+        pendingLine = null;
+    }
 
+    /**
+     * Read the next description batch from the file opened with {@link #open(File, String)}.
+     * A batch contains all consecutive lines with the same query gene.
+     * 
+     * @param substrings the first time this should be true: the converted versions of all substrings will then be stored in the mapping context of the batch
+     * @param switchorder decides whether the order of the words in the description line can be moved around
+     * @param newline the newline character, used when printing the error message
+     * @return a description batch, or null when the end of the file was reached
+     * @throws IOException when the input file could not be read properly
+     * @throws IllegalArgumentException when an invalid column index is encountered
+     */
+    public DescriptionsList readNextDescription(boolean substrings, boolean switchorder, String newline) throws IOException
+    {
+        if (reader == null)
+        {
+            return null;
+        }
+        DescriptionsList dl = null;
+        try
+        {
+            String line = pendingLine;
+            pendingLine = null;
+            if (line == null)
+            {
+                line = reader.readLine();
+            }
             while (line != null)
             {
                 if (!line.toLowerCase().startsWith("querylocus"))
                 {
-                    if (counter >= row_counter)
+                    // the query is checked on the raw line, so the first line of the next batch is only converted (and added to its mapping context) when that batch is read
+                    String thisquery = getInput().readQuery(line, query_col);
+                    if (dl == null)
                     {
-                        Description d = readDescription(line, substrings, switchorder);
-                        String thisquery = d.getQuery();
-                        if (dl == null)
-                        {
-                            dl = new DescriptionsList(thisquery);
-                        }
-                        String query = dl.getName();
-                        if (query != null && !query.equals(thisquery))
-                        {
-                            // we've reached the next query
-                            row_counter = counter;
-                            reader.close();
-                            return dl;
-                        }
-                        dl.addDescription(d);
+                        dl = new DescriptionsList(thisquery);
+                        startMapping(dl);
                     }
+                    String query = dl.getName();
+                    if (query != null && !query.equals(thisquery))
+                    {
+                        // we've reached the next query
+                        pendingLine = line;
+                        return dl;
+                    }
+                    dl.addDescription(readDescription(line, substrings, switchorder));
                 }
-                counter++;
                 line = reader.readLine();
             }
-            reader.close();
         }
         catch (IOException e)
         {
-        	reader.close();
-            System.out.println("Error: Couldn't read " + filename + newline);
+            System.out.println("Error: Couldn't read " + file.getName() + newline);
             System.out.println(e.getMessage() + newline);
+            close();
             throw (e);
         }
-        row_counter = counter;
+        close();
         return dl;
     }
-}
\ No newline at end of file
+
+    /**
+     * Close the file that is currently being read, if any.
+     * 
+     * @throws IOException when the input file could not be closed properly
+     */
+    public void close() throws IOException
+    {
+        pendingLine = null;
+        if (reader != null)
+        {
+            BufferedReader toclose = reader;
+            reader = null;
+            toclose.close();
+        }
+    }
+}
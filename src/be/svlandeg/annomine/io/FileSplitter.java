@@ -0,0 +1,287 @@
+package be.svlandeg.annomine.io;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits one big file, ordered by query gene, into byte ranges that can be read independently.
+ * The edges of the ranges are moved to the next line where the query gene changes, so that all descriptions of one query gene end up in the same range.
+ *
+ * @author Sofie Van Landeghem
+ */
+public class FileSplitter
+{
+
+    protected int query_col;
+
+    /**
+     * Create a splitter for tab-delimited files.
+     *
+     * @param query_col the column number that specifies the query gene (start counting columns from 0!)
+     */
+    public FileSplitter(int query_col)
+    {
+        this.query_col = query_col;
+    }
+
+    /**
+     * Split a file into (at most) the given number of ranges, of about equal size.
+     * Ranges are returned in the order of the file, as pairs of a start and end position (exclusive).
+     *
+     * @param file the input file
+     * @param nr the number of ranges
+     * @return the list of ranges, covering the whole file
+     * @throws IOException when the input file could not be read
+     */
+    public List<long[]> split(File file, int nr) throws IOException
+    {
+        long size = file.length();
+        List<long[]> ranges = new ArrayList<long[]>();
+        long start = 0;
+        for (int i = 1; i < nr && start < size; i++)
+        {
+            long target = Math.max(start, size * i / nr);
+            long end = nextQueryStart(file, target, size);
+            if (end > start && end < size)
+            {
+                ranges.add(new long[] { start, end });
+                start = end;
+            }
+        }
+        if (start < size || ranges.isEmpty())
+        {
+            ranges.add(new long[] { start, size });
+        }
+        return ranges;
+    }
+
+    /**
+     * Find the positions at which the description batches of a range of a file start: the first line of the range with a query gene,
+     * and each line where the query gene differs from the one on the line before it. These are the first lines of the batches that a
+     * {@link ConcatenatedFileReader} returns for the range. Header lines and empty lines are skipped, as when splitting.
+     * The query genes are compared as bytes, without converting the lines to strings.
+     *
+     * @param file the input file, which should not be compressed
+     * @param start the position of the first byte of the range, which should be the start of a line
+     * @param end the position after the last byte of the range
+     * @return the start positions of the batches, in the order of the file
+     * @throws IOException when the input file could not be read
+     */
+    public long[] queryStarts(File file, long start, long end) throws IOException
+    {
+        long[] starts = new long[16];
+        int nr = 0;
+        InputStream in = new RangeInputStream(file, start, end);
+        try
+        {
+            byte[] buffer = new byte[1 << 16];
+            byte[] line = new byte[256];
+            int length = 0;
+            int[] query = new int[2];
+            byte[] previous = null;
+            long pos = start;
+            long linestart = start;
+            int read;
+            while ((read = in.read(buffer)) >= 0)
+            {
+                for (int i = 0; i < read; i++)
+                {
+                    if (buffer[i] != '\n')
+                    {
+                        if (length == line.length)
+                        {
+                            line = Arrays.copyOf(line, length * 2);
+                        }
+                        line[length++] = buffer[i];
+                        continue;
+                    }
+                    if (queryColumn(line, length, query) && !equals(previous, line, query))
+                    {
+                        previous = Arrays.copyOfRange(line, query[0], query[1]);
+                        if (nr == starts.length)
+                        {
+                            starts = Arrays.copyOf(starts, nr * 2);
+                        }
+                        starts[nr++] = linestart;
+                    }
+                    length = 0;
+                    linestart = pos + i + 1;
+                }
+                pos += read;
+            }
+            // the last line does not need to end with a newline
+            if (queryColumn(line, length, query) && !equals(previous, line, query))
+            {
+                starts = Arrays.copyOf(starts, nr + 1);
+                starts[nr++] = linestart;
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        return Arrays.copyOf(starts, nr);
+    }
+
+    /**
+     * Find the query gene column of a line of bytes, as {@link Input} finds it in the line (columns are separated by one or more tabs).
+     * Return false for empty lines, header lines and lines without that column.
+     */
+    private boolean queryColumn(byte[] line, int length, int[] query)
+    {
+        if (length > 0 && line[length - 1] == '\r')
+        {
+            length--;
+        }
+        if (length == 0 || isHeader(line, length))
+        {
+            return false;
+        }
+        int col = 0;
+        int i = 0;
+        while (i < length)
+        {
+            while (i < length && line[i] == '\t')
+            {
+                i++;
+            }
+            if (i >= length)
+            {
+                break;
+            }
+            int colstart = i;
+            while (i < length && line[i] != '\t')
+            {
+                i++;
+            }
+            if (col++ == query_col)
+            {
+                query[0] = colstart;
+                query[1] = i;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check whether a line of bytes starts with "querylocus", ignoring the case.
+     */
+    private static boolean isHeader(byte[] line, int length)
+    {
+        String header = "querylocus";
+        if (length < header.length())
+        {
+            return false;
+        }
+        for (int i = 0; i < header.length(); i++)
+        {
+            byte b = line[i];
+            if (b >= 'A' && b <= 'Z')
+            {
+                b += 'a' - 'A';
+            }
+            if (b != header.charAt(i))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check whether a query gene equals the bytes query[0]..query[1] of a line.
+     */
+    private static boolean equals(byte[] previous, byte[] line, int[] query)
+    {
+        if (previous == null || previous.length != query[1] - query[0])
+        {
+            return false;
+        }
+        for (int i = 0; i < previous.length; i++)
+        {
+            if (previous[i] != line[query[0] + i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the first line at or after the given position where the query gene differs from the one on the line before it.
+     * Return the size of the file when there is no such line.
+     */
+    private long nextQueryStart(File file, long position, long size) throws IOException
+    {
+        if (position <= 0)
+        {
+            return 0;
+        }
+        InputStream in = new BufferedInputStream(new RangeInputStream(file, position - 1, size));
+        Input input = new Input(null);
+        try
+        {
+            // move to the start of the next line, unless the position is already at the start of a line
+            long pos = position - 1;
+            int b = in.read();
+            pos++;
+            while (b >= 0 && b != '\n')
+            {
+                b = in.read();
+                pos++;
+            }
+            if (b < 0)
+            {
+                return size;
+            }
+            String previous = null;
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            while (true)
+            {
+                long linestart = pos;
+                line.reset();
+                b = in.read();
+                while (b >= 0 && b != '\n')
+                {
+                    line.write(b);
+                    b = in.read();
+                    pos++;
+                }
+                if (b < 0 && line.size() == 0)
+                {
+                    return size;
+                }
+                pos++;
+                String text = line.toString();
+                if (text.endsWith("\r"))
+                {
+                    text = text.substring(0, text.length() - 1);
+                }
+                if (!text.isEmpty() && !text.toLowerCase().startsWith("querylocus"))
+                {
+                    String query = input.readQuery(text, query_col);
+                    if (previous != null && !previous.equals(query))
+                    {
+                        return linestart;
+                    }
+                    previous = query;
+                }
+                if (b < 0)
+                {
+                    return size;
+                }
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package be.svlandeg.annomine.io;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Recognizes gzip-compressed input files, and opens them so that they can be read as if they were not compressed.
+ * Files in the BGZF format (gzip members of at most 64 KB, each with their compressed size in the header) can be decompressed on several threads at the same time.
+ *
+ * @author Sofie Van Landeghem
+ */
+public class GzipFiles
+{
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Check whether a file starts with the gzip magic number.
+     *
+     * @param file the input file
+     * @return whether the file is gzip-compressed
+     * @throws IOException when the input file could not be read
+     */
+    public static boolean isGzip(File file) throws IOException
+    {
+        byte[] header = readHeader(file, 2);
+        return header != null && (header[0] & 0xff) == 0x1f && (header[1] & 0xff) == 0x8b;
+    }
+
+    /**
+     * Check whether a file starts with a BGZF block: a gzip member with a 'BC' extra field that contains the size of the block.
+     *
+     * @param file the input file
+     * @return whether the file is block-gzipped
+     * @throws IOException when the input file could not be read
+     */
+    public static boolean isBgzf(File file) throws IOException
+    {
+        byte[] header = readHeader(file, BgzfInputStream.HEADER_SIZE);
+        return header != null && BgzfInputStream.isBgzfHeader(header);
+    }
+
+    /**
+     * Open a file for reading, decompressing it on the fly when it is gzip-compressed.
+     *
+     * @param file the input file
+     * @param threads the number of threads that decompress a BGZF file; with only one thread, BGZF files are read as regular gzip files
+     * @return a stream of the (decompressed) bytes of the file
+     * @throws IOException when the input file could not be opened
+     */
+    public static InputStream open(File file, int threads) throws IOException
+    {
+        if (threads > 1 && isBgzf(file))
+        {
+            return new BgzfInputStream(file, threads);
+        }
+        if (isGzip(file))
+        {
+            return new GZIPInputStream(new FileInputStream(file), BUFFER_SIZE);
+        }
+        return new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+    }
+
+    /**
+     * Read the first bytes of a file, or return null when the file is shorter than that.
+     */
+    private static byte[] readHeader(File file, int length) throws IOException
+    {
+        byte[] header = new byte[length];
+        InputStream in = new FileInputStream(file);
+        try
+        {
+            int read = 0;
+            while (read < length)
+            {
+                int n = in.read(header, read, length - read);
+                if (n < 0)
+                {
+                    return null;
+                }
+                read += n;
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        return header;
+    }
+}
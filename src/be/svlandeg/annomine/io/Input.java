@@ -1,12 +1,13 @@
 package be.svlandeg.annomine.io;
 
+import be.svlandeg.annomine.algorithms.MappingContext;
 import be.svlandeg.annomine.algorithms.TextMapping;
 import be.svlandeg.annomine.data.Description;
 
-import java.util.StringTokenizer;
-
 /**
- * Class that reads the input according to the specified parameters
+ * Class that reads the input according to the specified parameters.
+ * Each line is split only once into column offsets, which are reused by all columns read from that line: 
+ * an Input object is therefore not thread-safe, and should be reused by one thread for consecutive lines.
  * @author Sofie Van Landeghem
  */
 public class Input
@@ -15,9 +16,34 @@ public class Input
 
     protected TextMapping tm;
 
+    /* the mapping into which the descriptions of the current batch are converted, or null to convert them without storing their original forms */
+    protected MappingContext mapping;
+
+    protected Preprocess pp;
+
+    /** EVALUE_THRESHOLDS[n] is the smallest e-value that reaches 1 when it is multiplied n times by 10 */
+    private static final double[] EVALUE_THRESHOLDS = evalueThresholds();
+
+    /* the line that was split last, and the offsets of its (non-empty) tab-delimited columns */
+    private String split_line;
+    private int[] col_starts = new int[32];
+    private int[] col_ends = new int[32];
+    private int cols;
+
     public Input(TextMapping tm)
     {
         this.tm = tm;
+        this.pp = new Preprocess();
+    }
+
+    /**
+     * Define the mapping into which the descriptions that are read next are converted, so that their original forms can be retrieved later on.
+     * 
+     * @param mapping the mapping context of the current batch, or null to only convert the descriptions
+     */
+    public void setMapping(MappingContext mapping)
+    {
+        this.mapping = mapping;
     }
 
     /**
@@ -78,7 +104,7 @@ public class Input
         String description = readColumn(line, description_col);
         description = preprocess(description, substrings, switchorder);
 
-        double score = Integer.parseInt(readColumn(line, score_col).trim());
+        double score = readIntColumn(line, score_col);
 
         return new Description(description, score);
     }
@@ -98,7 +124,7 @@ public class Input
         String description = readColumn(line, description_col);
         description = preprocess(description, substrings, switchorder);
 
-        double score = 1 - Integer.parseInt(readColumn(line, score_col).trim());
+        double score = 1 - readIntColumn(line, score_col);
 
         return new Description(description, score);
     }
@@ -120,8 +146,7 @@ public class Input
         description = readColumn(line, description_col);
         description = preprocess(description, substrings, switchorder);
 
-        String stringscore = readColumn(line, score_col).trim();
-        Double dscore = Double.parseDouble(stringscore);
+        double dscore = readDoubleColumn(line, score_col);
 
         String query = readColumn(line, query_col);
 
@@ -145,51 +170,212 @@ public class Input
         description = readColumn(line, description_col);
         description = preprocess(description, substrings, switchorder);
 
-        double score = default_score;
-        String stringscore = readColumn(line, score_col).trim();
-        if (Double.parseDouble(stringscore) == 0.0)
+        double score = scoreFromEvalue(readDoubleColumn(line, score_col));
+
+        String query = readColumn(line, query_col);
+        return new Description(description, score, query);
+    }
+
+    /**
+     * Create a description from columns that were already split off their tab-delimited line.
+     * @param description the original (unprocessed) description
+     * @param score the score of the description
+     * @param query the query gene, or null when unknown
+     * @param substrings define whether substrings should also be calculated and inserted in the internal mapping
+     * @param switchorder specifies whether the order of the words in the description line can be moved around, or not
+     * @return the functional description
+     */
+    public Description readFromColumns(String description, double score, String query, boolean substrings, boolean switchorder)
+    {
+        return new Description(preprocess(description, substrings, switchorder), score, query);
+    }
+
+    /**
+     * Calculate the score of a description from its e-value: an e-value of 0 gets the maximal score (250), 
+     * otherwise the score grows with the number of orders of magnitude the e-value is below 1.
+     * @param evalue the e-value
+     * @return the score
+     */
+    public double scoreFromEvalue(double evalue)
+    {
+        if (evalue == 0.0)
+        {
+            return 250.0;
+        }
+        if (!(evalue < 1))
         {
-            score = 250.0;
+            return default_score;
         }
-        else
+        // look up the number of multiplications by 10 that are needed to reach 1
+        int low = 1;
+        int high = EVALUE_THRESHOLDS.length - 1;
+        while (low < high)
         {
-            double evalue = Double.parseDouble(stringscore);
-            while (evalue < 1)
+            int mid = (low + high) >>> 1;
+            if (evalue >= EVALUE_THRESHOLDS[mid])
             {
-                evalue *= 10;
-                score++;
+                high = mid;
+            }
+            else
+            {
+                low = mid + 1;
             }
         }
+        return default_score + low;
+    }
 
-        String query = readColumn(line, query_col);
-        return new Description(description, score, query);
+    /**
+     * Count the number of times an e-value has to be multiplied by 10 before it reaches 1.
+     */
+    private static int multiplications(double evalue)
+    {
+        int n = 0;
+        while (evalue < 1)
+        {
+            evalue *= 10;
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Calculate the smallest e-value that reaches 1 in n multiplications by 10, for all possible n.
+     * The rounding of each multiplication is taken into account, so that a lookup in this table gives the same result as multiplying.
+     */
+    private static double[] evalueThresholds()
+    {
+        int max = multiplications(Double.MIN_VALUE);
+        double[] thresholds = new double[max + 1];
+        thresholds[0] = 1.0;
+        for (int n = 1; n <= max; n++)
+        {
+            // the number of multiplications never grows with the e-value, and positive doubles are ordered like their bit patterns
+            long low = 1;
+            long high = Double.doubleToLongBits(thresholds[n - 1]);
+            while (low < high)
+            {
+                long mid = (low + high) >>> 1;
+                if (multiplications(Double.longBitsToDouble(mid)) <= n)
+                {
+                    high = mid;
+                }
+                else
+                {
+                    low = mid + 1;
+                }
+            }
+            thresholds[n] = Double.longBitsToDouble(low);
+        }
+        return thresholds;
+    }
+
+    /**
+     * Read the query gene from a tab delimited line, without processing the rest of the line.
+     * @param line the tab-delimited line
+     * @param query_col the column number that specifies the query gene (start counting columns from 0!)
+     * @return the query gene
+     * @throws java.lang.IllegalArgumentException when an invalid column index is encountered
+     */
+    public String readQuery(String line, int query_col) throws IllegalArgumentException
+    {
+        return readColumn(line, query_col);
+    }
+
+    /**
+     * Split a line into the offsets of its (non-empty) tab-delimited columns, unless this line was already split last time.
+     */
+    private void split(String line)
+    {
+        if (line == split_line)
+        {
+            return;
+        }
+        cols = 0;
+        int length = line.length();
+        int i = 0;
+        while (i < length)
+        {
+            while (i < length && line.charAt(i) == '\t')
+            {
+                i++;
+            }
+            if (i >= length)
+            {
+                break;
+            }
+            if (cols == col_starts.length)
+            {
+                int[] new_starts = new int[cols * 2];
+                int[] new_ends = new int[cols * 2];
+                System.arraycopy(col_starts, 0, new_starts, 0, cols);
+                System.arraycopy(col_ends, 0, new_ends, 0, cols);
+                col_starts = new_starts;
+                col_ends = new_ends;
+            }
+            col_starts[cols] = i;
+            while (i < length && line.charAt(i) != '\t')
+            {
+                i++;
+            }
+            col_ends[cols++] = i;
+        }
+        split_line = line;
     }
 
     /**
      * This method checks whether the given col integer is valid and throws an IllegalArgumentException otherwise
      */
-    private String readColumn(String line, int col) throws IllegalArgumentException
+    private boolean checkColumn(String line, int col) throws IllegalArgumentException
     {
-        StringTokenizer stok = new StringTokenizer(line, "\t");
-        int cols = stok.countTokens();
+        split(line);
         if (col >= cols)
         {
             throw new IllegalArgumentException("  ! " + col + " is not a valid column (total columns: " + cols + ")");
         }
-        int nr = 0;
-        while (stok.hasMoreTokens())
+        if (col < 0)
         {
-            String token = stok.nextToken();
-            if (nr == col)
-            {
-                return token;
-            }
-            nr++;
+            System.out.println(" ! This should never happen");
+            System.out.println("   line : " + line);
+            System.out.println("   col : " + col);
+            return false;
         }
-        System.out.println(" ! This should never happen");
-        System.out.println("   line : " + line);
-        System.out.println("   col : " + col);
-        return null;
+        return true;
+    }
+
+    /**
+     * Return the content of a column. This method checks whether the given col integer is valid and throws an IllegalArgumentException otherwise
+     */
+    private String readColumn(String line, int col) throws IllegalArgumentException
+    {
+        if (!checkColumn(line, col))
+        {
+            return null;
+        }
+        return line.substring(col_starts[col], col_ends[col]);
+    }
+
+    /**
+     * Parse a column as a double, without cutting it out of the line first.
+     */
+    private double readDoubleColumn(String line, int col) throws IllegalArgumentException, NumberFormatException
+    {
+        if (!checkColumn(line, col))
+        {
+            throw new IllegalArgumentException("  ! " + col + " is not a valid column for a score");
+        }
+        return NumberParser.parseDouble(line, col_starts[col], col_ends[col]);
+    }
+
+    /**
+     * Parse a column as an int, without cutting it out of the line first.
+     */
+    private int readIntColumn(String line, int col) throws IllegalArgumentException, NumberFormatException
+    {
+        if (!checkColumn(line, col))
+        {
+            throw new IllegalArgumentException("  ! " + col + " is not a valid column for a score");
+        }
+        return NumberParser.parseInt(line, col_starts[col], col_ends[col]);
     }
 
     /**
@@ -197,14 +383,17 @@ public class Input
      */
     private String preprocess(String line, boolean substrings, boolean switchorder)
     {
-        Preprocess pp = new Preprocess();
         String convertedline = pp.removeBraces(line);
         convertedline = pp.removeStopWords(convertedline);
         convertedline = pp.convertToMeta(convertedline);
         convertedline = convertedline.trim();
-        if (tm != null)
+        if (mapping != null)
+        {
+            convertedline = mapping.convert(convertedline, substrings, switchorder);
+        }
+        else if (tm != null)
         {
-            convertedline = tm.convert(convertedline, substrings, switchorder);
+            convertedline = tm.convert(convertedline, switchorder);
         }
         return convertedline;
     }
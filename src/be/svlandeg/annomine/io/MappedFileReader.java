@@ -0,0 +1,248 @@
+package be.svlandeg.annomine.io;
+
+import be.svlandeg.annomine.algorithms.TextMapping;
+import be.svlandeg.annomine.data.Description;
+import be.svlandeg.annomine.data.DescriptionsList;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * This reader reads the same tab-delimited files as {@link ConcatenatedFileReader} and {@link SeparateFileReader}, but through a {@link MappedTabParser}.
+ * Lines are never decoded as a whole: the query gene is compared on its raw bytes, the score is parsed from the bytes, and only the description itself is turned into a String.
+ * Gzip-compressed files can not be memory-mapped, and are read line by line as in {@link ConcatenatedFileReader}.
+ *
+ * @author Sofie Van Landeghem
+ */
+public class MappedFileReader extends ConcatenatedFileReader
+{
+
+    /** the name given to all descriptions when there is no query column, as with {@link SeparateFileReader} */
+    protected String name;
+
+    protected MappedTabParser parser;
+    protected boolean pending;          // whether the current line of the parser is the first line of the next query gene
+
+    private byte[] query_bytes = new byte[64];
+    private int query_length;
+
+    /**
+     * Create a reader object that will read Description batches from one file containing all query genes, like {@link ConcatenatedFileReader}.
+     *
+     * @param tm the object that deals with text variation
+     * @param evalue_col the column number that specifies the e-value (start counting columns from 0!)
+     * @param score_col the column number that specifies the score (start counting columns from 0!)
+     * @param description_col the column number that specifies the description itself (start counting columns from 0!)
+     * @param query_col the column number that specifies the query gene (start counting columns from 0!)
+     */
+    public MappedFileReader(TextMapping tm, int evalue_col, int score_col, int description_col, int query_col)
+    {
+        super(tm, evalue_col, score_col, description_col, query_col);
+    }
+
+    /**
+     * Create a reader object that will read Description batches from separate files, like {@link SeparateFileReader}.
+     *
+     * @param tm the object that deals with text variation
+     * @param evalue_col the column number that specifies the e-value (start counting columns from 0!)
+     * @param score_col the column number that specifies the score (start counting columns from 0!)
+     * @param description_col the column number that specifies the description itself (start counting columns from 0!)
+     * @param name the name of the query gene
+     */
+    public MappedFileReader(TextMapping tm, int evalue_col, int score_col, int description_col, String name)
+    {
+        this(tm, evalue_col, score_col, description_col, -1);
+        this.name = name;
+    }
+
+    @Override
+    protected Reader copy()
+    {
+        if (query_col < 0)
+        {
+            return new MappedFileReader(tm, evalue_col, score_col, description_col, name);
+        }
+        return new MappedFileReader(tm, evalue_col, score_col, description_col, query_col);
+    }
+
+    @Override
+    protected String getSettings()
+    {
+        if (query_col < 0)
+        {
+            return super.getSettings() + ";name=" + name;
+        }
+        return super.getSettings();
+    }
+
+    @Override
+    public Description readDescription(String line, boolean substrings, boolean switchorder) throws IllegalArgumentException
+    {
+        if (query_col < 0 && score_col >= 0)
+        {
+            // as in SeparateFileReader, the score of a file without query column is an int
+            Description dl = getInput().readScoredFromTab(line, score_col, description_col, substrings, switchorder);
+            dl.setQuery(name);
+            return dl;
+        }
+        Description dl = super.readDescription(line, substrings, switchorder);
+        if (query_col < 0)
+        {
+            dl.setQuery(name);
+        }
+        return dl;
+    }
+
+    /**
+     * Read a functional description from the current line of the parser.
+     *
+     * @param query the query gene of this line (already known by the caller)
+     * @param substrings define whether substrings should also be calculated and inserted in the internal mapping
+     * @param switchorder decides whether the order of the words in the description line can be moved around
+     * @return the functional description
+     * @throws IllegalArgumentException when an invalid column index is encountered
+     */
+    protected Description readMappedDescription(String query, boolean substrings, boolean switchorder) throws IllegalArgumentException
+    {
+        Input input = getInput();
+        String description = parser.column(description_col);
+        double score = input.default_score;
+        if (score_col >= 0)
+        {
+            // parsed as by the line-based readers: an int without query column (SeparateFileReader), a double with one (ConcatenatedFileReader)
+            score = query_col < 0 ? parser.parseInt(score_col) : parser.parseDouble(score_col);
+        }
+        else if (evalue_col >= 0)
+        {
+            score = input.scoreFromEvalue(parser.parseDouble(evalue_col));
+        }
+        return input.readFromColumns(description, score, query, substrings, switchorder);
+    }
+
+    @Override
+    public DescriptionsList readList(File file, boolean firsttime, boolean switchorder, String newline) throws IOException, IllegalArgumentException
+    {
+        if (GzipFiles.isGzip(file))
+        {
+            return super.readList(file, firsttime, switchorder, newline);
+        }
+        DescriptionsList dl = new DescriptionsList(file.getName());
+        startMapping(dl);
+        open(file, newline);
+        try
+        {
+            while (parser.nextLine())
+            {
+                String query = name;
+                if (query_col >= 0)
+                {
+                    query = parser.column(query_col);
+                }
+                dl.addDescription(readMappedDescription(query, firsttime, switchorder));
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: Couldn't read " + file.getName() + newline);
+            System.out.println(e.getMessage() + newline);
+            throw (e);
+        }
+        finally
+        {
+            close();
+        }
+        return dl;
+    }
+
+    @Override
+    public void open(File file, long start, long end, String newline) throws IOException
+    {
+        close();
+        if (GzipFiles.isGzip(file))
+        {
+            super.open(file, start, end, newline);
+            return;
+        }
+        try
+        {
+            if (start < 0)
+            {
+                parser = new MappedTabParser(file);
+            }
+            else
+            {
+                parser = new MappedTabParser(file, start, end);
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: Couldn't read " + file.getName() + newline);
+            System.out.println(e.getMessage() + newline);
+            throw (e);
+        }
+        this.file = file;
+    }
+
+    @Override
+    public DescriptionsList readNextDescription(boolean substrings, boolean switchorder, String newline) throws IOException
+    {
+        if (parser == null)
+        {
+            return super.readNextDescription(substrings, switchorder, newline);
+        }
+        DescriptionsList dl = null;
+        try
+        {
+            boolean line = pending || parser.nextLine();
+            pending = false;
+            while (line)
+            {
+                if (!parser.startsWithIgnoreCase("querylocus"))
+                {
+                    if (dl == null)
+                    {
+                        String query = name;
+                        if (query_col >= 0)
+                        {
+                            query = parser.column(query_col);
+                            query_bytes = parser.copyColumn(query_col, query_bytes);
+                            query_length = parser.columnLength(query_col);
+                        }
+                        dl = new DescriptionsList(query);
+                        startMapping(dl);
+                    }
+                    else if (query_col >= 0 && !parser.columnEquals(query_col, query_bytes, query_length))
+                    {
+                        // we've reached the next query
+                        pending = true;
+                        return dl;
+                    }
+                    dl.addDescription(readMappedDescription(dl.getName(), substrings, switchorder));
+                }
+                line = parser.nextLine();
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: Couldn't read " + file.getName() + newline);
+            System.out.println(e.getMessage() + newline);
+            close();
+            throw (e);
+        }
+        close();
+        return dl;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        super.close();
+        pending = false;
+        if (parser != null)
+        {
+            MappedTabParser toclose = parser;
+            parser = null;
+            toclose.close();
+        }
+    }
+}
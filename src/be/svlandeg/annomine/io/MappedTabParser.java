@@ -0,0 +1,449 @@
+package be.svlandeg.annomine.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * This parser reads a tab-delimited file through a memory-mapped view of the file, instead of decoding each line into a String.
+ * The offsets of the tabs and newlines are found directly in the mapped bytes, and only the columns that are asked for are decoded.
+ *
+ * Columns are counted in the same way as a StringTokenizer on tabs would do: empty columns are skipped.
+ * Files larger than the maximal size of one mapping are mapped in consecutive segments, each starting at the beginning of a line.
+ *
+ * @author Sofie Van Landeghem
+ */
+public class MappedTabParser
+{
+
+    /** maximal number of bytes mapped at once */
+    protected static int segment_size = 1 << 30;
+
+    protected File file;
+    protected Charset charset;
+
+    protected RandomAccessFile raf;
+    protected FileChannel channel;
+    protected long size;                // the end of the parsed part of the file
+
+    protected MappedByteBuffer segment;
+    protected long segment_start;       // position of the current segment in the file
+    protected int position;             // position of the next line within the current segment
+
+    protected boolean skip_lf;          // whether the previous line ended with \r
+
+    protected int line_start;           // start of the current line within the current segment
+    protected int line_end;             // end of the current line (exclusive, without the line terminator)
+    protected int[] col_starts = new int[32];
+    protected int[] col_ends = new int[32];
+    protected int cols;
+
+    protected byte[] scratch = new byte[256];
+
+    /** a view on the current segment as (single-byte) characters, used to parse numbers */
+    protected CharSequence chars = new SegmentChars();
+
+    /**
+     * Open a file for parsing, decoding text columns with the platform's default charset.
+     *
+     * @param file the tab-delimited input file
+     * @throws IOException when the input file could not be opened or mapped
+     */
+    public MappedTabParser(File file) throws IOException
+    {
+        this(file, Charset.defaultCharset());
+    }
+
+    /**
+     * Open a file for parsing.
+     *
+     * @param file the tab-delimited input file
+     * @param charset the charset used to decode text columns
+     * @throws IOException when the input file could not be opened or mapped
+     */
+    public MappedTabParser(File file, Charset charset) throws IOException
+    {
+        this(file, charset, 0, -1);
+    }
+
+    /**
+     * Open a part of a file for parsing, decoding text columns with the platform's default charset.
+     *
+     * @param file the tab-delimited input file
+     * @param start the position of the first byte to parse, which should be the start of a line
+     * @param end the position after the last byte to parse, which should be the end of a line
+     * @throws IOException when the input file could not be opened or mapped
+     */
+    public MappedTabParser(File file, long start, long end) throws IOException
+    {
+        this(file, Charset.defaultCharset(), start, end);
+    }
+
+    /**
+     * Open a part of a file for parsing.
+     *
+     * @param file the tab-delimited input file
+     * @param charset the charset used to decode text columns
+     * @param start the position of the first byte to parse, which should be the start of a line
+     * @param end the position after the last byte to parse, which should be the end of a line, or -1 for the end of the file
+     * @throws IOException when the input file could not be opened or mapped
+     */
+    public MappedTabParser(File file, Charset charset, long start, long end) throws IOException
+    {
+        this.file = file;
+        this.charset = charset;
+        raf = new RandomAccessFile(file, "r");
+        channel = raf.getChannel();
+        size = channel.size();
+        if (end >= 0 && end < size)
+        {
+            size = end;     // everything after this position is treated as if the file ends here
+        }
+        map(Math.min(start, size));
+    }
+
+    /**
+     * Map the next segment of the file, starting at the given position.
+     */
+    private void map(long start) throws IOException
+    {
+        segment_start = start;
+        segment = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(segment_size, size - start));
+        position = 0;
+    }
+
+    /**
+     * Move to the next line of the file, splitting it into its (non-empty) columns.
+     *
+     * @return false when the end of the file was reached
+     * @throws IOException when the next segment of the file could not be mapped
+     */
+    public boolean nextLine() throws IOException
+    {
+        if (!ensureData())
+        {
+            return false;
+        }
+        if (skip_lf)
+        {
+            // the previous line ended with \r : a directly following \n belongs to the same line terminator
+            skip_lf = false;
+            if (segment.get(position) == '\n')
+            {
+                position++;
+                if (!ensureData())
+                {
+                    return false;
+                }
+            }
+        }
+        int limit = segment.limit();
+        int i = position;
+        cols = 0;
+        boolean incol = false;
+        while (true)
+        {
+            if (i >= limit)
+            {
+                if (segment_start + limit < size)
+                {
+                    if (position == 0)
+                    {
+                        throw new IOException("Line longer than " + segment_size + " bytes in " + file.getName());
+                    }
+                    // the line continues in the next segment: map again from the start of this line
+                    map(segment_start + position);
+                    return nextLine();
+                }
+                break;
+            }
+            byte b = segment.get(i);
+            if (b == '\n' || b == '\r')
+            {
+                break;
+            }
+            if (b == '\t')
+            {
+                if (incol)
+                {
+                    col_ends[cols++] = i;
+                    incol = false;
+                }
+            }
+            else if (!incol)
+            {
+                if (cols == col_starts.length)
+                {
+                    growColumns();
+                }
+                col_starts[cols] = i;
+                incol = true;
+            }
+            i++;
+        }
+        if (incol)
+        {
+            col_ends[cols++] = i;
+        }
+        line_start = position;
+        line_end = i;
+        if (i < limit)
+        {
+            skip_lf = segment.get(i) == '\r';
+            i++;
+        }
+        position = i;
+        return true;
+    }
+
+    /**
+     * Make sure the current segment has unread bytes, mapping the next segment when needed.
+     * Return false when the end of the file was reached.
+     */
+    private boolean ensureData() throws IOException
+    {
+        int limit = segment.limit();
+        if (position < limit)
+        {
+            return true;
+        }
+        if (segment_start + limit >= size)
+        {
+            return false;
+        }
+        map(segment_start + limit);
+        return true;
+    }
+
+    private void growColumns()
+    {
+        int[] new_starts = new int[col_starts.length * 2];
+        int[] new_ends = new int[col_ends.length * 2];
+        System.arraycopy(col_starts, 0, new_starts, 0, cols);
+        System.arraycopy(col_ends, 0, new_ends, 0, cols);
+        col_starts = new_starts;
+        col_ends = new_ends;
+    }
+
+    /**
+     * Return the number of (non-empty) columns on the current line.
+     *
+     * @return the number of columns
+     */
+    public int columnCount()
+    {
+        return cols;
+    }
+
+    /**
+     * Check whether the current line starts with the given (lower case, ASCII) prefix, ignoring case.
+     *
+     * @param prefix the lower case prefix
+     * @return whether the line starts with this prefix
+     */
+    public boolean startsWithIgnoreCase(String prefix)
+    {
+        int length = prefix.length();
+        if (line_end - line_start < length)
+        {
+            return false;
+        }
+        for (int i = 0; i < length; i++)
+        {
+            int b = segment.get(line_start + i);
+            if (b >= 'A' && b <= 'Z')
+            {
+                b += 'a' - 'A';
+            }
+            if (b != prefix.charAt(i))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return the current line as a String (only needed for error messages or the slow path).
+     *
+     * @return the current line
+     */
+    public String line()
+    {
+        return decode(line_start, line_end);
+    }
+
+    /**
+     * Decode a column of the current line into a String.
+     *
+     * @param col the column number (start counting columns from 0!)
+     * @return the content of the column
+     * @throws IllegalArgumentException when an invalid column index is encountered
+     */
+    public String column(int col) throws IllegalArgumentException
+    {
+        checkColumn(col);
+        return decode(col_starts[col], col_ends[col]);
+    }
+
+    /**
+     * Check whether a column of the current line contains exactly the given bytes.
+     *
+     * @param col the column number (start counting columns from 0!)
+     * @param bytes the bytes to compare with
+     * @param length the number of valid bytes in the array
+     * @return whether the column content equals these bytes
+     * @throws IllegalArgumentException when an invalid column index is encountered
+     */
+    public boolean columnEquals(int col, byte[] bytes, int length) throws IllegalArgumentException
+    {
+        checkColumn(col);
+        int start = col_starts[col];
+        if (col_ends[col] - start != length)
+        {
+            return false;
+        }
+        for (int i = 0; i < length; i++)
+        {
+            if (segment.get(start + i) != bytes[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copy the raw bytes of a column of the current line into the given array, growing it when needed.
+     *
+     * @param col the column number (start counting columns from 0!)
+     * @param bytes the array to copy into
+     * @return the array holding the bytes (the given one, or a bigger copy)
+     * @throws IllegalArgumentException when an invalid column index is encountered
+     */
+    public byte[] copyColumn(int col, byte[] bytes) throws IllegalArgumentException
+    {
+        checkColumn(col);
+        int length = columnLength(col);
+        byte[] result = bytes;
+        if (result == null || result.length < length)
+        {
+            result = new byte[length];
+        }
+        for (int i = 0; i < length; i++)
+        {
+            result[i] = segment.get(col_starts[col] + i);
+        }
+        return result;
+    }
+
+    /**
+     * Return the number of bytes in a column of the current line.
+     *
+     * @param col the column number (start counting columns from 0!)
+     * @return the length of the column in bytes
+     * @throws IllegalArgumentException when an invalid column index is encountered
+     */
+    public int columnLength(int col) throws IllegalArgumentException
+    {
+        checkColumn(col);
+        return col_ends[col] - col_starts[col];
+    }
+
+    /**
+     * Parse a column of the current line as a double, directly from the mapped bytes.
+     * Surrounding spaces are ignored, and the result is always the same as with {@link Double#parseDouble(String)}.
+     *
+     * @param col the column number (start counting columns from 0!)
+     * @return the parsed number
+     * @throws IllegalArgumentException when an invalid column index is encountered
+     * @throws NumberFormatException when the column does not contain a number
+     */
+    public double parseDouble(int col) throws IllegalArgumentException, NumberFormatException
+    {
+        checkColumn(col);
+        return NumberParser.parseDouble(chars, col_starts[col], col_ends[col]);
+    }
+
+    /**
+     * Parse a column of the current line as an int, directly from the mapped bytes.
+     * Surrounding spaces are ignored, and the result is always the same as with {@link Integer#parseInt(String)}.
+     *
+     * @param col the column number (start counting columns from 0!)
+     * @return the parsed number
+     * @throws IllegalArgumentException when an invalid column index is encountered
+     * @throws NumberFormatException when the column does not contain an int
+     */
+    public int parseInt(int col) throws IllegalArgumentException, NumberFormatException
+    {
+        checkColumn(col);
+        return NumberParser.parseInt(chars, col_starts[col], col_ends[col]);
+    }
+
+    /**
+     * This method checks whether the given col integer is valid and throws an IllegalArgumentException otherwise
+     */
+    private void checkColumn(int col) throws IllegalArgumentException
+    {
+        if (col < 0 || col >= cols)
+        {
+            throw new IllegalArgumentException("  ! " + col + " is not a valid column (total columns: " + cols + ")");
+        }
+    }
+
+    /**
+     * Decode a byte range of the current segment into a String.
+     */
+    private String decode(int start, int end)
+    {
+        int length = end - start;
+        if (scratch.length < length)
+        {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        for (int i = 0; i < length; i++)
+        {
+            scratch[i] = segment.get(start + i);
+        }
+        return new String(scratch, 0, length, charset);
+    }
+
+    /**
+     * Close the underlying file. The mapped segment remains valid until it is garbage collected.
+     *
+     * @throws IOException when the input file could not be closed properly
+     */
+    public void close() throws IOException
+    {
+        channel.close();
+        raf.close();
+    }
+
+    /**
+     * Shows the bytes of the current segment as characters. This is only correct for ASCII content, which is all that is needed for numbers:
+     * anything that is not a digit makes {@link NumberParser} fall back to a decoded String.
+     */
+    private class SegmentChars implements CharSequence
+    {
+        @Override
+        public int length()
+        {
+            return segment.limit();
+        }
+
+        @Override
+        public char charAt(int index)
+        {
+            return (char) (segment.get(index) & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end)
+        {
+            return decode(start, end);
+        }
+    }
+}
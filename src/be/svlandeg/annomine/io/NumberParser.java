@@ -0,0 +1,159 @@
+package be.svlandeg.annomine.io;
+
+/**
+ * Parses numbers directly from a range of characters, without first cutting that range out into a new String.
+ * The results are always identical to those of {@link Double#parseDouble(String)} and {@link Integer#parseInt(String)} on the trimmed range:
+ * numbers that can not be converted exactly by the fast path are handed to those methods.
+ *
+ * @author Sofie Van Landeghem
+ */
+public class NumberParser
+{
+
+    /** exact powers of ten, used to parse numbers without going through a String */
+    private static final double[] POWERS = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    /**
+     * Parse a range of characters as a double. Surrounding whitespace is ignored, as with {@link String#trim()}.
+     *
+     * @param s the characters
+     * @param start the start of the range
+     * @param end the end of the range (exclusive)
+     * @return the parsed number
+     * @throws NumberFormatException when the range does not contain a number
+     */
+    public static double parseDouble(CharSequence s, int start, int end) throws NumberFormatException
+    {
+        while (start < end && s.charAt(start) <= ' ')
+        {
+            start++;
+        }
+        while (end > start && s.charAt(end - 1) <= ' ')
+        {
+            end--;
+        }
+        int i = start;
+        boolean negative = false;
+        if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+'))
+        {
+            negative = s.charAt(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean anydigit = false;
+        char c;
+        while (i < end && (c = s.charAt(i)) >= '0' && c <= '9')
+        {
+            if (mantissa != 0 || c != '0')
+            {
+                digits++;
+            }
+            mantissa = mantissa * 10 + (c - '0');
+            anydigit = true;
+            i++;
+        }
+        if (i < end && s.charAt(i) == '.')
+        {
+            i++;
+            while (i < end && (c = s.charAt(i)) >= '0' && c <= '9')
+            {
+                if (mantissa != 0 || c != '0')
+                {
+                    digits++;
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                exponent--;
+                anydigit = true;
+                i++;
+            }
+        }
+        if (anydigit && i < end && (s.charAt(i) == 'e' || s.charAt(i) == 'E'))
+        {
+            i++;
+            boolean negexp = false;
+            if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+'))
+            {
+                negexp = s.charAt(i) == '-';
+                i++;
+            }
+            int exp = 0;
+            boolean anyexp = false;
+            while (i < end && (c = s.charAt(i)) >= '0' && c <= '9' && exp < 10000)
+            {
+                exp = exp * 10 + (c - '0');
+                anyexp = true;
+                i++;
+            }
+            if (!anyexp)
+            {
+                return Double.parseDouble(s.subSequence(start, end).toString());
+            }
+            exponent += negexp ? -exp : exp;
+        }
+        if (anydigit && i == end && mantissa == 0)
+        {
+            return negative ? -0.0 : 0.0;
+        }
+        // only when mantissa and power of ten are both exact, one multiplication or division gives the correctly rounded result
+        if (!anydigit || i != end || digits > 15 || exponent < -22 || exponent > 22)
+        {
+            return Double.parseDouble(s.subSequence(start, end).toString());
+        }
+        double value = mantissa;
+        if (exponent < 0)
+        {
+            value = value / POWERS[-exponent];
+        }
+        else
+        {
+            value = value * POWERS[exponent];
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parse a range of characters as an int. Surrounding whitespace is ignored, as with {@link String#trim()}.
+     *
+     * @param s the characters
+     * @param start the start of the range
+     * @param end the end of the range (exclusive)
+     * @return the parsed number
+     * @throws NumberFormatException when the range does not contain an int
+     */
+    public static int parseInt(CharSequence s, int start, int end) throws NumberFormatException
+    {
+        while (start < end && s.charAt(start) <= ' ')
+        {
+            start++;
+        }
+        while (end > start && s.charAt(end - 1) <= ' ')
+        {
+            end--;
+        }
+        int i = start;
+        boolean negative = false;
+        if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+'))
+        {
+            negative = s.charAt(i) == '-';
+            i++;
+        }
+        // up to 9 digits can never overflow
+        if (i == end || end - i > 9)
+        {
+            return Integer.parseInt(s.subSequence(start, end).toString());
+        }
+        int value = 0;
+        for (; i < end; i++)
+        {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9')
+            {
+                return Integer.parseInt(s.subSequence(start, end).toString());
+            }
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+}
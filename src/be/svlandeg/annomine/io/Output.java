@@ -1,12 +1,13 @@
 package be.svlandeg.annomine.io;
 
-import be.svlandeg.annomine.algorithms.TextMapping;
+import be.svlandeg.annomine.algorithms.MappingContext;
 
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.Set;
 import java.util.SortedMap;
 
@@ -24,6 +25,7 @@ public class Output
 	protected int weightCutoff;
 	private boolean debug = false;
 	private String newline;
+	private String lineSeparator = System.getProperty("line.separator");
 
 	/**
 	 * Create a new output object with a certain weight cutoff and a newline character for printing
@@ -41,7 +43,7 @@ public class Output
 	 * Print all the n-grams in the collection, either to an output fill or to the standard output stream.
 	 * Don't print the ones with scores less than the cutoff, or with scores (removefactor) times lower than the highest score n-gram.
 	 * 
-	 * @param tm the object that deals with text variation
+	 * @param mapping the mapping of the converted descriptions of the query gene back to their original forms
 	 * @param outputfile the file to which to write the output, or null when it should be printed to System.out
 	 * @param query put null if you don't want the query to be printed
 	 * @param all_nGrams the n-grams that need to be printed
@@ -49,7 +51,7 @@ public class Output
 	 * @param nr specifies the maximum number of results printen
 	 * @throws IOException when a problem occurs writing the results to the output stream
 	 */
-	public void printBestResults(TextMapping tm, File outputfile, String query, SortedMap<Double, Set<String>> all_nGrams, boolean append, int nr) throws IOException
+	public void printBestResults(MappingContext mapping, File outputfile, String query, SortedMap<Double, Set<String>> all_nGrams, boolean append, int nr) throws IOException
 	{
 		BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(System.out));
 		if (outputfile != null)
@@ -57,7 +59,23 @@ public class Output
 			System.out.println("  printing to " + outputfile + newline);
 			writer = new BufferedWriter(new FileWriter(outputfile, append));
 		}
+		printBestResults(mapping, writer, query, all_nGrams, nr);
+		writer.close();
+	}
 
+	/**
+	 * Print all the n-grams in the collection to a writer, which is flushed but not closed afterwards.
+	 * Don't print the ones with scores less than the cutoff, or with scores (removefactor) times lower than the highest score n-gram.
+	 * 
+	 * @param mapping the mapping of the converted descriptions of the query gene back to their original forms
+	 * @param writer the writer to which to write the output
+	 * @param query put null if you don't want the query to be printed
+	 * @param all_nGrams the n-grams that need to be printed
+	 * @param nr specifies the maximum number of results printen
+	 * @throws IOException when a problem occurs writing the results to the output stream
+	 */
+	public void printBestResults(MappingContext mapping, Writer writer, String query, SortedMap<Double, Set<String>> all_nGrams, int nr) throws IOException
+	{
 		if (debug)
 		{
 			System.out.println(" Results:" + newline);
@@ -67,7 +85,6 @@ public class Output
 		if (all_nGrams.isEmpty())
 		{
 			System.out.println("   no results" + newline);
-			writer.close();
 			return;
 		}
 		//if (d > cutoff)
@@ -91,7 +108,7 @@ public class Output
 					}
 					if (written < nr)
 					{
-						String orig = tm.retrieveOriginal(s);
+						String orig = mapping.retrieveOriginal(s);
 						if (debug)
 						{
 							System.out.println("orig : " + orig + newline);
@@ -116,7 +133,7 @@ public class Output
 								{
 									writer.write(query + "\t");
 									writer.write(d + "\t" + postorig + newline);
-									writer.newLine();
+									writer.write(lineSeparator);
 									writer.flush();
 									written++;
 									if (debug)
@@ -149,11 +166,10 @@ public class Output
 		{
 			writer.write(query + "\t");
 			writer.write((weightCutoff + 1) + "\t" + "conserved unknown protein" + newline);
-			writer.newLine();
+			writer.write(lineSeparator);
 			writer.flush();
 			written++;
 		}
-		writer.close();
 		if (debug)
 		{
 			System.out.println(newline);
@@ -171,7 +171,7 @@ public class Postprocess
 	}
 
 	/**
-	 * Convert strange "meta" characters to their originales, such as "PLUS" to +
+	 * Convert strange "meta" characters to their originales, such as {@link Preprocess#PLUS} to +
 	 * See also {@link Preprocess#convertToMeta(String)}
 	 * 
 	 * @param line the original input line
@@ -179,9 +179,7 @@ public class Postprocess
 	 */
 	public String convertFromMeta(String line)
 	{
-		String convertedline = line.replace(Preprocess.plusMeta, "+");
-		convertedline = convertedline.replace(Preprocess.hyphenMeta, "-");
-		return convertedline;
+		return Preprocess.replace(line, Preprocess.PLUS, '+', Preprocess.HYPHEN, '-');
 	}
 
 }
@@ -1,7 +1,13 @@
 package be.svlandeg.annomine.io;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -15,8 +21,17 @@ import be.svlandeg.annomine.data.DescriptionsList;
 public class Preprocess
 {
 	
-	public static String hyphenMeta = "hyphen";
-	public static String plusMeta = "plus";
+	/** the letter that stands for a hyphen in a preprocessed description: like a word, it keeps the hyphenated words together as one token, but it does not make the description longer */
+	public static final char HYPHEN = '\u01C0';
+
+	/** the letter that stands for a plus sign in a preprocessed description */
+	public static final char PLUS = '\u01C2';
+
+	public static final String hyphenMeta = String.valueOf(HYPHEN);
+	public static final String plusMeta = String.valueOf(PLUS);
+
+	/* the words that are removed by removeStopWords, compiled once */
+	private static volatile WordLists wordLists = new WordLists(getStartStopWords(), getRemoveWords());
 	
 	/**
 	 * Remove the last part of the line which ends in [] 
@@ -37,7 +52,8 @@ public class Preprocess
     }
 
     /**
-     * Convert meaningful punctuation symbols such as + to their "meta" variants, such as "PLUS". This is needed to run the algorithm in an optimal fashion.
+     * Convert meaningful punctuation symbols such as + to their "meta" variants, such as {@link #PLUS}. This is needed to run the algorithm in an optimal fashion.
+     * Each symbol is replaced by one character, so the line keeps its length.
      * See also {@link Postprocess#convertFromMeta(String)}
      * 
      * @param line the original line
@@ -45,9 +61,37 @@ public class Preprocess
      */
     public String convertToMeta(String line)
     {
-        String convertedline = line.replace("+", plusMeta);
-        convertedline = convertedline.replace("-", hyphenMeta);
-        return convertedline;
+        return replace(line, '+', PLUS, '-', HYPHEN);
+    }
+
+    /**
+     * Replace two characters by two others in one pass over a line. Return the same string object when the line contains neither of them.
+     */
+    static String replace(String line, char first, char newfirst, char second, char newsecond)
+    {
+        int length = line.length();
+        int i = 0;
+        while (i < length && line.charAt(i) != first && line.charAt(i) != second)
+        {
+            i++;
+        }
+        if (i == length)
+        {
+            return line;
+        }
+        char[] chars = line.toCharArray();
+        for (; i < length; i++)
+        {
+            if (chars[i] == first)
+            {
+                chars[i] = newfirst;
+            }
+            else if (chars[i] == second)
+            {
+                chars[i] = newsecond;
+            }
+        }
+        return new String(chars);
     }
     
     /**
@@ -63,7 +107,7 @@ public class Preprocess
     	{
     		String line = desc.getDescription();
 	    	String convertedline = line;
-	        int hyphenIndex = convertedline.indexOf(hyphenMeta);
+	        int hyphenIndex = convertedline.indexOf(HYPHEN);
 	        while (hyphenIndex >= 0)
 	        {
 	        	int previousSpace = Math.max(convertedline.lastIndexOf(" ", hyphenIndex), 0);
@@ -96,15 +140,25 @@ public class Preprocess
 	        		conversions.put(concatWord, hyphenedWord);
 	        	}
 	        	
-	        	hyphenIndex = convertedline.indexOf('-', hyphenIndex+1);
+	        	hyphenIndex = convertedline.indexOf(HYPHEN, hyphenIndex+1);
 	        }
     	}
+    	// the conversions are still applied one after the other, but only when their word occurs in the (already converted) line:
+    	// one scan of the compiled conversions finds those words, and only a line that changed needs to be scanned again
+    	WordMatcher matcher = new WordMatcher(new ArrayList<String>(conversions.keySet()));
+    	List<String> words = matcher.getWords();
     	for (Description desc : dl.getDescriptions())
     	{
     		String line = desc.getDescription();
-    		for (String c : conversions.keySet())
+    		boolean[] found = matcher.find(line);
+    		for (int i = 0; i < words.size(); i++)
         	{
-        		line = line.replace(c, conversions.get(c));
+    			if (found[i])
+    			{
+    				String c = words.get(i);
+    				line = line.replace(c, conversions.get(c));
+    				found = matcher.find(line);
+    			}
         	}
     		desc.setDescription(line);
     	}
@@ -119,14 +173,15 @@ public class Preprocess
      */
     public String removeStopWords(String line)
     {
+        WordLists lists = wordLists;
         String convertedline = line;
         boolean go = true;
         while (go)
         {
             go = false;
-            for (String startStopword : getStartStopWords(true))
+            for (String startStopword : lists.startwords)
             {
-                if (convertedline.toLowerCase().startsWith(startStopword))
+                if (startsWithIgnoreCase(convertedline, startStopword))
                 {
                     int length = startStopword.length();
                     convertedline = convertedline.substring(length);
@@ -159,38 +214,127 @@ public class Preprocess
                     convertedline = convertedline.substring(0, firstindex);
                 }
             }
-            for (String removeword : getRemoveWords(false))
+            String removed = lists.removeWords(convertedline);
+            if (removed != convertedline)
+            {
+                go = true;
+                convertedline = removed;
+            }
+        }
+        return convertedline.trim();
+    }
+
+    /**
+     * Check whether a line starts with a lower-case word, ignoring the case of the line (as String.toLowerCase() would).
+     */
+    private boolean startsWithIgnoreCase(String line, String lowercaseword)
+    {
+        int length = lowercaseword.length();
+        if (line.length() < length)
+        {
+            return false;
+        }
+        for (int i = 0; i < length; i++)
+        {
+            char c = line.charAt(i);
+            if (c >= 128)
+            {
+                // the lower-case form of some characters has a different length
+                return line.toLowerCase().startsWith(lowercaseword);
+            }
+            if (c >= 'A' && c <= 'Z')
+            {
+                c = (char) (c + ('a' - 'A'));
+            }
+            if (c != lowercaseword.charAt(i))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Define the words that are removed by {@link #removeStopWords(String)}, for all Preprocess objects.
+     * 
+     * @param startwords the stop words that are removed at the beginning of a line (matched case-insensitive)
+     * @param removewords the words that are removed anywhere in a line (matched case-sensitive)
+     */
+    public static void setWordLists(List<String> startwords, List<String> removewords)
+    {
+        wordLists = new WordLists(startwords, removewords);
+    }
+
+    /**
+     * Read the words that are removed by {@link #removeStopWords(String)} from a file, for all Preprocess objects.
+     * The file contains one word per line, following a line '[start]' for the stop words at the beginning of a line, 
+     * or a line '[remove]' for the words that are removed anywhere in a line. Empty lines, and lines starting with '#', are skipped.
+     * 
+     * @param file the file with the word lists
+     * @throws IOException when the file could not be read
+     */
+    public static void readWordLists(File file) throws IOException
+    {
+        List<String> startwords = new ArrayList<String>();
+        List<String> removewords = new ArrayList<String>();
+        List<String> current = null;
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try
+        {
+            String line = reader.readLine();
+            while (line != null)
+            {
+                if (line.trim().equalsIgnoreCase("[start]"))
+                {
+                    current = startwords;
+                }
+                else if (line.trim().equalsIgnoreCase("[remove]"))
                 {
-                    if (convertedline.contains(removeword))
+                    current = removewords;
+                }
+                else if (line.length() > 0 && !line.startsWith("#"))
+                {
+                    if (current == null)
                     {
-                        go = true;
-                        convertedline = convertedline.replace(removeword, "").trim();
+                        throw new IOException("  ! " + file.getName() + " should contain a line [start] or [remove] before the first word");
                     }
+                    current.add(line);
                 }
+                line = reader.readLine();
+            }
         }
-        return convertedline.trim();
+        finally
+        {
+            reader.close();
+        }
+        setWordLists(startwords, removewords);
     }
 
     /**
-     * Return the list of possible stop words at the beginning of a line. 
-     * If the toLowerCase parameter is true, all words will be returned in lower-case form.
+     * Return a textual representation of the words that are removed by {@link #removeStopWords(String)}.
+     * 
+     * @return the current word lists
+     */
+    public static String getSettings()
+    {
+        WordLists lists = wordLists;
+        return "startwords=" + lists.startwords + ";removewords=" + lists.matcher.getWords();
+    }
+
+    /**
+     * Return the default list of possible stop words at the beginning of a line.
      */
-    private Set<String> getStartStopWords(boolean toLowerCase)
+    private static List<String> getStartStopWords()
     {
         Set<String> words = new HashSet<String>();
         words.add("predicted:");
-        if (toLowerCase)
-        {
-        	return toLowerCase(words);
-        }
-        return words;
+        return new ArrayList<String>(words);
     }
 
     /**
-     * Return the list of possible stop words at the end of a line.
-     * If the toLowerCase is true, all words will be returned in lower-case form.
+     * Return the default list of words that are removed anywhere in a line.
      */
-    private Set<String> getRemoveWords(boolean toLowerCase)
+    private static List<String> getRemoveWords()
     {
         Set<String> words = new HashSet<String>();
         words.add("RecName:");
@@ -199,24 +343,57 @@ public class Preprocess
         words.add("AltName:");
         words.add("Full=");
         words.add("(ISS)");
-        if (toLowerCase)
-        {
-        	return toLowerCase(words);
-        }
-        return words;
+        return new ArrayList<String>(words);
     }
-    
+
     /**
-     * Transform a set of strings with mixed casing to all lower-case strings.
+     * The compiled word lists of {@link #removeStopWords(String)}. These are never changed, so they can be shared between threads.
      */
-    private Set<String> toLowerCase(Set<String> originals)
+    private static class WordLists
     {
-    	Set<String> converted = new HashSet<String>();
-    	for (String s : originals)
-    	{
-    		converted.add(s.toLowerCase());
-    	}
-    	return converted;
-    }
+        protected List<String> startwords;
+        protected WordMatcher matcher;
+
+        protected WordLists(List<String> startwords, List<String> removewords)
+        {
+            this.startwords = new ArrayList<String>();
+            for (String word : startwords)
+            {
+                if (word.length() > 0)
+                {
+                    this.startwords.add(word.toLowerCase());
+                }
+            }
+            this.matcher = new WordMatcher(removewords);
+        }
 
+        /**
+         * Remove all occurrences of the words from a line, and trim it, as one round of removing each word in turn would do.
+         * Return the same string object when there was nothing to remove.
+         */
+        protected String removeWords(String line)
+        {
+            if (matcher.isOverlapFree())
+            {
+                String removed = matcher.removeAll(line);
+                if (removed == line)
+                {
+                    return line;
+                }
+                // as long as removing the words did not create new occurrences, the order of removing them does not matter
+                if (!matcher.contains(removed))
+                {
+                    return removed.trim();
+                }
+            }
+            for (String removeword : matcher.getWords())
+            {
+                if (line.contains(removeword))
+                {
+                    line = line.replace(removeword, "").trim();
+                }
+            }
+            return line;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,82 @@
+package be.svlandeg.annomine.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+
+/**
+ * An input stream that only reads the bytes of a file between a start and an end position.
+ * 
+ * @author Sofie Van Landeghem
+ */
+public class RangeInputStream extends FilterInputStream
+{
+
+    protected long remaining;
+
+    /**
+     * Open a file for reading a range of its bytes.
+     * 
+     * @param file the input file
+     * @param start the position of the first byte to read
+     * @param end the position after the last byte to read
+     * @throws IOException when the input file could not be opened
+     */
+    public RangeInputStream(File file, long start, long end) throws IOException
+    {
+        super(new FileInputStream(file));
+        ((FileInputStream) in).getChannel().position(start);
+        remaining = Math.max(0, end - start);
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        if (remaining <= 0)
+        {
+            return -1;
+        }
+        int b = in.read();
+        if (b >= 0)
+        {
+            remaining--;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        if (remaining <= 0)
+        {
+            return -1;
+        }
+        int read = in.read(b, off, (int) Math.min(len, remaining));
+        if (read > 0)
+        {
+            remaining -= read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException
+    {
+        long skipped = in.skip(Math.min(n, remaining));
+        remaining -= skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException
+    {
+        return (int) Math.min(in.available(), remaining);
+    }
+
+    @Override
+    public boolean markSupported()
+    {
+        return false;
+    }
+}
@@ -1,5 +1,6 @@
 package be.svlandeg.annomine.io;
 
+import be.svlandeg.annomine.algorithms.MappingContext;
 import be.svlandeg.annomine.algorithms.TextMapping;
 import be.svlandeg.annomine.data.Description;
 import be.svlandeg.annomine.data.DescriptionsList;
@@ -8,8 +9,16 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Reads a DescriptionsList from file, or a list of file names
@@ -18,6 +27,7 @@ import java.util.Set;
 public abstract class Reader
 {
 	
+    /* the settings with which descriptions are converted, shared by all readers and threads (each batch gets its own mapping context) */
     protected TextMapping tm;
 
     protected int evalue_col;
@@ -25,6 +35,19 @@ public abstract class Reader
     protected int description_col;
     protected int query_col;
 
+    /* the number of threads that read the files of a directory, or decompress block-gzipped (BGZF) input files */
+    protected int threads = 1;
+
+    /* the Input objects split their lines into reusable column offsets, so each thread gets its own */
+    private ThreadLocal<Input> inputs = new ThreadLocal<Input>()
+    {
+        @Override
+        protected Input initialValue()
+        {
+            return new Input(tm);
+        }
+    };
+
     /**
      * Constructor with default values for col_evalue, col_score and query_col (all -1).
      * 
@@ -71,7 +94,7 @@ public abstract class Reader
      * Read a description batch from a certain file. 
      * 
      * @param file the file containing the descriptions
-     * @param firsttime the first time, the converted versions of all substrings are stored in the TextMapping object
+     * @param firsttime the first time, the converted versions of all substrings are stored in the mapping context of the batch
      * @param switchorder decides whether the order of the words in the description line can be moved around
      * @param newline the newline character, used when printing the error message
      * @return a description batch, or null when an IO error occurred (i.e. the file doesn't exist or couldn't be read)
@@ -82,10 +105,11 @@ public abstract class Reader
     {
         String filename = file.getName();
         DescriptionsList dl = new DescriptionsList(filename);
+        startMapping(dl);
         BufferedReader reader = null;
         try
         {
-            reader = new BufferedReader(new FileReader(file));
+            reader = openReader(file);
             String line = reader.readLine();
             while (line != null)
             {
@@ -105,7 +129,93 @@ public abstract class Reader
     }
 
     /**
-     * Abstract method: read a functional description from one tab-delimited line.
+     * Give a new batch its own mapping context, into which the descriptions that the current thread reads next are converted.
+     * 
+     * @param dl the new batch of descriptions
+     */
+    protected void startMapping(DescriptionsList dl)
+    {
+        MappingContext mapping = null;
+        if (tm != null)
+        {
+            mapping = tm.newContext();
+        }
+        dl.setMapping(mapping);
+        getInput().setMapping(mapping);
+    }
+
+    /**
+     * Return the Input object of the current thread, which is reused for all lines this thread reads.
+     * 
+     * @return the Input object of the current thread
+     */
+    protected Input getInput()
+    {
+        return inputs.get();
+    }
+
+    /**
+     * Define the number of threads that read the files of a directory in {@link #readBatchLists}, or decompress block-gzipped (BGZF) input files. 
+     * Regular gzip files are always decompressed by the reading thread.
+     * 
+     * @param threads the number of threads (1 by default)
+     */
+    public void setThreads(int threads)
+    {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Return a textual representation of the settings of this reader, which determine which descriptions are read from a file.
+     * 
+     * @return the settings of this reader
+     */
+    protected String getSettings()
+    {
+        return "evalue_col=" + evalue_col + ";score_col=" + score_col + ";description_col=" + description_col + ";query_col=" + query_col;
+    }
+
+    /**
+     * Open a file for reading its lines. Gzip-compressed files are decompressed while reading.
+     * 
+     * @param file the input file
+     * @return a reader positioned at the start of the file
+     * @throws IOException when the input file could not be opened
+     */
+    protected BufferedReader openReader(File file) throws IOException
+    {
+        return new BufferedReader(new InputStreamReader(GzipFiles.open(file, threads)));
+    }
+
+    /**
+     * Open a part of a file for reading its lines.
+     * 
+     * @param file the input file
+     * @param start the position of the first byte to read, which should be the start of a line
+     * @param end the position after the last byte to read, which should be the end of a line
+     * @return a reader positioned at the start of the range
+     * @throws IOException when the input file could not be opened, or is compressed
+     */
+    protected BufferedReader openReader(File file, long start, long end) throws IOException
+    {
+        if (GzipFiles.isGzip(file))
+        {
+            throw new IOException("A part of a compressed file can not be read on its own");
+        }
+        return new BufferedReader(new InputStreamReader(new RangeInputStream(file, start, end)));
+    }
+
+    /**
+     * Abstract method: create a reader with the same settings as this one, to read another file on another thread.
+     * The copy shares the TextMapping object of this reader, which never changes.
+     * 
+     * @return a new reader
+     */
+    protected abstract Reader copy();
+
+    /**
+     * Abstract method: read a functional description from one tab-delimited line. 
+     * It is converted into the mapping context of the batch that the current thread is reading (see {@link #startMapping(DescriptionsList)}).
      *
      * @param line the tab-delimted line
      * @param substrings define whether substrings should also be calculated and inserted in the internal mapping
@@ -117,6 +227,7 @@ public abstract class Reader
 
     /**
      * Read a batch of descriptions from an input directory.
+     * Each file is read into a batch with its own mapping context. With more than one thread (see {@link #setThreads(int)}), the files are read at the same time.
      * 
      * @param dir the input directory
      * @param substrings define whether substrings should also be calculated and inserted in the internal mapping
@@ -126,9 +237,14 @@ public abstract class Reader
      */
     public Set<DescriptionsList> readBatchLists(String dir, boolean substrings, boolean switchorder, String newline)
     {
+        File[] files = new File(dir).listFiles();
+        if (threads > 1 && files.length > 1)
+        {
+            return readBatchListsInParallel(files, substrings, switchorder, newline);
+        }
         Set<DescriptionsList> descriptions = new HashSet<DescriptionsList>();
 
-        for (File f : new File(dir).listFiles())
+        for (File f : files)
         {
             try
             {
@@ -147,6 +263,63 @@ public abstract class Reader
         return descriptions;
     }
 
+    /**
+     * Read the files of a directory on a pool of threads. Each file is read by its own copy of this reader, which shares the TextMapping object of this reader.
+     */
+    private Set<DescriptionsList> readBatchListsInParallel(File[] files, final boolean substrings, final boolean switchorder, final String newline)
+    {
+        Set<DescriptionsList> descriptions = new HashSet<DescriptionsList>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try
+        {
+            List<Future<DescriptionsList>> futures = new ArrayList<Future<DescriptionsList>>();
+            for (final File f : files)
+            {
+                futures.add(executor.submit(new Callable<DescriptionsList>()
+                {
+                    public DescriptionsList call() throws IOException
+                    {
+                        return copy().readList(f, substrings, switchorder, newline);
+                    }
+                }));
+            }
+            for (int i = 0; i < files.length; i++)
+            {
+                try
+                {
+                    descriptions.add(futures.get(i).get());
+                }
+                catch (ExecutionException e)
+                {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IllegalArgumentException)
+                    {
+                        System.out.println(cause.getMessage());
+                    }
+                    else if (cause instanceof RuntimeException)
+                    {
+                        throw (RuntimeException) cause;
+                    }
+                    else if (cause instanceof Error)
+                    {
+                        throw (Error) cause;
+                    }
+                    // after an IOException, simply don't add the dl to the list
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        return descriptions;
+    }
+
     /**
      * Read a list of file names from a certain file.
      * 
@@ -30,21 +30,33 @@ public class SeparateFileReader extends Reader
         this.name = name;
     }
 
+    @Override
+    protected Reader copy()
+    {
+        return new SeparateFileReader(tm, evalue_col, score_col, description_col, name);
+    }
+
+    @Override
+    protected String getSettings()
+    {
+        return super.getSettings() + ";name=" + name;
+    }
+
     @Override
     public Description readDescription(String line, boolean substrings, boolean switchorder) throws IllegalArgumentException
     {
         Description dl = null;
         if (score_col >= 0)
         {
-            dl = new Input(tm).readScoredFromTab(line, score_col, description_col, substrings, switchorder);
+            dl = getInput().readScoredFromTab(line, score_col, description_col, substrings, switchorder);
         }
         else if (evalue_col >= 0)
         {
-            dl = new Input(tm).readEvaluedFromTab(line, evalue_col, description_col, query_col, substrings, switchorder);
+            dl = getInput().readEvaluedFromTab(line, evalue_col, description_col, query_col, substrings, switchorder);
         }
         else
         {
-            dl = new Input(tm).readFromTab(line, description_col, substrings, switchorder);
+            dl = getInput().readFromTab(line, description_col, substrings, switchorder);
         }
         dl.setQuery(name);
         return dl;
@@ -0,0 +1,324 @@
+package be.svlandeg.annomine.io;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds all occurrences of a fixed list of words in a string, in one left-to-right pass (Aho-Corasick).
+ * The words are compiled once into an automaton, which is immutable afterwards and can be shared between threads.
+ * Matching is case-sensitive.
+ *
+ * @author Sofie Van Landeghem
+ */
+public class WordMatcher
+{
+
+    protected List<String> words;
+
+    /* whether no two occurrences of the words can ever overlap */
+    private boolean overlapfree;
+
+    /* the symbol of each ASCII character, and of the other characters that occur in the words; symbol 0 stands for all other characters */
+    private int[] ascii_symbols = new int[128];
+    private Map<Character, Integer> other_symbols = new HashMap<Character, Integer>();
+    private int nsymbols = 1;
+
+    /* the transitions of the automaton (states * nsymbols), and the length of the longest word that ends in each state (0 when none) */
+    private int[] transitions;
+    private int[] match_lengths;
+
+    /* the index of the word that ends exactly in each state (-1 when none), and the next state along the failure links in which a word ends (0 when none) */
+    private int[] word_ids;
+    private int[] output_links;
+
+    /**
+     * Compile a list of words into an automaton. Empty words are ignored.
+     *
+     * @param words the words to find
+     */
+    public WordMatcher(List<String> words)
+    {
+        this.words = new ArrayList<String>();
+        for (String word : words)
+        {
+            if (word.length() > 0 && !this.words.contains(word))
+            {
+                this.words.add(word);
+            }
+        }
+        overlapfree = checkOverlapFree();
+        build();
+    }
+
+    /**
+     * Return the words of this matcher, without duplicates.
+     *
+     * @return the words of this matcher
+     */
+    public List<String> getWords()
+    {
+        return words;
+    }
+
+    /**
+     * Return whether occurrences of the words can never overlap: no word contains another one, no word starts with the end of a word,
+     * and no word starts or ends with whitespace. Only then, {@link #removeAll(String)} can be used.
+     *
+     * @return whether the words can never overlap
+     */
+    public boolean isOverlapFree()
+    {
+        return overlapfree;
+    }
+
+    /**
+     * Check whether a string contains any of the words.
+     *
+     * @param s the string
+     * @return whether one of the words occurs in the string
+     */
+    public boolean contains(String s)
+    {
+        int state = 0;
+        int length = s.length();
+        for (int i = 0; i < length; i++)
+        {
+            state = transitions[state * nsymbols + symbol(s.charAt(i))];
+            if (match_lengths[state] > 0)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find which of the words occur in a string.
+     *
+     * @param s the string
+     * @return for each word (in the order of {@link #getWords()}), whether it occurs in the string
+     */
+    public boolean[] find(String s)
+    {
+        boolean[] found = new boolean[words.size()];
+        int state = 0;
+        int length = s.length();
+        for (int i = 0; i < length; i++)
+        {
+            state = transitions[state * nsymbols + symbol(s.charAt(i))];
+            if (match_lengths[state] > 0)
+            {
+                int output = word_ids[state] >= 0 ? state : output_links[state];
+                while (output != 0)
+                {
+                    found[word_ids[output]] = true;
+                    output = output_links[output];
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Remove all occurrences of the words from a string. This requires the words to be overlap-free (see {@link #isOverlapFree()}),
+     * so that all occurrences are disjoint. Occurrences that only appear after removing others are not removed.
+     *
+     * @param s the string
+     * @return the string without the occurrences of the words, or the same string object when it contains none of the words
+     * @throws IllegalStateException when the words are not overlap-free
+     */
+    public String removeAll(String s) throws IllegalStateException
+    {
+        if (!overlapfree)
+        {
+            throw new IllegalStateException("  ! Occurrences of these words can overlap: " + words);
+        }
+        StringBuilder removed = null;
+        int copied = 0;
+        int state = 0;
+        int length = s.length();
+        for (int i = 0; i < length; i++)
+        {
+            state = transitions[state * nsymbols + symbol(s.charAt(i))];
+            int match = match_lengths[state];
+            if (match > 0)
+            {
+                if (removed == null)
+                {
+                    removed = new StringBuilder(length);
+                }
+                removed.append(s, copied, i + 1 - match);
+                copied = i + 1;
+            }
+        }
+        if (removed == null)
+        {
+            return s;
+        }
+        removed.append(s, copied, length);
+        return removed.toString();
+    }
+
+    /**
+     * Return the symbol of a character in the automaton.
+     */
+    private int symbol(char c)
+    {
+        if (c < 128)
+        {
+            return ascii_symbols[c];
+        }
+        Integer symbol = other_symbols.get(c);
+        if (symbol == null)
+        {
+            return 0;
+        }
+        return symbol;
+    }
+
+    /**
+     * Check whether occurrences of the words can never overlap.
+     */
+    private boolean checkOverlapFree()
+    {
+        for (String first : words)
+        {
+            if (first.charAt(0) <= ' ' || first.charAt(first.length() - 1) <= ' ')
+            {
+                return false;
+            }
+            for (String second : words)
+            {
+                if (first != second && first.contains(second))
+                {
+                    return false;
+                }
+                int max = Math.min(first.length(), second.length());
+                for (int k = 1; k < max || (first != second && k == max); k++)
+                {
+                    if (first.endsWith(second.substring(0, k)))
+                    {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Build the trie of the words, and turn it into a complete automaton using the failure links.
+     */
+    private void build()
+    {
+        for (String word : words)
+        {
+            for (int i = 0; i < word.length(); i++)
+            {
+                char c = word.charAt(i);
+                if (symbol(c) == 0)
+                {
+                    if (c < 128)
+                    {
+                        ascii_symbols[c] = nsymbols++;
+                    }
+                    else
+                    {
+                        other_symbols.put(c, nsymbols++);
+                    }
+                }
+            }
+        }
+
+        // the trie: -1 marks a missing transition
+        List<int[]> trie = new ArrayList<int[]>();
+        trie.add(newState());
+        List<Integer> ends = new ArrayList<Integer>();
+        ends.add(0);
+        List<Integer> ids = new ArrayList<Integer>();
+        ids.add(-1);
+        for (int w = 0; w < words.size(); w++)
+        {
+            String word = words.get(w);
+            int state = 0;
+            for (int i = 0; i < word.length(); i++)
+            {
+                int symbol = symbol(word.charAt(i));
+                if (trie.get(state)[symbol] < 0)
+                {
+                    trie.get(state)[symbol] = trie.size();
+                    trie.add(newState());
+                    ends.add(0);
+                    ids.add(-1);
+                }
+                state = trie.get(state)[symbol];
+            }
+            ends.set(state, word.length());
+            ids.set(state, w);
+        }
+
+        int states = trie.size();
+        transitions = new int[states * nsymbols];
+        match_lengths = new int[states];
+        word_ids = new int[states];
+        output_links = new int[states];
+        for (int state = 0; state < states; state++)
+        {
+            word_ids[state] = ids.get(state);
+        }
+        int[] failure = new int[states];
+
+        // breadth-first, so that the failure state of each state is complete before it is used
+        LinkedList<Integer> queue = new LinkedList<Integer>();
+        for (int symbol = 0; symbol < nsymbols; symbol++)
+        {
+            int next = trie.get(0)[symbol];
+            if (next < 0)
+            {
+                transitions[symbol] = 0;
+            }
+            else
+            {
+                transitions[symbol] = next;
+                failure[next] = 0;
+                queue.add(next);
+            }
+        }
+        while (!queue.isEmpty())
+        {
+            int state = queue.removeFirst();
+            match_lengths[state] = Math.max(ends.get(state), match_lengths[failure[state]]);
+            output_links[state] = word_ids[failure[state]] >= 0 ? failure[state] : output_links[failure[state]];
+            for (int symbol = 0; symbol < nsymbols; symbol++)
+            {
+                int next = trie.get(state)[symbol];
+                if (next < 0)
+                {
+                    transitions[state * nsymbols + symbol] = transitions[failure[state] * nsymbols + symbol];
+                }
+                else
+                {
+                    transitions[state * nsymbols + symbol] = next;
+                    failure[next] = transitions[failure[state] * nsymbols + symbol];
+                    queue.add(next);
+                }
+            }
+        }
+    }
+
+    /**
+     * Create a trie state without transitions.
+     */
+    private int[] newState()
+    {
+        int[] state = new int[nsymbols];
+        for (int i = 0; i < nsymbols; i++)
+        {
+            state[i] = -1;
+        }
+        return state;
+    }
+}